@@ -18,6 +18,7 @@ package neci.core;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -33,7 +34,8 @@ public class BZip2Codec extends Codec {
         BZip2CompressorOutputStream outputStream = new BZip2CompressorOutputStream(baos);
 
         try {
-            outputStream.write(uncompressedData.array());
+            outputStream.write(uncompressedData.array(), uncompressedData.arrayOffset() + uncompressedData.position(),
+                    uncompressedData.remaining());
         } finally {
             outputStream.close();
         }
@@ -43,8 +45,7 @@ public class BZip2Codec extends Codec {
     }
 
     @Override ByteBuffer decompress(ByteBuffer compressedData) throws IOException {
-        ByteArrayInputStream bais = new ByteArrayInputStream(compressedData.array());
-        BZip2CompressorInputStream inputStream = new BZip2CompressorInputStream(bais);
+        BZip2CompressorInputStream inputStream = new BZip2CompressorInputStream(open(compressedData));
         try {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
 
@@ -52,7 +53,7 @@ public class BZip2Codec extends Codec {
 
             int readCount = -1;
 
-            while ((readCount = inputStream.read(buffer, compressedData.position(), buffer.length)) > 0) {
+            while ((readCount = inputStream.read(buffer, 0, buffer.length)) > 0) {
                 baos.write(buffer, 0, readCount);
             }
 
@@ -63,6 +64,31 @@ public class BZip2Codec extends Codec {
         }
     }
 
+    /*
+     * open a stream over the buffer, which need not be in an array, such as a
+     * block mapped from its file.
+     */
+    private static InputStream open(ByteBuffer data) {
+        if (data.hasArray())
+            return new ByteArrayInputStream(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        final ByteBuffer in = data.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return in.hasRemaining() ? in.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!in.hasRemaining())
+                    return -1;
+                len = Math.min(len, in.remaining());
+                in.get(b, off, len);
+                return len;
+            }
+        };
+    }
+
     private ByteArrayOutputStream getOutputBuffer(int suggestedLength) {
         if (null == outputBuffer)
             outputBuffer = new ByteArrayOutputStream(suggestedLength);
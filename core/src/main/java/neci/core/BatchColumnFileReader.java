@@ -15,11 +15,17 @@ import org.apache.trevni.TrevniRuntimeException;
 public class BatchColumnFileReader implements Closeable {
     protected Input headFile;
     protected Input dataFile;
+    protected long headStart; // position of the header in headFile
+    protected Object fileId; // key of the file's blocks in the BlockCache
+    protected BlockPrefetcher prefetcher;
+    protected ChecksumPolicy checksumPolicy = ChecksumPolicy.getDefault();
 
     protected int rowCount;
     protected int columnCount;
     protected FileMetaData metaData;
-    protected ColumnDescriptor[] columns;
+    protected ColumnDescriptor[] columns; // null entries are parsed from the directory on demand
+    protected long[] columnOffsets; // header positions of the columns, if the header has a directory
+    protected long[] columnStarts;
     protected HashMap<String, Integer> columnsByName;
 
     public BatchColumnFileReader() {
@@ -27,9 +33,25 @@ public class BatchColumnFileReader implements Closeable {
     }
 
     public BatchColumnFileReader(File file) throws IOException {
-        this.dataFile = new InputFile(file);
-        this.headFile = new InputFile(
-                new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head"));
+        this(file, false);
+    }
+
+    /**
+     * Open a file, memory mapping it and its header if mapped is true. The
+     * header is read from the ".head" file next to it if there is one, from
+     * the footer of the file otherwise.
+     */
+    public BatchColumnFileReader(File file, boolean mapped) throws IOException {
+        File head = InsertColumnFileWriter.headFile(file);
+        this.dataFile = mapped ? new MappedInput(file) : new InputFile(file);
+        if (head.exists()) {
+            this.headFile = mapped ? new MappedInput(head) : new InputFile(head);
+        } else {
+            this.headFile = dataFile;
+            this.headStart = InsertColumnFileWriter.readFooterStart(dataFile);
+        }
+        if (BlockCache.get().isEnabled()) // a cache enabled later leaves this reader uncached
+            this.fileId = BlockCache.fileId(file);
         readHeader();
     }
 
@@ -57,20 +79,20 @@ public class BatchColumnFileReader implements Closeable {
     public FileColumnMetaData[] getFileColumnMetaData() {
         FileColumnMetaData[] result = new FileColumnMetaData[columnCount];
         for (int i = 0; i < columnCount; i++)
-            result[i] = columns[i].metaData;
+            result[i] = column(i).metaData;
         return result;
     }
 
     public List<FileColumnMetaData> getRoots() {
         List<FileColumnMetaData> result = new ArrayList<FileColumnMetaData>();
         for (int i = 0; i < columnCount; i++)
-            if (columns[i].metaData.getParent() == null)
-                result.add(columns[i].metaData);
+            if (column(i).metaData.getParent() == null)
+                result.add(column(i).metaData);
         return result;
     }
 
     public FileColumnMetaData getFileColumnMetaData(int number) {
-        return columns[number].metaData;
+        return column(number).metaData;
     }
 
     /**
@@ -87,11 +109,27 @@ public class BatchColumnFileReader implements Closeable {
     }
 
     private <T extends Comparable> ColumnDescriptor<T> getColumn(String name) {
-        return (ColumnDescriptor<T>) columns[getColumnNumber(name)];
+        return (ColumnDescriptor<T>) column(getColumnNumber(name));
+    }
+
+    /*
+     * return a column, parsing its metadata and block descriptors if they
+     * have not been read yet.
+     */
+    protected synchronized ColumnDescriptor column(int i) {
+        if (columns[i] == null) {
+            try { // parsing may first parse the column's parent
+                columns[i] = readColumn(new InputBuffer(headFile, columnOffsets[i]), i);
+            } catch (IOException e) {
+                throw new TrevniRuntimeException(e);
+            }
+            columns[i].start = columnStarts[i];
+        }
+        return columns[i];
     }
 
     private void readHeader() throws IOException {
-        InputBuffer in = new InputBuffer(headFile, 0);
+        InputBuffer in = new InputBuffer(headFile, headStart);
         readMagic(in);
         this.rowCount = in.readFixed32();
         this.columnCount = in.readFixed32();
@@ -99,8 +137,32 @@ public class BatchColumnFileReader implements Closeable {
         this.columnsByName = new HashMap<String, Integer>(columnCount);
 
         columns = new ColumnDescriptor[columnCount];
-        readFileColumnMetaData(in);
-        readColumnStarts(in);
+        if (metaData.hasColumnDirectory()) {
+            readColumnDirectory(in);
+        } else {
+            readFileColumnMetaData(in);
+            readColumnStarts(in);
+        }
+    }
+
+    /*
+     * read the names and header positions of the columns, leaving their
+     * metadata to be parsed when they are first used.
+     */
+    protected void readColumnDirectory(InputBuffer in) throws IOException {
+        columnOffsets = new long[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            columnsByName.put(in.readString(), i);
+            columnOffsets[i] = in.readFixed64();
+        }
+        long startsOffset = in.readFixed64();
+        long base = in.tell();
+        for (int i = 0; i < columnCount; i++)
+            columnOffsets[i] += base;
+        in.seek(base + startsOffset);
+        columnStarts = new long[columnCount];
+        for (int i = 0; i < columnCount; i++)
+            columnStarts[i] = in.readFixed64();
     }
 
     public HashMap<String, Integer> getColumnsByName() {
@@ -119,22 +181,34 @@ public class BatchColumnFileReader implements Closeable {
     }
 
     protected void readFileColumnMetaData(InputBuffer in) throws IOException {
-        for (int i = 0; i < columnCount; i++) {
-            FileColumnMetaData meta = FileColumnMetaData.read(in, this);
-            meta.setDefaults(this.metaData);
-            int blockCount = in.readFixed32();
-            BlockDescriptor[] blocks = new BlockDescriptor[blockCount];
-            for (int j = 0; j < blockCount; j++) {
-                blocks[j] = BlockDescriptor.read(in);
-                //          if (meta.hasIndexValues())
-                //          firstValues[i] = in.<T>readValue(meta.getType());
-            }
-            ColumnDescriptor column = new ColumnDescriptor(dataFile, meta);
-            column.setBlockDescriptor(blocks);
-            columns[i] = column;
-            meta.setNumber(i);
-            columnsByName.put(meta.getName(), i);
+        for (int i = 0; i < columnCount; i++)
+            columns[i] = readColumn(in, i);
+    }
+
+    protected ColumnDescriptor readColumn(InputBuffer in, int i) throws IOException {
+        FileColumnMetaData meta = FileColumnMetaData.read(in, this);
+        meta.setDefaults(this.metaData);
+        int blockCount = in.readFixed32();
+        BlockDescriptor[] blocks = new BlockDescriptor[blockCount];
+        for (int j = 0; j < blockCount; j++) {
+            blocks[j] = BlockDescriptor.read(in, meta);
+            //          if (meta.hasIndexValues())
+            //          firstValues[i] = in.<T>readValue(meta.getType());
         }
+        ColumnDescriptor column = new ColumnDescriptor(dataFile, meta);
+        column.setBlockDescriptor(blocks);
+        column.fileId = fileId;
+        column.checksumPolicy = checksumPolicy;
+        meta.setNumber(i);
+        columnsByName.put(meta.getName(), i);
+        if (columnOffsets != null) // children follow their parent, and may not be parsed yet
+            meta.setHeader(new FileColumnMetaData.Header() {
+                @Override
+                public FileColumnMetaData parseColumn(int number) {
+                    return number < columnCount ? column(number).metaData : null;
+                }
+            });
+        return column;
     }
 
     protected void readColumnStarts(InputBuffer in) throws IOException {
@@ -142,17 +216,76 @@ public class BatchColumnFileReader implements Closeable {
             columns[i].start = in.readFixed64();
     }
 
+    /**
+     * Set when the blocks read from now on have their checksums verified.
+     */
+    public synchronized void setChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        this.checksumPolicy = checksumPolicy;
+        for (ColumnDescriptor column : columns)
+            if (column != null)
+                column.checksumPolicy = checksumPolicy;
+    }
+
+    /**
+     * Prefetch the blocks of the values returned from now on, or stop
+     * prefetching if prefetcher is null.
+     */
+    public void setPrefetcher(BlockPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+
     public <T extends Comparable> BlockColumnValues<T> getValues(String columnName) throws IOException {
-        return new BlockColumnValues<T>(getColumn(columnName));
+        return getValues(getColumnNumber(columnName));
     }
 
     public <T extends Comparable> BlockColumnValues<T> getValues(int column) throws IOException {
-        return new BlockColumnValues<T>(columns[column]);
+        BlockColumnValues<T> values = BlockColumnValues.create(column(column));
+        if (prefetcher != null)
+            values.setPrefetcher(prefetcher);
+        return values;
+    }
+
+    public IntColumnValues getIntValues(String columnName) throws IOException {
+        return getValues(columnName, IntColumnValues.class);
     }
 
+    public LongColumnValues getLongValues(String columnName) throws IOException {
+        return getValues(columnName, LongColumnValues.class);
+    }
+
+    public DoubleColumnValues getDoubleValues(String columnName) throws IOException {
+        return getValues(columnName, DoubleColumnValues.class);
+    }
+
+    public BooleanColumnValues getBooleanValues(String columnName) throws IOException {
+        return getValues(columnName, BooleanColumnValues.class);
+    }
+
+    private <V extends BlockColumnValues> V getValues(String columnName, Class<V> c) throws IOException {
+        BlockColumnValues values = getValues(columnName);
+        if (!c.isInstance(values))
+            throw new TrevniRuntimeException("Column " + columnName + " of type " + values.getType()
+                    + " has no " + c.getSimpleName());
+        return c.cast(values);
+    }
+
+    /**
+     * Close the file, first dropping the blocks prefetched for the values
+     * returned from it and waiting for those still being read. The values,
+     * and the {@link Utf8View}s and buffers they returned, may not be used
+     * after: a mapped file is unmapped at once.
+     */
     @Override
     public void close() throws IOException {
-        headFile.close();
+        ColumnDescriptor[] parsed;
+        synchronized (this) {
+            parsed = columns.clone();
+        }
+        for (ColumnDescriptor column : parsed)
+            if (column != null)
+                column.stopPrefetching();
+        if (headFile != dataFile)
+            headFile.close();
         dataFile.close();
     }
 
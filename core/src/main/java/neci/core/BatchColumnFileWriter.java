@@ -4,6 +4,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.trevni.TrevniRuntimeException;
 
@@ -24,6 +25,9 @@ public class BatchColumnFileWriter {
     //    private int[] nest;
     //    private RandomAccessFile nestFile;
     private long[] columnStart;
+    private long dataLength; // bytes of blocks before the header
+    private ForkJoinPool pool; // encodes columns in parallel, if set
+    private BlockCompressor[] compressors;
     private Blocks[] blocks;
 
     private int addRow;
@@ -46,8 +50,12 @@ public class BatchColumnFileWriter {
         this.columncount = meta.length;
         this.columnStart = new long[columncount];
         this.blocks = new Blocks[columncount];
+        this.compressors = new BlockCompressor[columncount];
         for (int i = 0; i < columncount; i++) {
             blocks[i] = new Blocks();
+            compressors[i] = new BlockCompressor(meta[i], filemeta);
+            if (!meta[i].isArray() && BlockStatistics.isSupported(meta[i].getType()))
+                meta[i].hasStatistics(true);
         }
     }
 
@@ -59,6 +67,14 @@ public class BatchColumnFileWriter {
         }
     }
 
+    /**
+     * Encode and compress the columns in parallel on pool, or one after
+     * another on the calling thread if pool is null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     public void setInsert(ListArr[] sort) {
         this.insert = sort;
         this.addRow = sort[0].size();
@@ -75,9 +91,9 @@ public class BatchColumnFileWriter {
 
     public void appendTo(File file) throws IOException {
         OutputStream data = new FileOutputStream(file);
-        OutputStream head = new FileOutputStream(
-                new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head"));
+        OutputStream head = headStream(file);
         appendTo(head, data);
+        close(head, data);
     }
 
     /*
@@ -85,9 +101,9 @@ public class BatchColumnFileWriter {
      */
     public void flushTo(File file) throws IOException {
         OutputStream data = new FileOutputStream(file);
-        OutputStream head = new FileOutputStream(
-                new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head"));
+        OutputStream head = headStream(file);
         flushTo(head, data);
+        close(head, data);
     }
 
     //  public void insertTo(File file) throws IOException {
@@ -100,7 +116,7 @@ public class BatchColumnFileWriter {
         rowcount = addRow;
 
         writeSourceColumns(data);
-        writeHeader(head);
+        writeHeader(head, data);
     }
 
     /*
@@ -110,14 +126,33 @@ public class BatchColumnFileWriter {
         rowcount = addRow;
 
         flushSourceColumns(data);
-        writeHeader(head);
+        writeHeader(head, data);
     }
 
     public void mergeFiles(File file) throws IOException {
-        mergeFiles(
-                new FileOutputStream(new File(
-                        file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head")),
-                new FileOutputStream(file));
+        OutputStream data = new FileOutputStream(file);
+        OutputStream head = headStream(file);
+        mergeFiles(head, data);
+        close(head, data);
+    }
+
+    /*
+     * open the header file of a two-file dataset, or return null and drop a
+     * stale one if the header goes in the footer.
+     */
+    private OutputStream headStream(File file) throws IOException {
+        File head = InsertColumnFileWriter.headFile(file);
+        if (filemeta.isSingleFile()) {
+            head.delete();
+            return null;
+        }
+        return new FileOutputStream(head);
+    }
+
+    private static void close(OutputStream head, OutputStream data) throws IOException {
+        if (head != null)
+            head.close();
+        data.close();
     }
 
     public void mergeFiles(OutputStream head, OutputStream data) throws IOException {
@@ -126,14 +161,17 @@ public class BatchColumnFileWriter {
         //        for (int i = 0; i < rowcount; i++) {
         //            nest[i] = 1;
         //        }
-        for (int i = 0; i < columncount; i++) {
-            if (meta[i].isArray()) {
-                mergeArrayColumn(data, i);
-            } else {
-                mergeColumn(data, i);
+        new ColumnJob() {
+            @Override
+            void write(OutputStream out, int column, BlockOutputBuffer plain) throws IOException {
+                if (meta[column].isArray()) {
+                    mergeArrayColumn(out, column);
+                } else {
+                    mergeColumn(out, column);
+                }
             }
-        }
-        writeHeader(head);
+        }.run(data, columncount, filemeta.getBlockSize(), pool);
+        writeHeader(head, data);
         for (int i = 0; i < readers.length; i++) {
             readers[i].close();
             readers[i] = null;
@@ -155,15 +193,14 @@ public class BatchColumnFileWriter {
         ValueType type = meta[column].getType();
 
         if (type.equals(ValueType.UNION)) {
-            UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[column].getUnionArray(), meta[column].getUnionBits());
+            UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[column].getUnionArray(), meta[column].getUnionBits(),
+                    meta[column].getBlockSize());
+            ubuf.setStatistics(statistics(column));
             for (int i = 0; i < readers.length; i++) {
                 while (values[i].hasNext()) {
                     if (ubuf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                        blocks[column].add(b);
+                        writeBlock(out, column, row, ubuf);
                         row = 0;
-                        ubuf.writeTo(out);
-                        ubuf.reset();
                     }
                     values[i].startRow();
                     Object x = values[i].nextValue();
@@ -176,22 +213,17 @@ public class BatchColumnFileWriter {
                 }
             }
             if (ubuf.size() != 0) {
-                BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                blocks[column].add(b);
-                ubuf.writeTo(out);
-                ubuf.reset();
+                writeBlock(out, column, row, ubuf);
             }
             ubuf.close();
         } else {
-            BlockOutputBuffer buf = new BlockOutputBuffer();
+            BlockOutputBuffer buf = BlockOutputBuffer.create(meta[column]);
+            buf.setStatistics(statistics(column));
             for (int i = 0; i < readers.length; i++) {
                 while (values[i].hasNext()) {
                     if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[column].add(b);
+                        writeBlock(out, column, row, buf);
                         row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
                     }
                     values[i].startRow();
                     buf.writeValue(values[i].nextValue(), type);
@@ -199,9 +231,7 @@ public class BatchColumnFileWriter {
                 }
             }
             if (buf.size() != 0) {
-                BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                blocks[column].add(b);
-                buf.writeTo(out);
+                writeBlock(out, column, row, buf);
             }
 
             buf.close();
@@ -209,7 +239,7 @@ public class BatchColumnFileWriter {
     }
 
     private void mergeArrayColumn(OutputStream out, int column) throws IOException {
-        BlockOutputBuffer buf = new BlockOutputBuffer();
+        BlockOutputBuffer buf = BlockOutputBuffer.create(meta[column]);
         //        gapFile.seek(4);
         //        nestFile.seek(0);
         int row = 0;
@@ -219,11 +249,8 @@ public class BatchColumnFileWriter {
             values[i] = readers[i].getValues(column);
             while (values[i].hasNext()) {
                 if (buf.isFull()) {
-                    BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                    blocks[column].add(b);
+                    writeBlock(out, column, row, buf);
                     row = 0;
-                    buf.writeTo(out);
-                    buf.reset();
                 }
                 values[i].startRow();
                 int length = values[i].nextLength();
@@ -268,9 +295,7 @@ public class BatchColumnFileWriter {
         //        nestFile = new RandomAccessFile(path + "nest", "rw");
 
         if (buf.size() != 0) {
-            BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-            blocks[column].add(b);
-            buf.writeTo(out);
+            writeBlock(out, column, row, buf);
         }
 
         buf.close();
@@ -288,144 +313,184 @@ public class BatchColumnFileWriter {
     //  }
 
     private void writeSourceColumns(OutputStream out) throws IOException {
-        BlockOutputBuffer buf = new BlockOutputBuffer();
-        for (int i = 0; i < columncount; i++) {
-            ValueType type = meta[i].getType();
-            int row = 0;
-            if (meta[i].isArray()) {
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    buf.writeLength((Integer) x);
-                    row++;
-                }
-            } else if (type.equals(ValueType.UNION)) {
-                UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits());
-                for (Object x : insert[i].toArray()) {
-                    if (ubuf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        ubuf.writeTo(out);
-                        ubuf.reset();
-                    }
-                    ValueType tt = TranToValueType.tran(x);
-                    Integer index = meta[i].getUnionIndex(tt);
-                    if (index == null)
-                        throw new TrevniRuntimeException("Illegal value type: " + tt);
-                    ubuf.writeValue(x, index);
-                    row++;
+        new ColumnJob() {
+            @Override
+            void write(OutputStream out, int column, BlockOutputBuffer plain) throws IOException {
+                writeSourceColumn(out, column, plain);
+            }
+        }.run(out, columncount, filemeta.getBlockSize(), pool);
+        insert = null;
+    }
+
+    private void writeSourceColumn(OutputStream out, int i, BlockOutputBuffer plain) throws IOException {
+        ValueType type = meta[i].getType();
+        int row = 0;
+        BlockOutputBuffer buf = valueBuffer(i, plain);
+        if (meta[i].isArray()) {
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
-                if (ubuf.size() != 0) {
-                    BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                    blocks[i].add(b);
-                    ubuf.writeTo(out);
-                    ubuf.reset();
+                buf.writeLength((Integer) x);
+                row++;
+            }
+        } else if (type.equals(ValueType.UNION)) {
+            UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits(),
+                    meta[i].getBlockSize());
+            ubuf.setStatistics(statistics(i));
+            for (Object x : insert[i].toArray()) {
+                if (ubuf.isFull()) {
+                    writeBlock(out, i, row, ubuf);
+                    row = 0;
                 }
-                ubuf.close();
-            } else {
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    buf.writeValue(x, type);
-                    row++;
+                ValueType tt = TranToValueType.tran(x);
+                Integer index = meta[i].getUnionIndex(tt);
+                if (index == null)
+                    throw new TrevniRuntimeException("Illegal value type: " + tt);
+                ubuf.writeValue(x, index);
+                row++;
+            }
+            if (ubuf.size() != 0) {
+                writeBlock(out, i, row, ubuf);
+            }
+            ubuf.close();
+        } else {
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
+                buf.writeValue(x, type);
+                row++;
             }
+        }
 
-            insert[i].clear();
+        insert[i].clear();
 
-            if (buf.size() != 0) {
-                BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                blocks[i].add(b);
-                buf.writeTo(out);
-                buf.reset();
-            }
+        if (buf.size() != 0) {
+            writeBlock(out, i, row, buf);
         }
-        insert = null;
-        buf.close();
+        if (buf != plain)
+            buf.close();
     }
 
     /*
      * write array column incremently
      */
     private void flushSourceColumns(OutputStream out) throws IOException {
-        BlockOutputBuffer buf = new BlockOutputBuffer();
-        for (int i = 0; i < columncount; i++) {
-            ValueType type = meta[i].getType();
-            int row = 0;
-            if (meta[i].isArray()) {
-                int tmp = 0;
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    tmp += (int) x;
-                    buf.writeLength((Integer) tmp);
-                    row++;
-                }
-            } else if (type.equals(ValueType.UNION)) {
-                UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits());
-                for (Object x : insert[i].toArray()) {
-                    if (ubuf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        ubuf.writeTo(out);
-                        ubuf.reset();
-                    }
-                    ValueType tt = TranToValueType.tran(x);
-                    Integer index = meta[i].getUnionIndex(tt);
-                    if (index == null)
-                        throw new TrevniRuntimeException("Illegal value type: " + tt);
-                    ubuf.writeValue(x, index);
-                    row++;
+        new ColumnJob() {
+            @Override
+            void write(OutputStream out, int column, BlockOutputBuffer plain) throws IOException {
+                flushSourceColumn(out, column, plain);
+            }
+        }.run(out, columncount, filemeta.getBlockSize(), pool);
+        insert = null;
+    }
+
+    private void flushSourceColumn(OutputStream out, int i, BlockOutputBuffer plain) throws IOException {
+        ValueType type = meta[i].getType();
+        int row = 0;
+        BlockOutputBuffer buf = valueBuffer(i, plain);
+        if (meta[i].isArray()) {
+            int tmp = 0;
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
-                if (ubuf.size() != 0) {
-                    BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                    blocks[i].add(b);
-                    ubuf.writeTo(out);
-                    ubuf.reset();
+                tmp += (int) x;
+                buf.writeLength((Integer) tmp);
+                row++;
+            }
+        } else if (type.equals(ValueType.UNION)) {
+            UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits(),
+                    meta[i].getBlockSize());
+            ubuf.setStatistics(statistics(i));
+            for (Object x : insert[i].toArray()) {
+                if (ubuf.isFull()) {
+                    writeBlock(out, i, row, ubuf);
+                    row = 0;
                 }
-                ubuf.close();
-            } else {
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    buf.writeValue(x, type);
-                    row++;
+                ValueType tt = TranToValueType.tran(x);
+                Integer index = meta[i].getUnionIndex(tt);
+                if (index == null)
+                    throw new TrevniRuntimeException("Illegal value type: " + tt);
+                ubuf.writeValue(x, index);
+                row++;
+            }
+            if (ubuf.size() != 0) {
+                writeBlock(out, i, row, ubuf);
+            }
+            ubuf.close();
+        } else {
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
+                buf.writeValue(x, type);
+                row++;
             }
+        }
 
-            insert[i].clear();
+        insert[i].clear();
 
-            if (buf.size() != 0) {
-                BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                blocks[i].add(b);
-                buf.writeTo(out);
-                buf.reset();
-            }
+        if (buf.size() != 0) {
+            writeBlock(out, i, row, buf);
         }
-        insert = null;
-        buf.close();
+        if (buf != plain)
+            buf.close();
+    }
+
+    private BlockStatistics statistics(int column) {
+        if (!meta[column].hasStatistics())
+            return null;
+        return new BlockStatistics(meta[column].getType(), meta[column].hasBloomFilter());
+    }
+
+    /*
+     * return the shared plain buffer, or a new one if there is none or the
+     * column is encoded or has its own block size.
+     */
+    private BlockOutputBuffer valueBuffer(int column, BlockOutputBuffer plain) {
+        BlockOutputBuffer buf = plain;
+        if (plain == null || !meta[column].getValueEncoding().equals(FileColumnMetaData.PLAIN_ENCODING)
+                || meta[column].getBlockSize() != plain.getBlockSize())
+            buf = BlockOutputBuffer.create(meta[column]);
+        buf.setStatistics(statistics(column));
+        return buf;
+    }
+
+    private void writeBlock(OutputStream out, int column, int row, BlockOutputBuffer buf) throws IOException {
+        BlockDescriptor b = compressors[column].write(out, row, buf);
+        if (buf.getStatistics() != null)
+            b.setStatistics(buf.getStatistics());
+        blocks[column].add(b);
+        buf.reset();
+    }
+
+    /*
+     * write the header to head, or as a footer of data if head is null.
+     */
+    private void writeHeader(OutputStream head, OutputStream data) throws IOException {
+        if (head == null)
+            writeFooter(data);
+        else
+            writeHeader(head);
+    }
+
+    /**
+     * Write the header after the blocks, followed by a trailer which locates
+     * it, so that the blocks and header form a single file.
+     */
+    public void writeFooter(OutputStream out) throws IOException {
+        writeHeader(out);
+        OutputBuffer trailer = new OutputBuffer();
+        trailer.writeFixed64(dataLength);
+        trailer.write(InsertColumnFileWriter.FOOTER_MAGIC);
+        trailer.writeTo(out);
+        trailer.close();
     }
 
     public void writeHeader(OutputStream out) throws IOException {
@@ -433,21 +498,35 @@ public class BatchColumnFileWriter {
         header.write(MAGIC);
         header.writeFixed32(rowcount);
         header.writeFixed32(columncount);
+        filemeta.setReservedBoolean(FileMetaData.COLUMN_DIRECTORY_KEY, true);
         filemeta.write(header);
+        OutputBuffer columns = new OutputBuffer();
+        long[] offsets = new long[columncount];
         int i = 0;
         long delay = 0;
         for (FileColumnMetaData c : meta) {
             columnStart[i] = delay;
-            c.write(header);
+            offsets[i] = columns.size();
+            c.write(columns);
             int size = blocks[i].size();
-            header.writeFixed32(size);
+            columns.writeFixed32(size);
             for (int k = 0; k < size; k++) {
-                blocks[i].get(k).writeTo(header);
-                delay += blocks[i].get(k).compressedSize;
+                blocks[i].get(k).writeTo(columns, c);
+                delay += blocks[i].get(k).compressedSize + compressors[i].getChecksumSize();
             }
             blocks[i].clear();
             i++;
         }
+        dataLength = delay;
+
+        // the directory: each column's name and position after the directory
+        for (i = 0; i < columncount; i++) {
+            header.writeString(meta[i].getName());
+            header.writeFixed64(offsets[i]);
+        }
+        header.writeFixed64(columns.size());
+        columns.writeTo(header);
+        columns.close();
 
         for (i = 0; i < columncount; i++) {
             header.writeFixed64(columnStart[i]);
@@ -0,0 +1,171 @@
+package neci.core;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A bloom filter of the values of one block, so that an equality lookup can
+ * skip the blocks which cannot hold its value even when their min/max values
+ * do not exclude it. Values are hashed with the 64-bit murmur finalizer, or
+ * murmur3 over the UTF-8 bytes of strings, and each value sets
+ * {@link #HASHES} bits chosen by double hashing.
+ */
+public class BlockBloomFilter {
+    /** The bits kept per value, for a false positive rate of about 1%. */
+    public static final int BITS_PER_VALUE = 10;
+    public static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int hashes;
+
+    private BlockBloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Build a filter holding the values of which the first count hashes are
+     * given.
+     */
+    static BlockBloomFilter create(long[] valueHashes, int count) {
+        long size = Math.max(64, (long) count * BITS_PER_VALUE);
+        BlockBloomFilter result = new BlockBloomFilter(new long[(int) ((size + 63) >>> 6)], HASHES);
+        for (int i = 0; i < count; i++)
+            result.add(valueHashes[i]);
+        return result;
+    }
+
+    /**
+     * Return the hash of a value of a column with a range, as
+     * {@link BlockStatistics#hasRange(ValueType)} defines it.
+     */
+    public static long hash(Object value) {
+        if (value instanceof Integer)
+            return fmix((Integer) value);
+        if (value instanceof Long)
+            return fmix((Long) value);
+        if (value instanceof Float) // adding 0 turns -0.0 into 0.0, which compares equal to it
+            return fmix(Float.floatToIntBits((Float) value + 0.0f));
+        if (value instanceof Double)
+            return fmix(Double.doubleToLongBits((Double) value + 0.0));
+        if (value instanceof CharSequence)
+            return hash(value.toString().getBytes(StandardCharsets.UTF_8));
+        throw new IllegalArgumentException("Cannot hash value: " + value);
+    }
+
+    /**
+     * Return false only if the value was not added to this filter.
+     */
+    public boolean mightContain(Object value) {
+        long h = hash(value);
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long size = (long) bits.length << 6;
+        for (int i = 1; i <= hashes; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void add(long h) {
+        int h1 = (int) h;
+        int h2 = (int) (h >>> 32);
+        long size = (long) bits.length << 6;
+        for (int i = 1; i <= hashes; i++) {
+            long bit = ((h1 + i * h2) & 0x7fffffffL) % size;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public int getSize() {
+        return bits.length * 8;
+    }
+
+    void writeTo(OutputBuffer out) throws IOException {
+        out.write(hashes);
+        out.writeFixed32(bits.length);
+        for (long word : bits)
+            out.writeFixed64(word);
+    }
+
+    static BlockBloomFilter read(InputBuffer in) throws IOException {
+        int hashes = in.read();
+        long[] bits = new long[in.readFixed32()];
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = in.readFixed64();
+        return new BlockBloomFilter(bits, hashes);
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    /*
+     * the first half of the 128-bit murmur3 hash of the bytes, with seed 0.
+     */
+    private static long hash(byte[] b) {
+        final long c1 = 0x87c37b91114253d5L;
+        final long c2 = 0x4cf5ad432745937fL;
+        long h1 = 0;
+        long h2 = 0;
+        int blocks = b.length >> 4;
+        for (int i = 0; i < blocks; i++) {
+            long k1 = getLong(b, i << 4);
+            long k2 = getLong(b, (i << 4) + 8);
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+        long k1 = 0;
+        long k2 = 0;
+        int tail = blocks << 4;
+        for (int i = b.length - tail - 1; i >= 8; i--)
+            k2 = (k2 << 8) | (b[tail + i] & 0xff);
+        for (int i = Math.min(7, b.length - tail - 1); i >= 0; i--)
+            k1 = (k1 << 8) | (b[tail + i] & 0xff);
+        if (b.length - tail > 8) {
+            k2 *= c2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= c1;
+            h2 ^= k2;
+        }
+        if (b.length - tail > 0) {
+            k1 *= c1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= c2;
+            h1 ^= k1;
+        }
+        h1 ^= b.length;
+        h2 ^= b.length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        return h1 + h2;
+    }
+
+    private static long getLong(byte[] b, int i) {
+        long result = 0;
+        for (int j = 7; j >= 0; j--)
+            result = (result << 8) | (b[i + j] & 0xff);
+        return result;
+    }
+}
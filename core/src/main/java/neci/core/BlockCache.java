@@ -0,0 +1,148 @@
+package neci.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-wide cache of decompressed and checksummed blocks, shared by every
+ * reader of a file. Blocks are keyed by file, column and block number and the
+ * least recently used ones are evicted once the cached bytes pass the
+ * capacity. The capacity defaults to the "neci.cache.size" system property in
+ * bytes, and the cache is off, with a capacity of 0, if it is unset. While the
+ * cache is on, readers decompress every block into a new buffer, since cached
+ * blocks are shared, instead of reusing the buffer of the previous block.
+ * Only the readers opened while the cache is on use it.
+ */
+public class BlockCache {
+    private static final long DEFAULT_CAPACITY = 0;
+
+    private static final BlockCache INSTANCE = new BlockCache(Long.getLong("neci.cache.size", DEFAULT_CAPACITY));
+
+    private final LinkedHashMap<Key, ByteBuffer> blocks = new LinkedHashMap<Key, ByteBuffer>(256, 0.75f, true);
+    private long capacity;
+    private long size;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    BlockCache(long capacity) {
+        this.capacity = capacity;
+    }
+
+    public static BlockCache get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Return the id under which the blocks of a file are cached. The id
+     * changes when the file is rewritten.
+     */
+    public static Object fileId(File file) throws IOException {
+        return file.getCanonicalPath() + ":" + file.length() + ":" + file.lastModified();
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void setCapacity(long capacity) {
+        this.capacity = capacity;
+        evict();
+    }
+
+    public boolean isEnabled() {
+        return getCapacity() > 0;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Return a cached block, or null if it is not cached. */
+    public ByteBuffer getBlock(Object file, int column, int block) {
+        ByteBuffer data;
+        synchronized (this) {
+            data = blocks.get(new Key(file, column, block));
+        }
+        if (data == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return data.duplicate();
+    }
+
+    public synchronized void putBlock(Object file, int column, int block, ByteBuffer data) {
+        if (capacity <= 0 || data.remaining() > capacity)
+            return;
+        ByteBuffer old = blocks.put(new Key(file, column, block), data.duplicate());
+        if (old != null)
+            size -= old.remaining();
+        size += data.remaining();
+        evict();
+    }
+
+    /** Drop every cached block of a file. */
+    public synchronized void invalidate(Object file) {
+        Iterator<Map.Entry<Key, ByteBuffer>> i = blocks.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Key, ByteBuffer> e = i.next();
+            if (e.getKey().file.equals(file)) {
+                size -= e.getValue().remaining();
+                i.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        blocks.clear();
+        size = 0;
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private void evict() {
+        Iterator<ByteBuffer> i = blocks.values().iterator();
+        while (size > capacity && i.hasNext()) {
+            size -= i.next().remaining();
+            i.remove();
+        }
+    }
+
+    private static final class Key {
+        final Object file;
+        final int column;
+        final int block;
+
+        Key(Object file, int column, int block) {
+            this.file = file;
+            this.column = column;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key that = (Key) o;
+            return column == that.column && block == that.block && file.equals(that.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return (file.hashCode() * 31 + column) * 31 + block;
+        }
+    }
+}
@@ -15,8 +15,11 @@
  */
 package neci.core;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.Iterator;
 
 import org.apache.trevni.TrevniRuntimeException;
@@ -26,6 +29,8 @@ import org.apache.trevni.TrevniRuntimeException;
  */
 public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Iterable<T> {
 
+    static final int MAX_COALESCE = 4 * 1024 * 1024; // largest read of planned blocks
+
     protected final ColumnDescriptor column;
     protected final ValueType type;
     protected final Codec codec;
@@ -47,6 +52,19 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
     //    protected List<Long> blockEnd;
     //    protected List<Long> blockOffset;
 
+    protected BitSet plannedBlocks; // blocks to coalesce reads of
+    private byte[] staged; // the raw bytes of a run of planned blocks
+    private int stagedFirst;
+    private int stagedLast;
+
+    private ByteBuffer spare; // the current block's bytes, decompressed into again for the next block
+
+    protected BlockPrefetcher prefetcher;
+    protected ArrayDeque<BlockPrefetcher.Pending> prefetched;
+
+    protected boolean isDictionary;
+    protected boolean isDelta;
+    protected boolean wideOffsets;
     protected boolean isUnion;
     protected int unionBits;
     protected ValueType[] unionArray;
@@ -58,6 +76,10 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         this.checksum = Checksum.get(column.metaData);
         this.in = new InputBuffer(column.dataFile);
 
+        String encoding = column.metaData.getValueEncoding();
+        isDictionary = MetaData.DICTIONARY_ENCODING.equals(encoding);
+        isDelta = MetaData.DELTA_ENCODING.equals(encoding);
+        wideOffsets = BlockOutputBuffer.hasWideOffsets(column.metaData.getBlockSize());
         if (type.equals(ValueType.UNION)) {
             isUnion = true;
             unionBits = column.metaData.getUnionBits();
@@ -67,6 +89,30 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         column.ensureBlocksRead();
     }
 
+    /**
+     * Return the values of a column, through a cursor which reads them
+     * unboxed if the column holds single int, long, double or boolean values.
+     */
+    static <T extends Comparable> BlockColumnValues<T> create(ColumnDescriptor column) throws IOException {
+        if (!column.metaData.isArray()) {
+            switch (column.metaData.getType()) {
+                case INT:
+                case FIXED32:
+                    return (BlockColumnValues<T>) new IntColumnValues(column);
+                case LONG:
+                case FIXED64:
+                    return (BlockColumnValues<T>) new LongColumnValues(column);
+                case FLOAT:
+                case DOUBLE:
+                    return (BlockColumnValues<T>) new DoubleColumnValues(column);
+                case BOOLEAN:
+                    return (BlockColumnValues<T>) new BooleanColumnValues(column);
+                default:
+            }
+        }
+        return new BlockColumnValues<T>(column);
+    }
+
     /**
      * Return the current row number within this file.
      */
@@ -147,6 +193,32 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         return column.blockCount();
     }
 
+    /**
+     * Return true if the block descriptors of this column carry statistics.
+     */
+    public boolean hasStatistics() {
+        return column.metaData.hasStatistics();
+    }
+
+    public BlockDescriptor getBlockDescriptor(int block) {
+        return column.blocks[block];
+    }
+
+    /**
+     * Return the number of the block containing the named row.
+     */
+    public int findBlock(int r) {
+        return column.findBlock(r);
+    }
+
+    public int getFirstRow(int block) {
+        return column.firstRows[block];
+    }
+
+    public int getLastRow(int block) {
+        return column.lastRow(block);
+    }
+
     /**
      * Seek to the named row.
      */
@@ -176,16 +248,23 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         previous = null;
     }
 
+    /**
+     * Start the named block, reading it straight from its offset.
+     */
     public void seekBlock(int block) throws IOException {
-        for (int i = this.block + 1; i < block; i++) {
-            in.seek(column.blockStarts[i]);
-            int end = column.blocks[i].compressedSize;
-            byte[] raw = new byte[end + checksum.size()];
-            in.readFully(raw);
-        }
         startBlock(block);
     }
 
+    /**
+     * Declare the blocks the coming reads will start, so that runs of them
+     * adjacent in the file are each fetched with a single read. Null clears
+     * the plan.
+     */
+    public void planBlocks(BitSet blocks) {
+        this.plannedBlocks = blocks;
+        this.staged = null;
+    }
+
     public void startBlock(int block) throws IOException {
         long s = System.nanoTime();
         //        readBlockSize++;
@@ -200,17 +279,16 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         this.block = block;
         this.row = column.firstRows[block];
 
-        in.seek(column.blockStarts[block]);
-        int end = column.blocks[block].compressedSize;
-        byte[] raw = new byte[end + checksum.size()];
-        in.readFully(raw);
-        ByteBuffer data = codec.decompress(ByteBuffer.wrap(raw, 0, end));
-        if (!checksum.compute(data).equals(ByteBuffer.wrap(raw, end, checksum.size())))
-            throw new IOException("Checksums mismatch.");
+        ByteBuffer data = readBlock(block);
         if (isUnion)
-            values = new UnionInputBuffer(data, column.blocks[block].rowCount, unionBits, unionArray);
+            values = new UnionInputBuffer(data, column.blocks[block].rowCount, unionBits, unionArray, wideOffsets);
+        else if (isDictionary)
+            values = new DictionaryInputBuffer(data, column.blocks[block].rowCount, type, wideOffsets);
+        else if (isDelta)
+            values = new DeltaInputBuffer(data, column.blocks[block].rowCount,
+                    !column.metaData.isArray() && DeltaOutputBuffer.isWide(type));
         else
-            values = new BlockInputBuffer(data, column.blocks[block].rowCount);
+            values = new BlockInputBuffer(data, column.blocks[block].rowCount, wideOffsets);
         long e = System.nanoTime();
         //        blockTime.add((e - s));
         //        blockStart.add(s);
@@ -219,6 +297,155 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         //        time += e - s;
     }
 
+    /**
+     * Read the blocks following the current one ahead with a prefetcher, or
+     * stop doing so if it is null. A cursor dropped before the end of its
+     * column should be given null to free the blocks it prefetched. For a
+     * mapped file this waits for the blocks still being read, so that the
+     * file can then be closed and unmapped.
+     */
+    public void setPrefetcher(BlockPrefetcher prefetcher) {
+        stopPrefetching(false);
+        if (prefetcher != null) {
+            this.prefetcher = prefetcher;
+            this.prefetched = new ArrayDeque<BlockPrefetcher.Pending>();
+            column.setPrefetching(this, true);
+        }
+    }
+
+    /*
+     * drop the blocks prefetched and prefetch no more. Wait for the blocks
+     * still being read of a mapped file, or for every block if the file is
+     * closing, so that none stays reserved.
+     */
+    void stopPrefetching(boolean closing) {
+        if (prefetched != null) {
+            boolean mapped = column.dataFile instanceof MappedInput;
+            for (BlockPrefetcher.Pending p : prefetched) {
+                boolean running = prefetcher.cancel(p);
+                if (running && mapped || closing)
+                    prefetcher.await(p);
+            }
+            column.setPrefetching(this, false);
+        }
+        prefetcher = null;
+        prefetched = null;
+    }
+
+    private ByteBuffer readBlock(int block) throws IOException {
+        if (prefetcher == null) {
+            boolean cached = column.fileId != null && BlockCache.get().isEnabled();
+            ByteBuffer data = loadBlock(block, codec, checksum, in, cached ? null : spare);
+            // nothing but the current block points into it, unless it is the mapping itself
+            spare = cached || data.isReadOnly() ? null : data;
+            return data;
+        }
+        ByteBuffer data = null;
+        while (!prefetched.isEmpty() && prefetched.peekFirst().block <= block) {
+            BlockPrefetcher.Pending p = prefetched.pollFirst();
+            if (p.block == block)
+                data = prefetcher.take(p);
+            else
+                prefetcher.cancel(p); // skipped
+        }
+        if (!prefetched.isEmpty() && prefetched.peekFirst().block != block + 1) { // moved back
+            for (BlockPrefetcher.Pending p : prefetched)
+                prefetcher.cancel(p);
+            prefetched.clear();
+        }
+        if (data == null)
+            data = loadBlock(block, codec, checksum, in, null);
+        int next = prefetched.isEmpty() ? block + 1 : prefetched.peekLast().block + 1;
+        for (; next <= block + prefetcher.getDepth() && next < column.blockCount(); next++) {
+            BlockPrefetcher.Pending p = prefetcher.submit(this, next, column.blocks[next].uncompressedSize);
+            if (p == null)
+                break;
+            prefetched.addLast(p);
+        }
+        return data;
+    }
+
+    /*
+     * return the decompressed bytes of a block, from the BlockCache if the
+     * column's file is cached. Prefetching threads call this with their own
+     * codec and checksum, and no buffer. An uncached block may be decompressed
+     * into reuse. A block of a mapped file is decompressed straight from the
+     * mapping, and an uncompressed one is returned as a read-only slice of it,
+     * which is never cached.
+     */
+    ByteBuffer loadBlock(int block, Codec codec, Checksum checksum, InputBuffer in, ByteBuffer reuse)
+            throws IOException {
+        BlockCache cache = BlockCache.get();
+        boolean cached = column.fileId != null && cache.isEnabled();
+        if (cached) {
+            ByteBuffer data = cache.getBlock(column.fileId, column.metaData.getNumber(), block);
+            if (data != null)
+                return data;
+        }
+        ByteBuffer raw = readRaw(block, checksum, in);
+        ByteBuffer compressed = raw.duplicate();
+        compressed.limit(compressed.position() + column.blocks[block].compressedSize);
+        ByteBuffer data = codec.decompress(compressed, cached ? null : reuse);
+        column.verify(block, checksum, data, raw);
+        if (cached && !data.isReadOnly())
+            cache.putBlock(column.fileId, column.metaData.getNumber(), block, data);
+        return data;
+    }
+
+    /*
+     * read the compressed bytes and the checksum of a block. A mapped file is
+     * not copied: the result is a slice of the mapping.
+     */
+    private ByteBuffer readRaw(int block, Checksum checksum, InputBuffer in) throws IOException {
+        int len = column.blocks[block].compressedSize + checksum.size();
+        if (column.dataFile instanceof MappedInput)
+            return ((MappedInput) column.dataFile).slice(column.blockStarts[block], len);
+        byte[] raw = new byte[len];
+        if (in == null) {
+            readFully(column.blockStarts[block], raw, 0, raw.length);
+        } else if (plannedBlocks != null && plannedBlocks.get(block)) {
+            if (staged == null || block < stagedFirst || block > stagedLast)
+                stage(block, checksum);
+            System.arraycopy(staged, (int) (column.blockStarts[block] - column.blockStarts[stagedFirst]), raw, 0,
+                    raw.length);
+            if (block == stagedLast)
+                staged = null;
+        } else {
+            in.seek(column.blockStarts[block]);
+            in.readFully(raw);
+        }
+        return ByteBuffer.wrap(raw);
+    }
+
+    /*
+     * read the run of planned blocks starting with the named one, up to
+     * MAX_COALESCE bytes.
+     */
+    private void stage(int block, Checksum checksum) throws IOException {
+        int last = block;
+        long end = column.blockStarts[block] + column.blocks[block].compressedSize + checksum.size();
+        while (last + 1 < column.blockCount() && plannedBlocks.get(last + 1)) {
+            long next = column.blockStarts[last + 1] + column.blocks[last + 1].compressedSize + checksum.size();
+            if (next - column.blockStarts[block] > MAX_COALESCE)
+                break;
+            end = next;
+            last++;
+        }
+        staged = new byte[(int) (end - column.blockStarts[block])];
+        readFully(column.blockStarts[block], staged, 0, staged.length);
+        stagedFirst = block;
+        stagedLast = last;
+    }
+
+    private void readFully(long position, byte[] b, int start, int len) throws IOException {
+        for (int n = 0; n < len;) {
+            int r = column.dataFile.read(position + n, b, start + n, len - n);
+            if (r < 0)
+                throw new EOFException();
+            n += r;
+        }
+    }
+
     @Override
     public Iterator iterator() {
         return this;
@@ -241,6 +468,18 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         }
     }
 
+    /**
+     * Return the next value of a string column as a view into the block,
+     * without copying or decoding it.
+     */
+    public Utf8View nextUtf8(Utf8View reuse) throws IOException {
+        if (type != ValueType.STRING)
+            throw new TrevniRuntimeException("Column is not string: " + column.metaData.getName());
+        startRow();
+        arrayLength--;
+        return values.readUtf8(reuse);
+    }
+
     public void readIO() throws IOException {
         for (int i = 0; i < column.blockCount(); i++) {
             startBlock(i);
@@ -260,6 +499,21 @@ public class BlockColumnValues<T extends Comparable> implements Iterator<T>, Ite
         row++;
     }
 
+    /**
+     * Expert: start the next row if the current block is used up, and return
+     * the number of rows left in the block from there. Bulk reads take up to
+     * that many values from {@link #values} and then advance {@link #row}.
+     */
+    protected int startRun() throws IOException {
+        if (row >= column.lastRow(block)) {
+            if (block >= column.blockCount() - 1)
+                throw new TrevniRuntimeException("Read past end of column.");
+            startBlock(block + 1);
+        }
+        previous = null;
+        return column.lastRow(block) - row;
+    }
+
     /**
      * Expert: Returns the next length in an array column.
      */
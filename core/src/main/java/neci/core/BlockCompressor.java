@@ -0,0 +1,77 @@
+package neci.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the blocks of a column compressed with the column's codec and
+ * followed by the checksum of their uncompressed bytes, as the readers
+ * expect them.
+ */
+public class BlockCompressor {
+    private final Codec codec;
+    private final Checksum checksum;
+    private final boolean plain; // no codec and no checksum: write blocks as they are
+    private final Bytes bytes = new Bytes();
+
+    /**
+     * Create a compressor for a column, which inherits the codec and checksum
+     * of its file unless it sets its own.
+     */
+    public BlockCompressor(FileColumnMetaData column, MetaData file) {
+        column.setDefaults(file);
+        this.codec = Codec.get(column);
+        this.checksum = Checksum.get(column);
+        this.plain = codec instanceof NullCodec && checksum.size() == 0;
+    }
+
+    /**
+     * Return the number of bytes each block is followed by.
+     */
+    public int getChecksumSize() {
+        return checksum.size();
+    }
+
+    /**
+     * Write a block of rowCount values and return its descriptor.
+     */
+    public BlockDescriptor write(OutputStream out, int rowCount, BlockOutputBuffer buf) throws IOException {
+        if (plain) {
+            BlockDescriptor b = new BlockDescriptor(rowCount, buf.size(), buf.size());
+            buf.writeTo(out);
+            return b;
+        }
+        bytes.reset();
+        buf.writeTo(bytes);
+        return write(out, rowCount);
+    }
+
+    public BlockDescriptor write(OutputStream out, int rowCount, OutputBuffer buf) throws IOException {
+        if (plain) {
+            BlockDescriptor b = new BlockDescriptor(rowCount, buf.size(), buf.size());
+            buf.writeTo(out);
+            return b;
+        }
+        bytes.reset();
+        buf.writeTo(bytes);
+        return write(out, rowCount);
+    }
+
+    private BlockDescriptor write(OutputStream out, int rowCount) throws IOException {
+        int size = bytes.size();
+        ByteBuffer compressed = codec.compress(ByteBuffer.wrap(bytes.buffer(), 0, size));
+        int compressedSize = compressed.remaining();
+        out.write(compressed.array(), compressed.arrayOffset() + compressed.position(), compressedSize);
+        ByteBuffer sum = checksum.compute(ByteBuffer.wrap(bytes.buffer(), 0, size));
+        out.write(sum.array(), sum.arrayOffset() + sum.position(), sum.remaining());
+        return new BlockDescriptor(rowCount, size, compressedSize);
+    }
+
+    private static class Bytes extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+}
@@ -22,6 +22,17 @@ public class BlockDescriptor {
     int uncompressedSize;
     int compressedSize;
 
+    // optional zone map, only present when the column has statistics
+    boolean hasStatistics;
+    int nullCount;
+    Comparable min;
+    Comparable max;
+    BlockBloomFilter bloom;
+
+    private static final byte NULL_COUNT = 1;
+    private static final byte RANGE = 2;
+    private static final byte BLOOM = 4;
+
     BlockDescriptor() {
     }
 
@@ -35,12 +46,86 @@ public class BlockDescriptor {
         return compressedSize;
     }
 
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Attach the statistics collected while this block was written.
+     */
+    public void setStatistics(BlockStatistics stats) {
+        this.hasStatistics = true;
+        this.nullCount = stats.getNullCount();
+        this.min = stats.getMin();
+        this.max = stats.getMax();
+        this.bloom = stats.getBloomFilter();
+    }
+
+    /**
+     * Return true if the null count of this block is known.
+     */
+    public boolean hasStatistics() {
+        return hasStatistics;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    /**
+     * Return the smallest non-null value of this block, or null if unknown.
+     */
+    public Comparable getMin() {
+        return min;
+    }
+
+    /**
+     * Return the largest non-null value of this block, or null if unknown.
+     */
+    public Comparable getMax() {
+        return max;
+    }
+
+    /**
+     * Return the bloom filter of the values of this block, or null if the
+     * column keeps none.
+     */
+    public BlockBloomFilter getBloomFilter() {
+        return bloom;
+    }
+
     public void writeTo(OutputBuffer out) throws IOException {
         out.writeFixed32(rowCount);
         out.writeFixed32(uncompressedSize);
         out.writeFixed32(compressedSize);
     }
 
+    /**
+     * Write this descriptor, followed by its statistics and bloom filter if
+     * the column keeps them.
+     */
+    public void writeTo(OutputBuffer out, FileColumnMetaData meta) throws IOException {
+        writeTo(out);
+        if (!meta.hasStatistics())
+            return;
+        byte flags = 0;
+        if (hasStatistics)
+            flags |= NULL_COUNT;
+        if (min != null && max != null && BlockStatistics.hasRange(meta.getType()))
+            flags |= RANGE;
+        if (bloom != null)
+            flags |= BLOOM;
+        out.write(flags);
+        if ((flags & NULL_COUNT) != 0)
+            out.writeFixed32(nullCount);
+        if ((flags & RANGE) != 0) {
+            out.writeValue(min, meta.getType());
+            out.writeValue(max, meta.getType());
+        }
+        if ((flags & BLOOM) != 0)
+            bloom.writeTo(out);
+    }
+
     public static BlockDescriptor read(InputBuffer in) throws IOException {
         BlockDescriptor result = new BlockDescriptor();
         result.rowCount = in.readFixed32();
@@ -49,4 +134,22 @@ public class BlockDescriptor {
         return result;
     }
 
+    public static BlockDescriptor read(InputBuffer in, FileColumnMetaData meta) throws IOException {
+        BlockDescriptor result = read(in);
+        if (!meta.hasStatistics())
+            return result;
+        int flags = in.read();
+        if ((flags & NULL_COUNT) != 0) {
+            result.hasStatistics = true;
+            result.nullCount = in.readFixed32();
+        }
+        if ((flags & RANGE) != 0) {
+            result.min = in.readValue(meta.getType());
+            result.max = in.readValue(meta.getType());
+        }
+        if ((flags & BLOOM) != 0)
+            result.bloom = BlockBloomFilter.read(in);
+        return result;
+    }
+
 }
@@ -3,35 +3,91 @@ package neci.core;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
+import java.util.Arrays;
 
 import org.apache.trevni.TrevniRuntimeException;
 
+/**
+ * Reads the values of a block. A block in an array is read from the array; any
+ * other block, such as one mapped from its file, is read in place, and its
+ * strings and bytes are copied out one value at a time.
+ */
 public class BlockInputBuffer {
     private int pos;
     private int offset;
     private int count;
     private byte[] buf;
+    private ByteBuffer direct; // the block if it is not in an array, little-endian
+    private ByteBuffer cursor; // copies values out of direct
+    private byte[] scratch; // the last string viewed in direct
+    private int end;
     private int bitCount;
+    private boolean wide; // 32 bit end offsets
 
     protected int runLength; // length of run
     protected int runValue; // value of run
 
-    private static final CharsetDecoder UTF8 = Charset.forName("UTF-8").newDecoder();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
 
     public BlockInputBuffer() {
     }
 
     public BlockInputBuffer(ByteBuffer data, int count) {
-        buf = data.array();
-        this.count = count * 2;
-        //        offset = count * 2;
+        this(data, count, false);
     }
 
-    public BlockInputBuffer(byte[] data, int count) {
+    /**
+     * Read a block whose values end at 32 bit offsets if wide is set, at 16
+     * bit ones otherwise.
+     */
+    public BlockInputBuffer(ByteBuffer data, int count, boolean wide) {
+        if (data.hasArray()) {
+            init(data.array(), data.arrayOffset() + data.position(), count, wide);
+            return;
+        }
+        direct = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        cursor = direct.duplicate();
+        end = direct.limit();
+        pos = data.position();
+        this.wide = wide;
+        this.count = pos + count * (wide ? 4 : 2);
+    }
+
+    /**
+     * Read a block which starts at the named position of the array.
+     */
+    public BlockInputBuffer(byte[] data, int start, int count) {
+        this(data, start, count, false);
+    }
+
+    public BlockInputBuffer(byte[] data, int start, int count, boolean wide) {
+        init(data, start, count, wide);
+    }
+
+    private void init(byte[] data, int start, int count, boolean wide) {
         buf = data;
-        this.count = count * 2;
+        end = data.length;
+        pos = start;
+        this.wide = wide;
+        this.count = start + count * (wide ? 4 : 2);
+    }
+
+    /**
+     * Return a block in an array, copying it out of a buffer which is not.
+     * Encoded blocks, which are decoded all at once, are read this way.
+     */
+    static ByteBuffer onHeap(ByteBuffer data) {
+        if (data.hasArray())
+            return data;
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    public BlockInputBuffer(byte[] data, int count) {
+        this(data, 0, count, false);
         //        offset = count * 2;
     }
 
@@ -96,8 +152,8 @@ public class BlockInputBuffer {
     }
 
     public void skipBytes(int r) throws IOException {
-        pos += 2 * (r - 1);
-        offset = readFixed16();
+        pos += (wide ? 4 : 2) * (r - 1);
+        offset = readOffset();
     }
 
     public void skipBoolean(int r) throws IOException {
@@ -118,7 +174,7 @@ public class BlockInputBuffer {
     public boolean readBoolean() throws IOException {
         if (bitCount == 0)
             pos++;
-        int bits = buf[pos - 1] & 0xff;
+        int bits = (buf != null ? buf[pos - 1] : direct.get(pos - 1)) & 0xff;
         int bit = (bits >> bitCount) & 1;
         bitCount++;
         if (bitCount == 8)
@@ -151,24 +207,83 @@ public class BlockInputBuffer {
     }
 
     public int readFixed32() throws IOException {
-        int len = 1;
-        int n = (buf[pos] & 0xff) | ((buf[pos + len++] & 0xff) << 8) | ((buf[pos + len++] & 0xff) << 16)
-                | ((buf[pos + len++] & 0xff) << 24);
-        if ((pos + 4) > buf.length)
+        return getInt();
+    }
+
+    private int getInt() throws IOException {
+        if ((pos + 4) > end)
             throw new EOFException();
+        int n;
+        if (buf != null)
+            n = (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8) | ((buf[pos + 2] & 0xff) << 16)
+                    | ((buf[pos + 3] & 0xff) << 24);
+        else
+            n = direct.getInt(pos);
         pos += 4;
         return n;
     }
 
+    /**
+     * Read n fixed32 values into dst[off..off+n).
+     */
+    public void readFixed32s(int[] dst, int off, int n) throws IOException {
+        if (pos + 4 * n > end)
+            throw new EOFException();
+        if (buf == null) {
+            for (int i = 0; i < n; i++, pos += 4)
+                dst[off + i] = direct.getInt(pos);
+            return;
+        }
+        for (int i = 0; i < n; i++, pos += 4)
+            dst[off + i] = (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8) | ((buf[pos + 2] & 0xff) << 16)
+                    | ((buf[pos + 3] & 0xff) << 24);
+    }
+
+    /**
+     * Read n fixed64 values into dst[off..off+n).
+     */
+    public void readFixed64s(long[] dst, int off, int n) throws IOException {
+        if (pos + 8 * n > end)
+            throw new EOFException();
+        if (buf == null) {
+            for (int i = 0; i < n; i++, pos += 8)
+                dst[off + i] = direct.getLong(pos);
+            return;
+        }
+        for (int i = 0; i < n; i++) {
+            long l = 0;
+            for (int j = 0; j < 8; j++)
+                l |= (long) (buf[pos++] & 0xff) << (j << 3);
+            dst[off + i] = l;
+        }
+    }
+
+    public void readDoubles(double[] dst, int off, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            dst[off + i] = readDouble();
+    }
+
     public int readFixed16() throws IOException {
-        int len = 1;
-        int n = (buf[pos] & 0xff) | ((buf[pos + len++] & 0xff) << 8);
-        if ((pos + 2) > buf.length)
+        if ((pos + 2) > end)
             throw new EOFException();
+        int n;
+        if (buf != null)
+            n = (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8);
+        else
+            n = direct.getShort(pos) & 0xffff;
         pos += 2;
         return n;
     }
 
+    /*
+     * read the end offset of the next variable length value.
+     */
+    private int readOffset() throws IOException {
+        if (!wide)
+            return readFixed16();
+        return getInt();
+    }
+
     public double readDouble() throws IOException {
         return Double.longBitsToDouble(readFixed64());
     }
@@ -178,36 +293,60 @@ public class BlockInputBuffer {
     }
 
     public void skipNull() throws IOException {
-        offset = readFixed16();
+        offset = readOffset();
     }
 
     public byte[] readUnionFixed(int len) throws IOException {
         byte[] res = new byte[len];
-        System.arraycopy(buf, offset + count, res, 0, len);
-        offset = readFixed16();
+        copy(offset + count, res, 0, len);
+        offset = readOffset();
         return res;
     }
 
     public String readString() throws IOException {
-        int length = readFixed16();
-        int len = length - offset;
-        byte[] bytes = new byte[len];
-        System.arraycopy(buf, offset + count, bytes, 0, len);
+        int length = readOffset();
+        String result;
+        if (buf != null) {
+            result = new String(buf, offset + count, length - offset, UTF8);
+        } else {
+            byte[] bytes = scratch(length - offset);
+            copy(offset + count, bytes, 0, length - offset);
+            result = new String(bytes, 0, length - offset, UTF8);
+        }
         offset = length;
-        return UTF8.decode(ByteBuffer.wrap(bytes, 0, len)).toString();
+        return result;
+    }
+
+    /**
+     * Point the view at the next string without decoding it. A block not in an
+     * array copies the string into a buffer reused by the next call.
+     */
+    public Utf8View readUtf8(Utf8View reuse) throws IOException {
+        int length = readOffset();
+        if (reuse == null)
+            reuse = new Utf8View();
+        if (buf != null) {
+            reuse.set(buf, offset + count, length - offset);
+        } else {
+            byte[] bytes = scratch(length - offset);
+            copy(offset + count, bytes, 0, length - offset);
+            reuse.set(bytes, 0, length - offset);
+        }
+        offset = length;
+        return reuse;
     }
 
     public byte[] readBytes() throws IOException {
-        int length = readFixed16();
+        int length = readOffset();
         int len = length - offset;
         byte[] bytes = new byte[len];
-        System.arraycopy(buf, offset + count, bytes, 0, len);
+        copy(offset + count, bytes, 0, len);
         offset = length;
         return bytes;
     }
 
     public ByteBuffer readBytes(ByteBuffer old) throws IOException {
-        int length = readFixed16();
+        int length = readOffset();
         int len = length - offset;
         ByteBuffer result;
         if (old != null && len <= old.capacity()) {
@@ -216,12 +355,65 @@ public class BlockInputBuffer {
         } else {
             result = ByteBuffer.allocate(len);
         }
-        System.arraycopy(buf, offset + count, result.array(), result.position(), len);
+        copy(offset + count, result.array(), result.position(), len);
         result.limit(len);
         offset = length;
         return result;
     }
 
+    /*
+     * copy len bytes of the block from position from.
+     */
+    private void copy(int from, byte[] dst, int off, int len) {
+        if (buf != null) {
+            System.arraycopy(buf, from, dst, off, len);
+        } else {
+            cursor.position(from);
+            cursor.get(dst, off, len);
+        }
+    }
+
+    private byte[] scratch(int len) {
+        if (scratch == null || scratch.length < len)
+            scratch = new byte[Math.max(len, 64)];
+        return scratch;
+    }
+
+    /**
+     * Unpack n values of the named bit width, stored low bits first from the
+     * named position, into values[start..start+n).
+     */
+    public static void unpack(byte[] buf, int pos, int width, long[] values, int start, int n) {
+        if (width == 0) {
+            Arrays.fill(values, start, start + n, 0L);
+            return;
+        }
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        if ((width & 7) == 0) { // whole bytes
+            int bytes = width >>> 3;
+            for (int i = 0; i < n; i++) {
+                long v = 0;
+                for (int b = 0; b < bytes; b++)
+                    v |= (long) (buf[pos++] & 0xff) << (b << 3);
+                values[start + i] = v;
+            }
+            return;
+        }
+        long bitPos = 0;
+        for (int i = 0; i < n; i++) {
+            int index = pos + (int) (bitPos >>> 3);
+            int shift = (int) (bitPos & 7);
+            long v = (buf[index++] & 0xff) >>> shift;
+            int got = 8 - shift;
+            while (got < width) {
+                v |= (long) (buf[index++] & 0xff) << got;
+                got += 8;
+            }
+            values[start + i] = v & mask;
+            bitPos += width;
+        }
+    }
+
     public GroupCore readGroup() throws IOException {
         ByteBuffer buf = readBytes(null);
         GroupCore res = new GroupCore(buf);
@@ -12,20 +12,60 @@ public class BlockOutputBuffer {
     static final int BLOCK_SIZE = 48 * 1024;
     static final int COUNT = 32 * 1024;
 
+    protected final int blockSize;
+    protected final int offsetWidth; // bytes per end offset of a variable length value
+
     protected int bitCount; // position in booleans
 
+    protected BlockStatistics stats; // statistics of the current block, if any
+
     protected byte[] buf1;
     protected byte[] buf2;
     protected int count1;
     protected int count2;
 
     public BlockOutputBuffer() {
-        buf1 = new byte[BLOCK_SIZE + BLOCK_SIZE >> 2];
-        buf2 = new byte[BLOCK_SIZE];
+        this(BLOCK_SIZE);
+    }
+
+    /**
+     * Create a buffer which is full once it holds about blockSize bytes.
+     */
+    public BlockOutputBuffer(int blockSize) {
+        this.blockSize = blockSize;
+        this.offsetWidth = hasWideOffsets(blockSize) ? 4 : 2;
+        buf1 = new byte[blockSize >> 2];
+        buf2 = new byte[blockSize];
+    }
+
+    /**
+     * Return true if blocks of the named size address their values with 32
+     * bit offsets. Blocks up to the default size, which are written by
+     * earlier versions, use 16 bit offsets.
+     */
+    public static boolean hasWideOffsets(int blockSize) {
+        return blockSize > BLOCK_SIZE;
+    }
+
+    /**
+     * Return a buffer for the values of a column, honoring its encoding.
+     */
+    public static BlockOutputBuffer create(FileColumnMetaData meta) {
+        String encoding = meta.getValueEncoding();
+        if (MetaData.DICTIONARY_ENCODING.equals(encoding))
+            return new DictionaryOutputBuffer(meta.getBlockSize());
+        if (MetaData.DELTA_ENCODING.equals(encoding))
+            return new DeltaOutputBuffer(!meta.isArray() && DeltaOutputBuffer.isWide(meta.getType()),
+                    meta.getBlockSize());
+        return new BlockOutputBuffer(meta.getBlockSize());
     }
 
     public boolean isFull() {
-        return (count1 + count2) >= BLOCK_SIZE;
+        return (count1 + count2) >= blockSize;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
     }
 
     public int size() {
@@ -37,7 +77,20 @@ public class BlockOutputBuffer {
         buf2 = null;
     }
 
+    /**
+     * Collect statistics of the values written until the next {@link #reset()}.
+     */
+    public void setStatistics(BlockStatistics stats) {
+        this.stats = stats;
+    }
+
+    public BlockStatistics getStatistics() {
+        return stats;
+    }
+
     public void writeValue(Object value, ValueType type) throws IOException {
+        if (stats != null)
+            stats.update(value);
         switch (type) {
             case NULL:
                 break;
@@ -79,8 +132,22 @@ public class BlockOutputBuffer {
     }
 
     protected void ensureB1() {
-        if (count1 == BLOCK_SIZE)
-            buf1 = Arrays.copyOf(buf1, (buf1.length << 1));
+        if (count1 + offsetWidth > buf1.length)
+            buf1 = Arrays.copyOf(buf1, Math.max(buf1.length << 1, count1 + offsetWidth));
+    }
+
+    /*
+     * end the current variable length value.
+     */
+    protected void writeOffset() {
+        ensureB1();
+        buf1[count1] = (byte) ((count2) & 0xFF);
+        buf1[count1 + 1] = (byte) ((count2 >>> 8) & 0xFF);
+        if (offsetWidth == 4) {
+            buf1[count1 + 2] = (byte) ((count2 >>> 16) & 0xFF);
+            buf1[count1 + 3] = (byte) ((count2 >>> 24) & 0xFF);
+        }
+        count1 += offsetWidth;
     }
 
     protected void ensure(int n) {
@@ -91,7 +158,7 @@ public class BlockOutputBuffer {
     public void writeBoolean(boolean value) {
         if (bitCount == 0) { // first bool in byte
             ensure(1);
-            count2++;
+            buf2[count2++] = 0; // the buffer is reused across blocks
         }
         if (value)
             buf2[count2 - 1] |= (byte) (1 << bitCount);
@@ -107,17 +174,13 @@ public class BlockOutputBuffer {
     private static final Charset UTF8 = Charset.forName("UTF-8");
 
     public void writeNull() throws IOException {
-        buf1[count1] = (byte) ((count2) & 0xFF);
-        buf1[count1 + 1] = (byte) ((count2 >>> 8) & 0xFF);
-        count1 += 2;
+        writeOffset();
     }
 
     public void writeString(String string) throws IOException {
         byte[] bytes = string.getBytes(UTF8);
         write(bytes, 0, bytes.length);
-        buf1[count1] = (byte) ((count2) & 0xFF);
-        buf1[count1 + 1] = (byte) ((count2 >>> 8) & 0xFF);
-        count1 += 2;
+        writeOffset();
     }
 
     public void writeBytes(ByteBuffer bytes) throws IOException {
@@ -137,9 +200,7 @@ public class BlockOutputBuffer {
 
     public void writeBytes(byte[] bytes, int start, int len) throws IOException {
         write(bytes, start, len);
-        buf1[count1] = (byte) ((count2) & 0xFF);
-        buf1[count1 + 1] = (byte) ((count2 >>> 8) & 0xFF);
-        count1 += 2;
+        writeOffset();
     }
 
     public void writeFloat(float f) throws IOException {
@@ -182,6 +243,9 @@ public class BlockOutputBuffer {
     public synchronized void reset() {
         count1 = 0;
         count2 = 0;
+        bitCount = 0;
+        if (stats != null)
+            stats.reset();
     }
 
     public synchronized void write(byte b[], int off, int len) {
@@ -0,0 +1,164 @@
+package neci.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads the blocks of scanned columns ahead on a pool of background threads,
+ * so that I/O and decompression overlap with the work done on each block.
+ * A cursor given a prefetcher through
+ * {@link BlockColumnValues#setPrefetcher(BlockPrefetcher)} keeps up to
+ * {@link #getDepth()} blocks after its current one in flight. The blocks in
+ * flight or waiting to be used across all cursors are limited to
+ * {@link #getMemoryLimit()} uncompressed bytes; past that, cursors read their
+ * blocks themselves.
+ */
+public class BlockPrefetcher {
+    private static BlockPrefetcher defaultPrefetcher;
+
+    private final ExecutorService pool;
+    private final int depth;
+    private final long memoryLimit;
+    private final AtomicLong reserved = new AtomicLong();
+
+    public BlockPrefetcher(int threads, int depth, long memoryLimit) {
+        this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "neci-prefetch");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.depth = depth;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /**
+     * Return a shared prefetcher with one thread per processor, reading four
+     * blocks ahead within 64MB.
+     */
+    public static synchronized BlockPrefetcher getDefault() {
+        if (defaultPrefetcher == null)
+            defaultPrefetcher = new BlockPrefetcher(Runtime.getRuntime().availableProcessors(), 4, 64L * 1024 * 1024);
+        return defaultPrefetcher;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public long getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /** Return the uncompressed bytes of the blocks now prefetched. */
+    public long getReserved() {
+        return reserved.get();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /*
+     * start reading a block of a cursor, or return null if that would pass
+     * the memory limit.
+     */
+    Pending submit(final BlockColumnValues values, final int block, int size) {
+        if (reserved.addAndGet(size) > memoryLimit) {
+            reserved.addAndGet(-size);
+            return null;
+        }
+        final Pending p = new Pending(block, size);
+        p.future = pool.submit(new Callable<ByteBuffer>() {
+            @Override
+            public ByteBuffer call() throws IOException {
+                if (!p.state.compareAndSet(Pending.QUEUED, Pending.RUNNING)) {
+                    reserved.addAndGet(-p.size); // cancelled while queued
+                    return null;
+                }
+                try {
+                    return values.loadBlock(block, Codec.get(values.column.metaData),
+                            Checksum.get(values.column.metaData), null, null);
+                } finally {
+                    if (!p.state.compareAndSet(Pending.RUNNING, Pending.DONE))
+                        reserved.addAndGet(-p.size); // cancelled while running
+                }
+            }
+        });
+        return p;
+    }
+
+    /*
+     * wait for a prefetched block, whose memory is the cursor's from now on.
+     */
+    ByteBuffer take(Pending p) throws IOException {
+        reserved.addAndGet(-p.size);
+        try {
+            return p.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /*
+     * drop a prefetched block. Its memory stays reserved until its task ends,
+     * or is skipped if it has not started. Return true if the task is still
+     * reading the block.
+     */
+    boolean cancel(Pending p) {
+        while (true) {
+            int state = p.state.get();
+            if (state == Pending.DONE) {
+                reserved.addAndGet(-p.size);
+                return false;
+            }
+            if (p.state.compareAndSet(state, Pending.CANCELLED))
+                return state == Pending.RUNNING;
+        }
+    }
+
+    /*
+     * wait for the task of a cancelled block to end.
+     */
+    void await(Pending p) {
+        try {
+            p.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // the block is dropped anyway
+        }
+    }
+
+    static class Pending {
+        static final int QUEUED = 0;
+        static final int RUNNING = 1;
+        static final int DONE = 2;
+        static final int CANCELLED = 3;
+
+        final int block;
+        final int size;
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        Future<ByteBuffer> future;
+
+        Pending(int block, int size) {
+            this.block = block;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package neci.core;
+
+import java.util.Arrays;
+
+/**
+ * Collects the null count and the min/max values of the block being written,
+ * and optionally the hashes of its values for a bloom filter, so that readers
+ * can skip blocks which cannot match a predicate.
+ */
+public class BlockStatistics {
+    private final ValueType type;
+    private final boolean range;
+    private int nullCount;
+    private Comparable min;
+    private Comparable max;
+    private final boolean bloom;
+    private long[] hashes; // of the non-null values, if a bloom filter is kept
+    private int hashCount;
+
+    public BlockStatistics(ValueType type) {
+        this(type, false);
+    }
+
+    public BlockStatistics(ValueType type, boolean bloom) {
+        this.type = type;
+        this.range = hasRange(type);
+        this.bloom = bloom && range;
+        if (this.bloom)
+            hashes = new long[1024];
+    }
+
+    /**
+     * Return true if statistics can be collected for columns of this type.
+     */
+    public static boolean isSupported(ValueType type) {
+        return hasRange(type) || type == ValueType.UNION;
+    }
+
+    /**
+     * Return true if min/max values are kept for columns of this type. Union
+     * columns only track their null count.
+     */
+    public static boolean hasRange(ValueType type) {
+        switch (type) {
+            case INT:
+            case LONG:
+            case FIXED32:
+            case FIXED64:
+            case FLOAT:
+            case DOUBLE:
+            case STRING:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public ValueType getType() {
+        return type;
+    }
+
+    public void update(Object value) {
+        if (value == null) {
+            nullCount++;
+            return;
+        }
+        if (!range)
+            return;
+        if (value instanceof Double) // keep -0.0 and 0.0 together, as the filters compare them
+            value = (Double) value + 0.0;
+        else if (value instanceof Float)
+            value = (Float) value + 0.0f;
+        Comparable v = (Comparable) value;
+        if (min == null || compare(v, min) < 0)
+            min = v;
+        if (max == null || compare(v, max) > 0)
+            max = v;
+        if (bloom) {
+            if (hashCount == hashes.length)
+                hashes = Arrays.copyOf(hashes, hashCount << 1);
+            hashes[hashCount++] = BlockBloomFilter.hash(value);
+        }
+    }
+
+    /*
+     * order strings by code point, as the filters comparing UTF-8 bytes do.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable a, Comparable b) {
+        if (a instanceof CharSequence && b instanceof CharSequence)
+            return Utf8View.compare((CharSequence) a, (CharSequence) b);
+        return a.compareTo(b);
+    }
+
+    public void reset() {
+        nullCount = 0;
+        min = null;
+        max = null;
+        hashCount = 0;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    public Comparable getMin() {
+        return min;
+    }
+
+    public Comparable getMax() {
+        return max;
+    }
+
+    /**
+     * Return a bloom filter of the values of the block, or null if none is
+     * kept.
+     */
+    public BlockBloomFilter getBloomFilter() {
+        return bloom ? BlockBloomFilter.create(hashes, hashCount) : null;
+    }
+}
@@ -0,0 +1,40 @@
+package neci.core;
+
+import java.io.IOException;
+
+/**
+ * The values of a boolean column, which can also be read without boxing them.
+ */
+public class BooleanColumnValues extends BlockColumnValues<Boolean> {
+    protected BooleanColumnValues(ColumnDescriptor column) throws IOException {
+        super(column);
+    }
+
+    public boolean nextBoolean() throws IOException {
+        startRow();
+        return values.readBoolean();
+    }
+
+    /**
+     * Read up to n values into dst, returning the number read, which is less
+     * than n only at the end of the column.
+     */
+    public int readBooleans(boolean[] dst, int n) throws IOException {
+        return readBooleans(dst, 0, n);
+    }
+
+    /**
+     * Read up to n values into dst[off..off+n), returning the number read.
+     */
+    public int readBooleans(boolean[] dst, int off, int n) throws IOException {
+        int done = 0;
+        while (done < n && hasNext()) {
+            int k = Math.min(n - done, startRun());
+            for (int i = 0; i < k; i++)
+                dst[off + done + i] = values.readBoolean();
+            row += k;
+            done += k;
+        }
+        return done;
+    }
+}
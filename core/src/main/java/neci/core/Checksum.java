@@ -30,6 +30,8 @@ abstract class Checksum {
             return new NullChecksum();
         else if ("crc32".equals(name))
             return new Crc32Checksum();
+        else if ("crc32c".equals(name))
+            return new Crc32cChecksum();
         else
             throw new TrevniRuntimeException("Unknown checksum: " + name);
     }
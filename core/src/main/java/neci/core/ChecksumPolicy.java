@@ -0,0 +1,33 @@
+package neci.core;
+
+import org.apache.trevni.TrevniRuntimeException;
+
+/**
+ * When readers verify the checksums of the blocks they load. The default is
+ * set by the "neci.checksum.verify" system property, one of "always",
+ * "first" and "never", and is {@link #ALWAYS} if unset.
+ */
+public enum ChecksumPolicy {
+    /** Verify every load of a block. */
+    ALWAYS,
+    /** Verify the first load of each block of a file by a reader. */
+    FIRST_LOAD,
+    /** Never verify. */
+    NEVER;
+
+    private static final ChecksumPolicy DEFAULT = forName(System.getProperty("neci.checksum.verify", "always"));
+
+    public static ChecksumPolicy getDefault() {
+        return DEFAULT;
+    }
+
+    public static ChecksumPolicy forName(String name) {
+        if ("always".equals(name))
+            return ALWAYS;
+        if ("first".equals(name))
+            return FIRST_LOAD;
+        if ("never".equals(name))
+            return NEVER;
+        throw new TrevniRuntimeException("Unknown checksum policy: " + name);
+    }
+}
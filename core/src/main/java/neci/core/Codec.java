@@ -35,6 +35,8 @@ abstract class Codec {
             return new SnappyCodec();
         else if ("bzip2".equals(name))
             return new BZip2Codec();
+        else if ("lz4".equals(name))
+            return new Lz4Codec();
         else
             throw new TrevniRuntimeException("Unknown codec: " + name);
     }
@@ -49,4 +51,12 @@ abstract class Codec {
      */
     abstract ByteBuffer decompress(ByteBuffer compressedData) throws IOException;
 
+    /**
+     * Decompress data, into reuse if the codec supports it and reuse is large
+     * enough.
+     */
+    ByteBuffer decompress(ByteBuffer compressedData, ByteBuffer reuse) throws IOException {
+        return decompress(compressedData);
+    }
+
 }
@@ -16,13 +16,21 @@
 package neci.core;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import org.apache.trevni.Input;
 
 public class ColumnDescriptor<T extends Comparable> {
     final Input dataFile;
     final FileColumnMetaData metaData;
+    Object fileId; // null if the blocks are not cached
+    ChecksumPolicy checksumPolicy = ChecksumPolicy.getDefault();
+    private BitSet verified; // blocks whose checksums matched, under FIRST_LOAD
+    private final Map<BlockColumnValues, Boolean> prefetching = new IdentityHashMap<BlockColumnValues, Boolean>();
 
     long start;
 
@@ -72,6 +80,68 @@ public class ColumnDescriptor<T extends Comparable> {
         return firstRows[block] + blocks[block].rowCount;
     }
 
+    /*
+     * compare the checksum of the decompressed bytes of a block with the one
+     * following its compressed bytes in raw, as the checksum policy requires.
+     */
+    void verify(int block, Checksum checksum, ByteBuffer data, byte[] raw) throws IOException {
+        verify(block, checksum, data, ByteBuffer.wrap(raw));
+    }
+
+    /*
+     * as above, with raw holding the compressed bytes from its position, such
+     * as a block mapped from its file.
+     */
+    void verify(int block, Checksum checksum, ByteBuffer data, ByteBuffer raw) throws IOException {
+        if (checksum.size() == 0 || checksumPolicy == ChecksumPolicy.NEVER)
+            return;
+        boolean once = checksumPolicy == ChecksumPolicy.FIRST_LOAD;
+        if (once) {
+            synchronized (this) {
+                if (verified != null && verified.get(block))
+                    return;
+            }
+        }
+        int end = blocks[block].compressedSize;
+        ByteBuffer stored = raw.duplicate();
+        stored.limit(raw.position() + end + checksum.size());
+        stored.position(raw.position() + end);
+        if (!checksum.compute(data.duplicate()).equals(stored))
+            throw new IOException("Checksums mismatch.");
+        if (once) {
+            synchronized (this) {
+                if (verified == null)
+                    verified = new BitSet(blocks.length);
+                verified.set(block);
+            }
+        }
+    }
+
+    /*
+     * record whether a cursor over this column has blocks prefetched.
+     */
+    void setPrefetching(BlockColumnValues values, boolean on) {
+        synchronized (prefetching) {
+            if (on)
+                prefetching.put(values, Boolean.TRUE);
+            else
+                prefetching.remove(values);
+        }
+    }
+
+    /*
+     * drop the blocks prefetched for the cursors over this column, waiting
+     * for those still being read, before the file is closed.
+     */
+    void stopPrefetching() {
+        BlockColumnValues[] cursors;
+        synchronized (prefetching) {
+            cursors = prefetching.keySet().toArray(new BlockColumnValues[prefetching.size()]);
+        }
+        for (BlockColumnValues values : cursors)
+            values.stopPrefetching(true);
+    }
+
     public void ensureBlocksRead() throws IOException {
         //    if (blocks != null) return;
 
@@ -0,0 +1,74 @@
+package neci.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes the columns of a file one after another on the calling thread, or
+ * in parallel on a {@link ForkJoinPool}. Either way the columns reach the
+ * output in column order, so their starts are those of a sequential write.
+ * In parallel, each column is encoded and compressed into memory and at most
+ * twice the pool's parallelism of columns are held at once.
+ */
+abstract class ColumnJob {
+    /**
+     * Encode a column to out, through the shared plain buffer if it is not
+     * null and suits the column.
+     */
+    abstract void write(OutputStream out, int column, BlockOutputBuffer plain) throws IOException;
+
+    void run(OutputStream out, int columnCount, int blockSize, ForkJoinPool pool) throws IOException {
+        if (pool == null) {
+            BlockOutputBuffer plain = new BlockOutputBuffer(blockSize);
+            for (int i = 0; i < columnCount; i++)
+                write(out, i, plain);
+            plain.close();
+            return;
+        }
+        int window = pool.getParallelism() * 2;
+        ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<Future<ByteArrayOutputStream>>();
+        int next = 0;
+        try {
+            for (int i = 0; i < columnCount; i++) {
+                for (; next < columnCount && next < i + window; next++)
+                    pending.add(pool.submit(encode(next)));
+                take(pending.poll()).writeTo(out);
+            }
+        } finally {
+            for (Future<ByteArrayOutputStream> f : pending)
+                f.cancel(false);
+        }
+    }
+
+    private Callable<ByteArrayOutputStream> encode(final int column) {
+        return new Callable<ByteArrayOutputStream>() {
+            @Override
+            public ByteArrayOutputStream call() throws IOException {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                write(bytes, column, null);
+                return bytes;
+            }
+        };
+    }
+
+    private static ByteArrayOutputStream take(Future<ByteArrayOutputStream> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -120,8 +120,7 @@ public class ColumnValues<T extends Comparable> implements Iterator<T>, Iterable
         byte[] raw = new byte[end + checksum.size()];
         in.readFully(raw);
         ByteBuffer data = codec.decompress(ByteBuffer.wrap(raw, 0, end));
-        if (!checksum.compute(data).equals(ByteBuffer.wrap(raw, end, checksum.size())))
-            throw new IOException("Checksums mismatch.");
+        column.verify(block, checksum, data, raw);
         values = new InputBuffer(new InputBytes(data));
     }
 
@@ -30,7 +30,10 @@ final class Crc32Checksum extends Checksum {
 
     @Override public ByteBuffer compute(ByteBuffer data) {
         crc32.reset();
-        crc32.update(data.array(), data.position(), data.remaining());
+        if (data.hasArray())
+            crc32.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        else
+            crc32.update(data.duplicate());
 
         ByteBuffer result = ByteBuffer.allocate(size());
         result.putInt((int) crc32.getValue());
@@ -0,0 +1,105 @@
+package neci.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Implements the CRC32C (Castagnoli) checksum with java.util.zip.CRC32C, which
+ * the JVM accelerates with the CPU's crc32 instructions, where it exists
+ * (Java 9 and later), and with a slicing-by-8 table lookup otherwise.
+ */
+final class Crc32cChecksum extends Checksum {
+    private static final Class<?> JDK_CRC32C = jdkClass();
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    private final java.util.zip.Checksum crc = create();
+
+    @Override public int size() {
+        return 4;
+    }
+
+    @Override public ByteBuffer compute(ByteBuffer data) {
+        crc.reset();
+        if (data.hasArray()) {
+            crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else { // a block mapped from its file, copied out a chunk at a time
+            ByteBuffer in = data.duplicate();
+            byte[] chunk = new byte[Math.min(in.remaining(), CHUNK_SIZE)];
+            while (in.hasRemaining()) {
+                int n = Math.min(in.remaining(), chunk.length);
+                in.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+            }
+        }
+        ByteBuffer result = ByteBuffer.allocate(size());
+        result.putInt((int) crc.getValue());
+        result.flip();
+        return result;
+    }
+
+    private static Class<?> jdkClass() {
+        try {
+            return Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static java.util.zip.Checksum create() {
+        if (JDK_CRC32C != null) {
+            try {
+                return (java.util.zip.Checksum) JDK_CRC32C.newInstance();
+            } catch (ReflectiveOperationException e) {
+                // fall back to the table
+            }
+        }
+        return new TableCrc32c();
+    }
+
+    /**
+     * CRC32C by table lookup, eight bytes at a time.
+     */
+    static final class TableCrc32c implements java.util.zip.Checksum {
+        private static final int[][] TABLE = new int[8][256];
+
+        static {
+            for (int i = 0; i < 256; i++) {
+                int c = i;
+                for (int k = 0; k < 8; k++)
+                    c = (c & 1) != 0 ? (c >>> 1) ^ 0x82F63B78 : c >>> 1;
+                TABLE[0][i] = c;
+            }
+            for (int i = 0; i < 256; i++)
+                for (int t = 1; t < 8; t++)
+                    TABLE[t][i] = (TABLE[t - 1][i] >>> 8) ^ TABLE[0][TABLE[t - 1][i] & 0xff];
+        }
+
+        private int crc = 0xffffffff;
+
+        @Override public void update(int b) {
+            crc = (crc >>> 8) ^ TABLE[0][(crc ^ b) & 0xff];
+        }
+
+        @Override public void update(byte[] b, int off, int len) {
+            int c = crc;
+            int end = off + len;
+            for (; off + 8 <= end; off += 8) {
+                int lo = c ^ ((b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16
+                        | (b[off + 3] & 0xff) << 24);
+                c = TABLE[7][lo & 0xff] ^ TABLE[6][(lo >>> 8) & 0xff] ^ TABLE[5][(lo >>> 16) & 0xff]
+                        ^ TABLE[4][lo >>> 24] ^ TABLE[3][b[off + 4] & 0xff] ^ TABLE[2][b[off + 5] & 0xff]
+                        ^ TABLE[1][b[off + 6] & 0xff] ^ TABLE[0][b[off + 7] & 0xff];
+            }
+            for (; off < end; off++)
+                c = (c >>> 8) ^ TABLE[0][(c ^ b[off]) & 0xff];
+            crc = c;
+        }
+
+        @Override public long getValue() {
+            return ~crc & 0xffffffffL;
+        }
+
+        @Override public void reset() {
+            crc = 0xffffffff;
+        }
+    }
+}
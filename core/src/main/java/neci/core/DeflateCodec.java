@@ -28,6 +28,8 @@ import java.util.zip.InflaterOutputStream;
  * Implements DEFLATE (RFC1951) compression and decompression.
  */
 class DeflateCodec extends Codec {
+    private static final int CHUNK_SIZE = 8 * 1024;
+
     private ByteArrayOutputStream outputBuffer;
     private Deflater deflater;
     private Inflater inflater;
@@ -45,7 +47,17 @@ class DeflateCodec extends Codec {
     }
 
     private void writeAndClose(ByteBuffer data, OutputStream out) throws IOException {
-        out.write(data.array(), data.position(), data.remaining());
+        if (data.hasArray()) {
+            out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        } else { // a block mapped from its file, written a chunk at a time
+            ByteBuffer in = data.duplicate();
+            byte[] chunk = new byte[Math.min(in.remaining(), CHUNK_SIZE)];
+            while (in.hasRemaining()) {
+                int n = Math.min(in.remaining(), chunk.length);
+                in.get(chunk, 0, n);
+                out.write(chunk, 0, n);
+            }
+        }
         out.close();
     }
 
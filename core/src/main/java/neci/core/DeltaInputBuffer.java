@@ -0,0 +1,96 @@
+package neci.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.trevni.TrevniRuntimeException;
+
+/**
+ * Reads a block written by {@link DeltaOutputBuffer}. The whole block is
+ * unpacked at once when it is started.
+ */
+public class DeltaInputBuffer extends BlockInputBuffer {
+    private long[] values;
+    private int pos;
+
+    public DeltaInputBuffer(ByteBuffer data, int count, boolean wide) {
+        data = onHeap(data);
+        byte[] buf = data.array();
+        int start = data.arrayOffset() + data.position();
+        values = new long[count];
+        if (count == 0)
+            return;
+        if (buf[start] == DeltaOutputBuffer.PLAIN) {
+            unpack(buf, start + 1, wide ? 64 : 32, values, 0, count);
+            if (!wide)
+                for (int i = 0; i < count; i++)
+                    values[i] = (int) values[i];
+            return;
+        }
+        long first = getLong(buf, start + 1);
+        long minDelta = getLong(buf, start + 9);
+        int width = buf[start + 17] & 0xff;
+        unpack(buf, start + 1 + DeltaOutputBuffer.HEADER_SIZE, width, values, 1, count - 1);
+        values[0] = first;
+        for (int i = 1; i < count; i++)
+            values[i] += values[i - 1] + minDelta;
+    }
+
+    private static long getLong(byte[] buf, int pos) {
+        long l = 0;
+        for (int i = 0; i < 8; i++)
+            l |= (long) (buf[pos + i] & 0xff) << (i << 3);
+        return l;
+    }
+
+    @Override
+    public <T extends Comparable> T readValue(ValueType type) throws IOException {
+        switch (type) {
+            case INT:
+            case FIXED32:
+                return (T) Integer.valueOf(readFixed32());
+            case LONG:
+            case FIXED64:
+                return (T) Long.valueOf(readFixed64());
+            default:
+                throw new TrevniRuntimeException("Not a delta type: " + type);
+        }
+    }
+
+    @Override
+    public void skipValue(ValueType type, int r) throws IOException {
+        pos += r;
+    }
+
+    @Override
+    public void skipLength(int r) throws IOException {
+        pos += r;
+    }
+
+    @Override
+    public int readLength() throws IOException {
+        return (int) values[pos++];
+    }
+
+    @Override
+    public int readFixed32() throws IOException {
+        return (int) values[pos++];
+    }
+
+    @Override
+    public long readFixed64() throws IOException {
+        return values[pos++];
+    }
+
+    @Override
+    public void readFixed32s(int[] dst, int off, int n) throws IOException {
+        for (int i = 0; i < n; i++)
+            dst[off + i] = (int) values[pos++];
+    }
+
+    @Override
+    public void readFixed64s(long[] dst, int off, int n) throws IOException {
+        System.arraycopy(values, pos, dst, off, n);
+        pos += n;
+    }
+}
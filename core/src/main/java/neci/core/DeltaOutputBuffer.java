@@ -0,0 +1,170 @@
+package neci.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes a block of an integer column, or of the lengths of an array column,
+ * as its first value, the smallest delta between consecutive values and the
+ * remaining deltas relative to that smallest one, bit-packed with the fewest
+ * bits which hold the largest of them. Sorted keys and incrementally stored
+ * array offsets pack into a few bits per value. When packing does not pay off
+ * the block is written plainly instead, so a leading byte tells which layout
+ * follows.
+ */
+public class DeltaOutputBuffer extends BlockOutputBuffer {
+    static final byte PLAIN = 0;
+    static final byte DELTA = 1;
+    static final int HEADER_SIZE = 8 + 8 + 1; // first value, min delta, bit width
+    static final int MAX_ROWS = 64 * 1024;
+
+    private final boolean wide; // 8 byte values
+    private final int maxRows;
+    private long[] values;
+    private int rows;
+    private long minDelta;
+    private long maxDelta;
+
+    public DeltaOutputBuffer(boolean wide) {
+        this(wide, BLOCK_SIZE);
+    }
+
+    public DeltaOutputBuffer(boolean wide, int blockSize) {
+        super(blockSize);
+        this.wide = wide;
+        this.maxRows = (int) Math.max(MAX_ROWS, (long) MAX_ROWS * blockSize / BLOCK_SIZE);
+        values = new long[COUNT];
+    }
+
+    public static boolean isSupported(ValueType type) {
+        switch (type) {
+            case INT:
+            case LONG:
+            case FIXED32:
+            case FIXED64:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public static boolean isWide(ValueType type) {
+        return type == ValueType.LONG || type == ValueType.FIXED64;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() >= blockSize || rows >= maxRows;
+    }
+
+    @Override
+    public int size() {
+        if (rows == 0)
+            return 0;
+        return 1 + Math.min(plainSize(), deltaSize());
+    }
+
+    private int plainSize() {
+        return rows * (wide ? 8 : 4);
+    }
+
+    private int deltaSize() {
+        return HEADER_SIZE + (int) (((long) (rows - 1) * bitWidth() + 7) >>> 3);
+    }
+
+    private int bitWidth() {
+        if (rows < 2)
+            return 0;
+        return 64 - Long.numberOfLeadingZeros(maxDelta - minDelta);
+    }
+
+    @Override
+    public void writeFixed32(int i) throws IOException {
+        add(i);
+    }
+
+    @Override
+    public void writeFixed64(long l) throws IOException {
+        add(l);
+    }
+
+    private void add(long value) {
+        if (rows == values.length)
+            values = Arrays.copyOf(values, values.length << 1);
+        if (rows > 0) {
+            long delta = value - values[rows - 1];
+            if (rows == 1) {
+                minDelta = maxDelta = delta;
+            } else if (delta < minDelta) {
+                minDelta = delta;
+            } else if (delta > maxDelta) {
+                maxDelta = delta;
+            }
+        }
+        values[rows++] = value;
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        if (plainSize() <= deltaSize())
+            writePlain(out);
+        else
+            writeDelta(out);
+    }
+
+    private void writePlain(OutputStream out) throws IOException {
+        byte[] res = new byte[plainSize()];
+        int width = wide ? 8 : 4;
+        for (int i = 0; i < rows; i++)
+            putLong(res, i * width, values[i], width);
+        out.write(PLAIN);
+        out.write(res);
+    }
+
+    private void writeDelta(OutputStream out) throws IOException {
+        int width = bitWidth();
+        byte[] res = new byte[deltaSize()];
+        putLong(res, 0, values[0], 8);
+        putLong(res, 8, minDelta, 8);
+        res[16] = (byte) width;
+        int pos = HEADER_SIZE;
+        int bit = 0;
+        for (int i = 1; i < rows; i++) {
+            long x = values[i] - values[i - 1] - minDelta;
+            int left = width;
+            while (left > 0) {
+                int take = Math.min(8 - bit, left);
+                res[pos] |= (byte) ((x & ((1 << take) - 1)) << bit);
+                x >>>= take;
+                left -= take;
+                bit += take;
+                if (bit == 8) {
+                    bit = 0;
+                    pos++;
+                }
+            }
+        }
+        out.write(DELTA);
+        out.write(res);
+    }
+
+    private static void putLong(byte[] res, int pos, long l, int width) {
+        for (int i = 0; i < width; i++)
+            res[pos + i] = (byte) ((l >>> (i << 3)) & 0xFF);
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        rows = 0;
+        minDelta = 0;
+        maxDelta = 0;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        values = null;
+    }
+}
@@ -0,0 +1,148 @@
+package neci.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.apache.trevni.TrevniRuntimeException;
+
+/**
+ * Reads a block written by {@link DictionaryOutputBuffer}. Strings are decoded
+ * once per dictionary entry and the same instance is returned for every row
+ * holding that entry.
+ */
+public class DictionaryInputBuffer extends BlockInputBuffer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private BlockInputBuffer plain; // set if the block was written plainly
+    private byte[] buf;
+    private String[] strings;
+    private byte[][] bytes;
+    private int base; // start of the dictionary entries
+    private int[] ends; // end offsets of the dictionary entries
+    private int pos; // position of the next code
+    private int width;
+
+    public DictionaryInputBuffer(ByteBuffer data, int count, ValueType type) {
+        this(data, count, type, false);
+    }
+
+    public DictionaryInputBuffer(ByteBuffer data, int count, ValueType type, boolean wide) {
+        data = onHeap(data);
+        buf = data.array();
+        int start = data.arrayOffset() + data.position();
+        if (buf[start] == DictionaryOutputBuffer.PLAIN) {
+            plain = new BlockInputBuffer(buf, start + 1, count, wide);
+            return;
+        }
+        int size = (buf[start + 1] & 0xff) | ((buf[start + 2] & 0xff) << 8) | ((buf[start + 3] & 0xff) << 16)
+                | ((buf[start + 4] & 0xff) << 24);
+        int offsets = start + 5;
+        int offsetWidth = wide ? 4 : 2;
+        base = offsets + size * offsetWidth;
+        ends = new int[size];
+        if (type == ValueType.STRING)
+            strings = new String[size];
+        else
+            bytes = new byte[size][];
+        int end = 0;
+        for (int i = 0; i < size; i++) {
+            int from = end;
+            int o = offsets + i * offsetWidth;
+            end = (buf[o] & 0xff) | ((buf[o + 1] & 0xff) << 8);
+            if (wide)
+                end |= ((buf[o + 2] & 0xff) << 16) | ((buf[o + 3] & 0xff) << 24);
+            ends[i] = end;
+            if (strings != null) {
+                strings[i] = new String(buf, base + from, end - from, UTF8);
+            } else {
+                bytes[i] = new byte[end - from];
+                System.arraycopy(buf, base + from, bytes[i], 0, end - from);
+            }
+        }
+        pos = base + end;
+        width = size <= 256 ? 1 : 2;
+    }
+
+    private int readCode() {
+        int code;
+        if (width == 1)
+            code = buf[pos] & 0xff;
+        else
+            code = (buf[pos] & 0xff) | ((buf[pos + 1] & 0xff) << 8);
+        pos += width;
+        return code;
+    }
+
+    @Override
+    public <T extends Comparable> T readValue(ValueType type) throws IOException {
+        if (plain != null)
+            return plain.readValue(type);
+        switch (type) {
+            case STRING:
+                return (T) readString();
+            case BYTES:
+                return (T) readBytes(null);
+            default:
+                throw new TrevniRuntimeException("Not a dictionary type: " + type);
+        }
+    }
+
+    @Override
+    public void skipValue(ValueType type, int r) throws IOException {
+        if (plain != null)
+            plain.skipValue(type, r);
+        else
+            pos += r * width;
+    }
+
+    @Override
+    public void skipBytes(int r) throws IOException {
+        if (plain != null)
+            plain.skipBytes(r);
+        else
+            pos += r * width;
+    }
+
+    @Override
+    public String readString() throws IOException {
+        if (plain != null)
+            return plain.readString();
+        return strings[readCode()];
+    }
+
+    @Override
+    public Utf8View readUtf8(Utf8View reuse) throws IOException {
+        if (plain != null)
+            return plain.readUtf8(reuse);
+        if (reuse == null)
+            reuse = new Utf8View();
+        int code = readCode();
+        int from = code == 0 ? 0 : ends[code - 1];
+        return reuse.set(buf, base + from, ends[code] - from);
+    }
+
+    @Override
+    public byte[] readBytes() throws IOException {
+        if (plain != null)
+            return plain.readBytes();
+        return bytes[readCode()].clone();
+    }
+
+    @Override
+    public ByteBuffer readBytes(ByteBuffer old) throws IOException {
+        if (plain != null)
+            return plain.readBytes(old);
+        byte[] entry = bytes[readCode()];
+        ByteBuffer result;
+        if (old != null && entry.length <= old.capacity()) {
+            result = old;
+            result.clear();
+        } else {
+            result = ByteBuffer.allocate(entry.length);
+        }
+        System.arraycopy(entry, 0, result.array(), result.position(), entry.length);
+        result.limit(entry.length);
+        return result;
+    }
+}
@@ -0,0 +1,177 @@
+package neci.core;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes a block of a string or bytes column as a dictionary of its distinct
+ * values followed by one code per row. The dictionary entries are kept in the
+ * same layout as a plain block. When the dictionary does not pay off the block
+ * is written plainly instead, so a leading byte tells which layout follows.
+ */
+public class DictionaryOutputBuffer extends BlockOutputBuffer {
+    static final byte PLAIN = 0;
+    static final byte DICTIONARY = 1;
+    static final int MAX_ENTRIES = 1 << 16;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private HashMap<Object, Integer> dictionary;
+    private int[] codes;
+    private int rows;
+    private int plainBytes; // the size of the values if they were stored plainly
+
+    public DictionaryOutputBuffer() {
+        this(BLOCK_SIZE);
+    }
+
+    public DictionaryOutputBuffer(int blockSize) {
+        super(blockSize);
+        dictionary = new HashMap<Object, Integer>();
+        codes = new int[COUNT];
+    }
+
+    public static boolean isSupported(ValueType type) {
+        return type == ValueType.STRING || type == ValueType.BYTES;
+    }
+
+    @Override
+    public boolean isFull() {
+        return size() >= blockSize || dictionary.size() >= MAX_ENTRIES;
+    }
+
+    @Override
+    public int size() {
+        if (rows == 0)
+            return 0;
+        return 1 + Math.min(plainSize(), dictionarySize());
+    }
+
+    private int plainSize() {
+        return rows * offsetWidth + plainBytes;
+    }
+
+    private int dictionarySize() {
+        return 4 + count1 + count2 + rows * codeWidth();
+    }
+
+    private int codeWidth() {
+        return dictionary.size() <= 256 ? 1 : 2;
+    }
+
+    @Override
+    public void writeString(String string) throws IOException {
+        Integer code = dictionary.get(string);
+        if (code == null) {
+            byte[] bytes = string.getBytes(UTF8);
+            code = addEntry(string, bytes, 0, bytes.length);
+        }
+        writeCode(code);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes, int start, int len) throws IOException {
+        ByteBuffer key = ByteBuffer.wrap(Arrays.copyOfRange(bytes, start, start + len));
+        Integer code = dictionary.get(key);
+        if (code == null)
+            code = addEntry(key, key.array(), 0, len);
+        writeCode(code);
+    }
+
+    private int addEntry(Object key, byte[] bytes, int start, int len) throws IOException {
+        super.writeBytes(bytes, start, len);
+        int code = dictionary.size();
+        dictionary.put(key, code);
+        return code;
+    }
+
+    private void writeCode(int code) {
+        if (rows == codes.length)
+            codes = Arrays.copyOf(codes, codes.length << 1);
+        codes[rows++] = code;
+        plainBytes += entryEnd(code) - entryStart(code);
+    }
+
+    private int entryEnd(int code) {
+        int i = code * offsetWidth;
+        int end = (buf1[i] & 0xff) | ((buf1[i + 1] & 0xff) << 8);
+        if (offsetWidth == 4)
+            end |= ((buf1[i + 2] & 0xff) << 16) | ((buf1[i + 3] & 0xff) << 24);
+        return end;
+    }
+
+    private int entryStart(int code) {
+        return code == 0 ? 0 : entryEnd(code - 1);
+    }
+
+    @Override
+    public synchronized void writeTo(OutputStream out) throws IOException {
+        if (plainSize() <= dictionarySize())
+            writePlain(out);
+        else
+            writeDictionary(out);
+    }
+
+    private void writeDictionary(OutputStream out) throws IOException {
+        int size = dictionary.size();
+        out.write(DICTIONARY);
+        out.write(size & 0xFF);
+        out.write((size >>> 8) & 0xFF);
+        out.write((size >>> 16) & 0xFF);
+        out.write((size >>> 24) & 0xFF);
+        out.write(buf1, 0, count1);
+        out.write(buf2, 0, count2);
+        int width = codeWidth();
+        byte[] res = new byte[rows * width];
+        if (width == 1) {
+            for (int i = 0; i < rows; i++)
+                res[i] = (byte) codes[i];
+        } else {
+            for (int i = 0; i < rows; i++) {
+                res[i * 2] = (byte) (codes[i] & 0xFF);
+                res[i * 2 + 1] = (byte) ((codes[i] >>> 8) & 0xFF);
+            }
+        }
+        out.write(res);
+    }
+
+    private void writePlain(OutputStream out) throws IOException {
+        byte[] res = new byte[plainSize()];
+        int data = rows * offsetWidth;
+        int end = 0;
+        for (int i = 0; i < rows; i++) {
+            int start = entryStart(codes[i]);
+            int len = entryEnd(codes[i]) - start;
+            System.arraycopy(buf2, start, res, data + end, len);
+            end += len;
+            int o = i * offsetWidth;
+            res[o] = (byte) (end & 0xFF);
+            res[o + 1] = (byte) ((end >>> 8) & 0xFF);
+            if (offsetWidth == 4) {
+                res[o + 2] = (byte) ((end >>> 16) & 0xFF);
+                res[o + 3] = (byte) ((end >>> 24) & 0xFF);
+            }
+        }
+        out.write(PLAIN);
+        out.write(res);
+    }
+
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        dictionary.clear();
+        rows = 0;
+        plainBytes = 0;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        dictionary = null;
+        codes = null;
+    }
+}
@@ -0,0 +1,48 @@
+package neci.core;
+
+import java.io.IOException;
+
+/**
+ * The values of a double or float column, which can also be read without
+ * boxing them. Floats are widened to doubles.
+ */
+public class DoubleColumnValues extends BlockColumnValues<Comparable> {
+    private final boolean isFloat;
+
+    protected DoubleColumnValues(ColumnDescriptor column) throws IOException {
+        super(column);
+        isFloat = type == ValueType.FLOAT;
+    }
+
+    public double nextDouble() throws IOException {
+        startRow();
+        return isFloat ? values.readFloat() : values.readDouble();
+    }
+
+    /**
+     * Read up to n values into dst, returning the number read, which is less
+     * than n only at the end of the column.
+     */
+    public int readDoubles(double[] dst, int n) throws IOException {
+        return readDoubles(dst, 0, n);
+    }
+
+    /**
+     * Read up to n values into dst[off..off+n), returning the number read.
+     */
+    public int readDoubles(double[] dst, int off, int n) throws IOException {
+        int done = 0;
+        while (done < n && hasNext()) {
+            int k = Math.min(n - done, startRun());
+            if (isFloat) {
+                for (int i = 0; i < k; i++)
+                    dst[off + done + i] = values.readFloat();
+            } else {
+                values.readDoubles(dst, off + done, k);
+            }
+            row += k;
+            done += k;
+        }
+        return done;
+    }
+}
@@ -17,6 +17,8 @@ package neci.core;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +38,8 @@ public class FileColumnMetaData extends MetaData<FileColumnMetaData> {
     static final String UNION_KEY = RESERVED_KEY_PREFIX + "union";
     static final String UNION_ARRAY = RESERVED_KEY_PREFIX + "unionArray";
     static final String GROUP_S = RESERVED_KEY_PREFIX + "schema";
+    static final String STATS_KEY = RESERVED_KEY_PREFIX + "stats";
+    static final String BLOOM_KEY = RESERVED_KEY_PREFIX + "bloom";
 
     // cache these values for better performance
     private String name;
@@ -53,6 +57,15 @@ public class FileColumnMetaData extends MetaData<FileColumnMetaData> {
 
     private transient List<FileColumnMetaData> children = new ArrayList<FileColumnMetaData>();
     private transient int number = -1;
+    private transient Header header; // set while the columns after this one may not be parsed
+
+    /*
+     * parses a column of a file by its number, for a header whose columns are
+     * parsed as they are used. Returns null past the last column.
+     */
+    interface Header {
+        FileColumnMetaData parseColumn(int number);
+    }
 
     private FileColumnMetaData() {
     } // non-public ctor
@@ -147,9 +160,25 @@ public class FileColumnMetaData extends MetaData<FileColumnMetaData> {
     }
 
     /**
-     * Return this column's children or null.
+     * Return this column's children. If the file's columns are parsed as they
+     * are used, the columns of this one's subtree, which follow it, are parsed
+     * first, so that the list is complete.
      */
-    public List<FileColumnMetaData> getChildren() {
+    public synchronized List<FileColumnMetaData> getChildren() {
+        if (header != null) {
+            for (int c = number + 1;; c++) {
+                FileColumnMetaData column = header.parseColumn(c);
+                if (column == null || !column.isWithin(this))
+                    break;
+            }
+            header = null;
+            Collections.sort(children, new Comparator<FileColumnMetaData>() {
+                @Override
+                public int compare(FileColumnMetaData a, FileColumnMetaData b) {
+                    return Integer.compare(a.number, b.number);
+                }
+            });
+        }
         return children;
     }
 
@@ -183,6 +212,20 @@ public class FileColumnMetaData extends MetaData<FileColumnMetaData> {
         this.number = number;
     }
 
+    /*
+     * return true if ancestor is this column's parent, or a parent's ancestor.
+     */
+    private boolean isWithin(FileColumnMetaData ancestor) {
+        for (FileColumnMetaData p = parent; p != null; p = p.parent)
+            if (p == ancestor)
+                return true;
+        return false;
+    }
+
+    synchronized void setHeader(Header header) {
+        this.header = header;
+    }
+
     public int getLayer() {
         return layer;
     }
@@ -233,6 +276,56 @@ public class FileColumnMetaData extends MetaData<FileColumnMetaData> {
         return getBoolean(VALUES_KEY);
     }
 
+    /**
+     * Set whether the block descriptors of this column carry statistics (null
+     * count and min/max values) used to skip blocks while filtering.
+     */
+    public FileColumnMetaData hasStatistics(boolean stats) {
+        if (stats && !BlockStatistics.isSupported(type))
+            throw new TrevniRuntimeException("Column cannot have statistics: " + this);
+        return setReservedBoolean(STATS_KEY, stats);
+    }
+
+    /**
+     * Get whether the block descriptors of this column carry statistics.
+     */
+    public boolean hasStatistics() {
+        return getBoolean(STATS_KEY);
+    }
+
+    /**
+     * Set whether each block of this column carries a bloom filter of its
+     * values, so that equality lookups can skip blocks on unsorted, high
+     * cardinality columns. This implies statistics.
+     */
+    public FileColumnMetaData hasBloomFilter(boolean bloom) {
+        if (bloom && !BlockStatistics.hasRange(type))
+            throw new TrevniRuntimeException("Column cannot have a bloom filter: " + this);
+        if (bloom)
+            hasStatistics(true);
+        return setReservedBoolean(BLOOM_KEY, bloom);
+    }
+
+    /**
+     * Get whether the blocks of this column carry bloom filters.
+     */
+    public boolean hasBloomFilter() {
+        return getBoolean(BLOOM_KEY);
+    }
+
+    /**
+     * Return the encoding used for the values of this column: the configured
+     * encoding if it applies to this column, plain otherwise.
+     */
+    public String getValueEncoding() {
+        String encoding = getEncoding();
+        if (DICTIONARY_ENCODING.equals(encoding) && !isArray && DictionaryOutputBuffer.isSupported(type))
+            return DICTIONARY_ENCODING;
+        if (DELTA_ENCODING.equals(encoding) && (isArray || DeltaOutputBuffer.isSupported(type)))
+            return DELTA_ENCODING;
+        return PLAIN_ENCODING;
+    }
+
     static FileColumnMetaData read(InputBuffer in, InsertColumnFileReader file) throws IOException {
         FileColumnMetaData result = new FileColumnMetaData();
         MetaData.read(in, result);
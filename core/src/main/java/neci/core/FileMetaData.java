@@ -21,12 +21,39 @@ import java.io.IOException;
  * File-level metadata.
  */
 public class FileMetaData extends MetaData<FileMetaData> {
+    static final String SINGLE_FILE_KEY = RESERVED_KEY_PREFIX + "singleFile";
+    static final String COLUMN_DIRECTORY_KEY = RESERVED_KEY_PREFIX + "columnDirectory";
+
+    /**
+     * Return true if the header is written as a footer of the data file
+     * rather than to a separate ".head" file.
+     */
+    public boolean isSingleFile() {
+        return getBoolean(SINGLE_FILE_KEY);
+    }
+
+    /**
+     * Write the header as a footer of the data file, so that a dataset is a
+     * single file. Readers open either layout.
+     */
+    public FileMetaData setSingleFile(boolean singleFile) {
+        return setReservedBoolean(SINGLE_FILE_KEY, singleFile);
+    }
+
     static FileMetaData read(InputBuffer in) throws IOException {
         FileMetaData result = new FileMetaData();
         MetaData.read(in, result);
         return result;
     }
 
+    /*
+     * true if the column metadata is preceded by a directory of column names
+     * and positions, so that readers parse only the columns they use.
+     */
+    boolean hasColumnDirectory() {
+        return getBoolean(COLUMN_DIRECTORY_KEY);
+    }
+
     public void write(OutputBuffer out) throws IOException {
         super.write(out);
     }
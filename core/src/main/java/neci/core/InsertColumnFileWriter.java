@@ -6,8 +6,11 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import org.apache.trevni.Input;
 import org.apache.trevni.TrevniRuntimeException;
 
 public class InsertColumnFileWriter {
@@ -24,10 +27,15 @@ public class InsertColumnFileWriter {
     //    private int[] nest;
     private RandomAccessFile nestFile;
     private long[] columnStart;
+    private long dataLength; // bytes of blocks before the header
+    private ForkJoinPool pool; // encodes columns in parallel, if set
+    private BlockCompressor[] compressors;
     private Blocks[] blocks;
 
     private int addRow;
     public static final byte[] MAGIC = new byte[] { 'N', 'E', 'C', 'I' };
+    public static final byte[] FOOTER_MAGIC = new byte[] { 'N', 'E', 'C', 'F' };
+    static final int TRAILER_SIZE = 8 + 4; // footer position, footer magic
 
     public static class Blocks {
         private List<BlockDescriptor> blocks;
@@ -99,11 +107,39 @@ public class InsertColumnFileWriter {
         this.columncount = meta.length;
         this.columnStart = new long[columncount];
         this.blocks = new Blocks[columncount];
+        this.compressors = new BlockCompressor[columncount];
         for (int i = 0; i < columncount; i++) {
             blocks[i] = new Blocks();
+            compressors[i] = new BlockCompressor(meta[i], filemeta);
+            if (!meta[i].isArray() && BlockStatistics.isSupported(meta[i].getType()))
+                meta[i].hasStatistics(true);
         }
     }
 
+    /**
+     * Return the ".head" file which holds the header of a two-file dataset.
+     */
+    public static File headFile(File file) {
+        String path = file.getAbsolutePath();
+        return new File(path.substring(0, path.lastIndexOf(".")) + ".head");
+    }
+
+    /*
+     * return the position of the footer of a single-file dataset.
+     */
+    static long readFooterStart(Input in) throws IOException {
+        long length = in.length();
+        if (length < TRAILER_SIZE)
+            throw new IOException("Not a neci file.");
+        InputBuffer buf = new InputBuffer(in, length - TRAILER_SIZE);
+        long start = buf.readFixed64();
+        byte[] magic = new byte[FOOTER_MAGIC.length];
+        buf.readFully(magic);
+        if (!Arrays.equals(FOOTER_MAGIC, magic) || start < 0 || start > length - TRAILER_SIZE)
+            throw new IOException("Not a neci file.");
+        return start;
+    }
+
     public void setMergeFiles(File[] files) throws IOException {
         this.files = files;
         readers = new InsertColumnFileReader[files.length];
@@ -112,6 +148,14 @@ public class InsertColumnFileWriter {
         }
     }
 
+    /**
+     * Encode and compress the columns in parallel on pool, or one after
+     * another on the calling thread if pool is null.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     public void setInsert(ListArr[] sort) {
         this.insert = sort;
         this.addRow = sort[0].size();
@@ -128,9 +172,9 @@ public class InsertColumnFileWriter {
 
     public void appendTo(File file) throws IOException {
         OutputStream data = new FileOutputStream(file);
-        OutputStream head = new FileOutputStream(
-                new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head"));
+        OutputStream head = headStream(file);
         appendTo(head, data);
+        close(head, data);
     }
 
     /*
@@ -138,9 +182,9 @@ public class InsertColumnFileWriter {
      */
     public void flushTo(File file) throws IOException {
         OutputStream data = new FileOutputStream(file);
-        OutputStream head = new FileOutputStream(
-                new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head"));
+        OutputStream head = headStream(file);
         flushTo(head, data);
+        close(head, data);
     }
 
     //  public void insertTo(File file) throws IOException {
@@ -153,7 +197,7 @@ public class InsertColumnFileWriter {
         rowcount = addRow;
 
         writeSourceColumns(data);
-        writeHeader(head);
+        writeHeader(head, data);
     }
 
     /*
@@ -163,14 +207,33 @@ public class InsertColumnFileWriter {
         rowcount = addRow;
 
         flushSourceColumns(data);
-        writeHeader(head);
+        writeHeader(head, data);
     }
 
     public void mergeFiles(File file) throws IOException {
-        mergeFiles(
-                new FileOutputStream(new File(
-                        file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head")),
-                new FileOutputStream(file));
+        OutputStream data = new FileOutputStream(file);
+        OutputStream head = headStream(file);
+        mergeFiles(head, data);
+        close(head, data);
+    }
+
+    /*
+     * open the header file of a two-file dataset, or return null and drop a
+     * stale one if the header goes in the footer.
+     */
+    private OutputStream headStream(File file) throws IOException {
+        File head = headFile(file);
+        if (filemeta.isSingleFile()) {
+            head.delete();
+            return null;
+        }
+        return new FileOutputStream(head);
+    }
+
+    private static void close(OutputStream head, OutputStream data) throws IOException {
+        if (head != null)
+            head.close();
+        data.close();
     }
 
     public void mergeFiles(OutputStream head, OutputStream data) throws IOException {
@@ -186,7 +249,7 @@ public class InsertColumnFileWriter {
                 mergeColumn(data, i);
             }
         }
-        writeHeader(head);
+        writeHeader(head, data);
         for (int i = 0; i < readers.length; i++) {
             readers[i].close();
             readers[i] = null;
@@ -198,7 +261,10 @@ public class InsertColumnFileWriter {
     }
 
     private void mergeColumn(OutputStream out, int column) throws IOException {
+        // merged values are always stored plainly
+        meta[column].setEncoding(FileColumnMetaData.PLAIN_ENCODING);
         OutputBuffer buf = new OutputBuffer();
+        buf.setStatistics(statistics(column));
         gapFile.seek(4);
         nestFile.seek(0);
         int row = 0;
@@ -214,11 +280,8 @@ public class InsertColumnFileWriter {
             //            int index = gap[i];
             for (int j = 0; j < nest; j++) {
                 if (buf.isFull()) {
-                    BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                    blocks[column].add(b);
+                    writeBlock(out, column, row, buf);
                     row = 0;
-                    buf.writeTo(out);
-                    buf.reset();
                 }
                 values[index].startRow();
                 buf.writeValue(values[index].nextValue(), type);
@@ -227,15 +290,14 @@ public class InsertColumnFileWriter {
         }
 
         if (buf.size() != 0) {
-            BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-            blocks[column].add(b);
-            buf.writeTo(out);
+            writeBlock(out, column, row, buf);
         }
 
         buf.close();
     }
 
     private void mergeArrayColumn(OutputStream out, int column) throws IOException {
+        meta[column].setEncoding(FileColumnMetaData.PLAIN_ENCODING);
         OutputBuffer buf = new OutputBuffer();
         gapFile.seek(4);
         nestFile.seek(0);
@@ -255,11 +317,8 @@ public class InsertColumnFileWriter {
             int tmpnest = 0;
             for (int j = 0; j < nest; j++) {
                 if (buf.isFull()) {
-                    BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                    blocks[column].add(b);
+                    writeBlock(out, column, row, buf);
                     row = 0;
-                    buf.writeTo(out);
-                    buf.reset();
                 }
                 values[index].startRow();
                 int length = values[index].nextLength();
@@ -281,9 +340,7 @@ public class InsertColumnFileWriter {
         nestFile = new RandomAccessFile(path + "nest", "rw");
 
         if (buf.size() != 0) {
-            BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-            blocks[column].add(b);
-            buf.writeTo(out);
+            writeBlock(out, column, row, buf);
         }
 
         buf.close();
@@ -301,144 +358,192 @@ public class InsertColumnFileWriter {
     //  }
 
     private void writeSourceColumns(OutputStream out) throws IOException {
-        BlockOutputBuffer buf = new BlockOutputBuffer();
-        for (int i = 0; i < columncount; i++) {
-            ValueType type = meta[i].getType();
-            int row = 0;
-            if (type == ValueType.ARRAY) {
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    buf.writeLength((Integer) x);
-                    row++;
-                }
-            } else if (type.equals(ValueType.UNION)) {
-                UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits());
-                for (Object x : insert[i].toArray()) {
-                    if (ubuf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        ubuf.writeTo(out);
-                        ubuf.reset();
-                    }
-                    ValueType tt = TranToValueType.tran(x);
-                    Integer index = meta[i].getUnionIndex(tt);
-                    if (index == null)
-                        throw new TrevniRuntimeException("Illegal value type: " + tt);
-                    ubuf.writeValue(x, index);
-                    row++;
+        new ColumnJob() {
+            @Override
+            void write(OutputStream out, int column, BlockOutputBuffer plain) throws IOException {
+                writeSourceColumn(out, column, plain);
+            }
+        }.run(out, columncount, filemeta.getBlockSize(), pool);
+        insert = null;
+    }
+
+    private void writeSourceColumn(OutputStream out, int i, BlockOutputBuffer plain) throws IOException {
+        ValueType type = meta[i].getType();
+        int row = 0;
+        BlockOutputBuffer buf = valueBuffer(i, plain);
+        if (type == ValueType.ARRAY) {
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
-                if (ubuf.size() != 0) {
-                    BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                    blocks[i].add(b);
-                    ubuf.writeTo(out);
-                    ubuf.reset();
+                buf.writeLength((Integer) x);
+                row++;
+            }
+        } else if (type.equals(ValueType.UNION)) {
+            UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits(),
+                    meta[i].getBlockSize());
+            ubuf.setStatistics(statistics(i));
+            for (Object x : insert[i].toArray()) {
+                if (ubuf.isFull()) {
+                    writeBlock(out, i, row, ubuf);
+                    row = 0;
                 }
-                ubuf.close();
-            } else {
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    buf.writeValue(x, type);
-                    row++;
+                ValueType tt = TranToValueType.tran(x);
+                Integer index = meta[i].getUnionIndex(tt);
+                if (index == null)
+                    throw new TrevniRuntimeException("Illegal value type: " + tt);
+                ubuf.writeValue(x, index);
+                row++;
+            }
+            if (ubuf.size() != 0) {
+                writeBlock(out, i, row, ubuf);
+            }
+            ubuf.close();
+        } else {
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
+                buf.writeValue(x, type);
+                row++;
             }
+        }
 
-            insert[i].clear();
+        insert[i].clear();
 
-            if (buf.size() != 0) {
-                BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                blocks[i].add(b);
-                buf.writeTo(out);
-                buf.reset();
-            }
+        if (buf.size() != 0) {
+            writeBlock(out, i, row, buf);
         }
-        insert = null;
-        buf.close();
+        if (buf != plain)
+            buf.close();
     }
 
     /*
      * write array column incremently
      */
     private void flushSourceColumns(OutputStream out) throws IOException {
-        BlockOutputBuffer buf = new BlockOutputBuffer();
-        for (int i = 0; i < columncount; i++) {
-            ValueType type = meta[i].getType();
-            int row = 0;
-            if (type == ValueType.ARRAY) {
-                int tmp = 0;
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    tmp += (int) x;
-                    buf.writeLength((Integer) tmp);
-                    row++;
-                }
-            } else if (type.equals(ValueType.UNION)) {
-                UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits());
-                for (Object x : insert[i].toArray()) {
-                    if (ubuf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        ubuf.writeTo(out);
-                        ubuf.reset();
-                    }
-                    ValueType tt = TranToValueType.tran(x);
-                    Integer index = meta[i].getUnionIndex(tt);
-                    if (index == null)
-                        throw new TrevniRuntimeException("Illegal value type: " + tt);
-                    ubuf.writeValue(x, index);
-                    row++;
+        new ColumnJob() {
+            @Override
+            void write(OutputStream out, int column, BlockOutputBuffer plain) throws IOException {
+                flushSourceColumn(out, column, plain);
+            }
+        }.run(out, columncount, filemeta.getBlockSize(), pool);
+        insert = null;
+    }
+
+    private void flushSourceColumn(OutputStream out, int i, BlockOutputBuffer plain) throws IOException {
+        ValueType type = meta[i].getType();
+        int row = 0;
+        BlockOutputBuffer buf = valueBuffer(i, plain);
+        if (type == ValueType.ARRAY) {
+            int tmp = 0;
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
-                if (ubuf.size() != 0) {
-                    BlockDescriptor b = new BlockDescriptor(row, ubuf.size(), ubuf.size());
-                    blocks[i].add(b);
-                    ubuf.writeTo(out);
-                    ubuf.reset();
+                tmp += (int) x;
+                buf.writeLength((Integer) tmp);
+                row++;
+            }
+        } else if (type.equals(ValueType.UNION)) {
+            UnionOutputBuffer ubuf = new UnionOutputBuffer(meta[i].getUnionArray(), meta[i].getUnionBits(),
+                    meta[i].getBlockSize());
+            ubuf.setStatistics(statistics(i));
+            for (Object x : insert[i].toArray()) {
+                if (ubuf.isFull()) {
+                    writeBlock(out, i, row, ubuf);
+                    row = 0;
                 }
-                ubuf.close();
-            } else {
-                for (Object x : insert[i].toArray()) {
-                    if (buf.isFull()) {
-                        BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                        blocks[i].add(b);
-                        row = 0;
-                        buf.writeTo(out);
-                        buf.reset();
-                    }
-                    buf.writeValue(x, type);
-                    row++;
+                ValueType tt = TranToValueType.tran(x);
+                Integer index = meta[i].getUnionIndex(tt);
+                if (index == null)
+                    throw new TrevniRuntimeException("Illegal value type: " + tt);
+                ubuf.writeValue(x, index);
+                row++;
+            }
+            if (ubuf.size() != 0) {
+                writeBlock(out, i, row, ubuf);
+            }
+            ubuf.close();
+        } else {
+            for (Object x : insert[i].toArray()) {
+                if (buf.isFull()) {
+                    writeBlock(out, i, row, buf);
+                    row = 0;
                 }
+                buf.writeValue(x, type);
+                row++;
             }
+        }
 
-            insert[i].clear();
+        insert[i].clear();
 
-            if (buf.size() != 0) {
-                BlockDescriptor b = new BlockDescriptor(row, buf.size(), buf.size());
-                blocks[i].add(b);
-                buf.writeTo(out);
-                buf.reset();
-            }
+        if (buf.size() != 0) {
+            writeBlock(out, i, row, buf);
         }
-        insert = null;
-        buf.close();
+        if (buf != plain)
+            buf.close();
+    }
+
+    private BlockStatistics statistics(int column) {
+        if (!meta[column].hasStatistics())
+            return null;
+        return new BlockStatistics(meta[column].getType(), meta[column].hasBloomFilter());
+    }
+
+    /*
+     * return the shared plain buffer, or a new one if there is none or the
+     * column is encoded or has its own block size.
+     */
+    private BlockOutputBuffer valueBuffer(int column, BlockOutputBuffer plain) {
+        BlockOutputBuffer buf = plain;
+        if (plain == null || !meta[column].getValueEncoding().equals(FileColumnMetaData.PLAIN_ENCODING)
+                || meta[column].getBlockSize() != plain.getBlockSize())
+            buf = BlockOutputBuffer.create(meta[column]);
+        buf.setStatistics(statistics(column));
+        return buf;
+    }
+
+    private void writeBlock(OutputStream out, int column, int row, BlockOutputBuffer buf) throws IOException {
+        BlockDescriptor b = compressors[column].write(out, row, buf);
+        if (buf.getStatistics() != null)
+            b.setStatistics(buf.getStatistics());
+        blocks[column].add(b);
+        buf.reset();
+    }
+
+    private void writeBlock(OutputStream out, int column, int row, OutputBuffer buf) throws IOException {
+        BlockDescriptor b = compressors[column].write(out, row, buf);
+        if (buf.getStatistics() != null)
+            b.setStatistics(buf.getStatistics());
+        blocks[column].add(b);
+        buf.reset();
+    }
+
+    /*
+     * write the header to head, or as a footer of data if head is null.
+     */
+    private void writeHeader(OutputStream head, OutputStream data) throws IOException {
+        if (head == null)
+            writeFooter(data);
+        else
+            writeHeader(head);
+    }
+
+    /**
+     * Write the header after the blocks, followed by a trailer which locates
+     * it, so that the blocks and header form a single file.
+     */
+    public void writeFooter(OutputStream out) throws IOException {
+        writeHeader(out);
+        OutputBuffer trailer = new OutputBuffer();
+        trailer.writeFixed64(dataLength);
+        trailer.write(FOOTER_MAGIC);
+        trailer.writeTo(out);
+        trailer.close();
     }
 
     public void writeHeader(OutputStream out) throws IOException {
@@ -446,21 +551,35 @@ public class InsertColumnFileWriter {
         header.write(MAGIC);
         header.writeFixed32(rowcount);
         header.writeFixed32(columncount);
+        filemeta.setReservedBoolean(FileMetaData.COLUMN_DIRECTORY_KEY, true);
         filemeta.write(header);
+        OutputBuffer columns = new OutputBuffer();
+        long[] offsets = new long[columncount];
         int i = 0;
         long delay = 0;
         for (FileColumnMetaData c : meta) {
             columnStart[i] = delay;
-            c.write(header);
+            offsets[i] = columns.size();
+            c.write(columns);
             int size = blocks[i].blocks.size();
-            header.writeFixed32(size);
+            columns.writeFixed32(size);
             for (int k = 0; k < size; k++) {
-                blocks[i].get(k).writeTo(header);
-                delay += blocks[i].get(k).compressedSize;
+                blocks[i].get(k).writeTo(columns, c);
+                delay += blocks[i].get(k).compressedSize + compressors[i].getChecksumSize();
             }
             blocks[i].clear();
             i++;
         }
+        dataLength = delay;
+
+        // the directory: each column's name and position after the directory
+        for (i = 0; i < columncount; i++) {
+            header.writeString(meta[i].getName());
+            header.writeFixed64(offsets[i]);
+        }
+        header.writeFixed64(columns.size());
+        columns.writeTo(header);
+        columns.close();
 
         for (i = 0; i < columncount; i++) {
             header.writeFixed64(columnStart[i]);
@@ -0,0 +1,40 @@
+package neci.core;
+
+import java.io.IOException;
+
+/**
+ * The values of an int or fixed32 column, which can also be read without
+ * boxing them.
+ */
+public class IntColumnValues extends BlockColumnValues<Integer> {
+    protected IntColumnValues(ColumnDescriptor column) throws IOException {
+        super(column);
+    }
+
+    public int nextInt() throws IOException {
+        startRow();
+        return values.readFixed32();
+    }
+
+    /**
+     * Read up to n values into dst, returning the number read, which is less
+     * than n only at the end of the column.
+     */
+    public int readInts(int[] dst, int n) throws IOException {
+        return readInts(dst, 0, n);
+    }
+
+    /**
+     * Read up to n values into dst[off..off+n), returning the number read.
+     */
+    public int readInts(int[] dst, int off, int n) throws IOException {
+        int done = 0;
+        while (done < n && hasNext()) {
+            int k = Math.min(n - done, startRun());
+            values.readFixed32s(dst, off + done, k);
+            row += k;
+            done += k;
+        }
+        return done;
+    }
+}
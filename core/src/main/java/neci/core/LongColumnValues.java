@@ -0,0 +1,40 @@
+package neci.core;
+
+import java.io.IOException;
+
+/**
+ * The values of a long or fixed64 column, which can also be read without
+ * boxing them.
+ */
+public class LongColumnValues extends BlockColumnValues<Long> {
+    protected LongColumnValues(ColumnDescriptor column) throws IOException {
+        super(column);
+    }
+
+    public long nextLong() throws IOException {
+        startRow();
+        return values.readFixed64();
+    }
+
+    /**
+     * Read up to n values into dst, returning the number read, which is less
+     * than n only at the end of the column.
+     */
+    public int readLongs(long[] dst, int n) throws IOException {
+        return readLongs(dst, 0, n);
+    }
+
+    /**
+     * Read up to n values into dst[off..off+n), returning the number read.
+     */
+    public int readLongs(long[] dst, int off, int n) throws IOException {
+        int done = 0;
+        while (done < n && hasNext()) {
+            int k = Math.min(n - done, startRun());
+            values.readFixed64s(dst, off + done, k);
+            row += k;
+            done += k;
+        }
+        return done;
+    }
+}
@@ -0,0 +1,184 @@
+package neci.core;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Implements a pure Java codec in the <a href="https://lz4.github.io/lz4/">LZ4</a>
+ * block format. A compressed block is its uncompressed length as a 4 byte
+ * little-endian integer followed by one LZ4 block. Compression takes the first
+ * match a hash table finds, trading ratio for speed as LZ4's fast mode does.
+ */
+final class Lz4Codec extends Codec {
+    private static final int MIN_MATCH = 4;
+    private static final int MF_LIMIT = 12; // no match starts this close to the end
+    private static final int LAST_LITERALS = 5; // nor ends this close
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int HASH_LOG = 14;
+
+    private final int[] table = new int[1 << HASH_LOG]; // recent positions by hash of their first 4 bytes
+
+    @Override ByteBuffer compress(ByteBuffer in) throws IOException {
+        int len = in.remaining();
+        byte[] out = new byte[4 + len + len / 255 + 16];
+        putInt(out, 0, len);
+        int size = compress(in.array(), in.arrayOffset() + in.position(), len, out, 4);
+        return ByteBuffer.wrap(out, 0, size);
+    }
+
+    @Override ByteBuffer decompress(ByteBuffer in) throws IOException {
+        return decompress(in, null);
+    }
+
+    @Override ByteBuffer decompress(ByteBuffer in, ByteBuffer reuse) throws IOException {
+        int off = in.position();
+        int len = getInt(in, off);
+        ByteBuffer out = reuse != null && reuse.hasArray() && reuse.capacity() >= len ? reuse : ByteBuffer.allocate(len);
+        out.clear();
+        decompress(in, off + 4, in.remaining() - 4, out.array(), out.arrayOffset(), len);
+        out.limit(len);
+        return out;
+    }
+
+    /*
+     * compress src[srcOff..srcOff+srcLen) into dst from dstOff, returning the
+     * end of the compressed bytes.
+     */
+    private int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        int anchor = 0; // start of pending literals
+        int d = dstOff;
+        int matchLimit = srcLen - LAST_LITERALS;
+        int p = 0;
+        while (p < srcLen - MF_LIMIT) {
+            int seq = getInt(src, srcOff + p);
+            int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+            int ref = table[h];
+            table[h] = p;
+            if (ref >= p || p - ref > MAX_DISTANCE || getInt(src, srcOff + ref) != seq) {
+                p += 1 + ((p - anchor) >>> 6); // step faster through incompressible data
+                continue;
+            }
+            int matchLen = MIN_MATCH;
+            while (p + matchLen < matchLimit && src[srcOff + p + matchLen] == src[srcOff + ref + matchLen])
+                matchLen++;
+            d = writeSequence(src, srcOff + anchor, p - anchor, dst, d, p - ref, matchLen);
+            p += matchLen;
+            anchor = p;
+        }
+        return writeSequence(src, srcOff + anchor, srcLen - anchor, dst, d, 0, 0);
+    }
+
+    /*
+     * write literals and, unless matchLen is 0 for the last sequence, a match.
+     */
+    private static int writeSequence(byte[] src, int lit, int litLen, byte[] dst, int d, int offset, int matchLen) {
+        int token = d++;
+        if (litLen >= 15) {
+            dst[token] = (byte) 0xF0;
+            d = writeLength(dst, d, litLen - 15);
+        } else {
+            dst[token] = (byte) (litLen << 4);
+        }
+        System.arraycopy(src, lit, dst, d, litLen);
+        d += litLen;
+        if (matchLen == 0)
+            return d;
+        dst[d++] = (byte) offset;
+        dst[d++] = (byte) (offset >>> 8);
+        int m = matchLen - MIN_MATCH;
+        if (m >= 15) {
+            dst[token] |= 0x0F;
+            d = writeLength(dst, d, m - 15);
+        } else {
+            dst[token] |= m;
+        }
+        return d;
+    }
+
+    private static int writeLength(byte[] dst, int d, int len) {
+        for (; len >= 255; len -= 255)
+            dst[d++] = (byte) 255;
+        dst[d++] = (byte) len;
+        return d;
+    }
+
+    /**
+     * Decompress an LZ4 block of srcLen bytes holding dstLen bytes into dst.
+     */
+    static void decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        decompress(ByteBuffer.wrap(src), srcOff, srcLen, dst, dstOff, dstLen);
+    }
+
+    /**
+     * Decompress an LZ4 block at srcOff in src, which need not be in an array,
+     * such as a block mapped from its file.
+     */
+    static void decompress(ByteBuffer src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+            throws IOException {
+        ByteBuffer literals = src.duplicate();
+        int s = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int d = dstOff;
+        try {
+            while (true) {
+                int token = src.get(s++) & 0xff;
+                int lit = token >>> 4;
+                if (lit == 15) {
+                    int b;
+                    do {
+                        b = src.get(s++) & 0xff;
+                        lit += b;
+                    } while (b == 255);
+                }
+                literals.limit(s + lit).position(s);
+                literals.get(dst, d, lit);
+                s += lit;
+                d += lit;
+                if (s >= srcEnd)
+                    break; // the last sequence has no match
+                int offset = (src.get(s++) & 0xff) | ((src.get(s++) & 0xff) << 8);
+                int m = token & 0x0F;
+                if (m == 15) {
+                    int b;
+                    do {
+                        b = src.get(s++) & 0xff;
+                        m += b;
+                    } while (b == 255);
+                }
+                m += MIN_MATCH;
+                int ref = d - offset;
+                if (offset == 0 || ref < dstOff)
+                    throw new IOException("Corrupt lz4 block.");
+                if (offset >= m) {
+                    System.arraycopy(dst, ref, dst, d, m);
+                } else { // the match overlaps the bytes it copies
+                    for (int i = 0; i < m; i++)
+                        dst[d + i] = dst[ref + i];
+                }
+                d += m;
+            }
+        } catch (IndexOutOfBoundsException | IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupt lz4 block.", e);
+        }
+        if (d != dstOff + dstLen)
+            throw new IOException("Corrupt lz4 block.");
+    }
+
+    private static int getInt(ByteBuffer b, int i) {
+        return (b.get(i) & 0xff) | ((b.get(i + 1) & 0xff) << 8) | ((b.get(i + 2) & 0xff) << 16)
+                | ((b.get(i + 3) & 0xff) << 24);
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8) | ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+    }
+
+    private static void putInt(byte[] b, int i, int v) {
+        b[i] = (byte) v;
+        b[i + 1] = (byte) (v >>> 8);
+        b[i + 2] = (byte) (v >>> 16);
+        b[i + 3] = (byte) (v >>> 24);
+    }
+}
@@ -0,0 +1,126 @@
+package neci.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.trevni.Input;
+
+/**
+ * An {@link Input} which maps a file into memory, so that reads are served
+ * from the page cache without a system call. Files larger than 2GB are mapped
+ * in several chunks.
+ */
+public class MappedInput implements Input {
+    static final int CHUNK_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long length;
+    private MappedByteBuffer[] chunks;
+
+    public MappedInput(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        this.channel = in.getChannel();
+        this.length = channel.size();
+        int count = (int) ((length + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i * CHUNK_SIZE;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, length - start));
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read(long position, byte[] b, int start, int len) throws IOException {
+        if (position >= length)
+            return -1;
+        len = (int) Math.min(len, length - position);
+        int done = 0;
+        while (done < len) {
+            long p = position + done;
+            ByteBuffer chunk = chunks[(int) (p / CHUNK_SIZE)].duplicate();
+            chunk.position((int) (p % CHUNK_SIZE));
+            int n = Math.min(len - done, chunk.remaining());
+            chunk.get(b, start + done, n);
+            done += n;
+        }
+        return len;
+    }
+
+    /**
+     * Return len bytes from the named position. The result shares the mapping,
+     * read-only, unless it spans two chunks.
+     */
+    public ByteBuffer slice(long position, int len) throws IOException {
+        if (position + len > length)
+            throw new IOException("Read past end of file: " + (position + len));
+        int chunk = (int) (position / CHUNK_SIZE);
+        int offset = (int) (position % CHUNK_SIZE);
+        if (offset + len <= chunks[chunk].capacity()) {
+            ByteBuffer result = chunks[chunk].duplicate();
+            result.position(offset);
+            result.limit(offset + len);
+            return result.slice();
+        }
+        byte[] bytes = new byte[len];
+        read(position, bytes, 0, len);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Close the file and unmap it at once, rather than when the collector gets
+     * to it. Neither reads nor slices may be used after.
+     */
+    @Override
+    public void close() throws IOException {
+        MappedByteBuffer[] mapped = chunks;
+        chunks = null;
+        channel.close();
+        if (mapped != null)
+            for (MappedByteBuffer chunk : mapped)
+                unmap(chunk);
+    }
+
+    /*
+     * release a mapping through Unsafe.invokeCleaner on Java 9 and later, or
+     * the buffer's cleaner on Java 8. Where neither is reachable the mapping
+     * is left to the collector.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = null;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                // Java 8
+            }
+            if (invokeCleaner != null) {
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+                return;
+            }
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                Method clean = cleaner.getClass().getMethod("clean");
+                clean.setAccessible(true);
+                clean.invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the collector
+        }
+    }
+}
@@ -31,6 +31,12 @@ public class MetaData<T extends MetaData> extends LinkedHashMap<String, byte[]>
 
     static final String CODEC_KEY = RESERVED_KEY_PREFIX + "codec";
     static final String CHECKSUM_KEY = RESERVED_KEY_PREFIX + "checksum";
+    static final String ENCODING_KEY = RESERVED_KEY_PREFIX + "encoding";
+    static final String BLOCK_SIZE_KEY = RESERVED_KEY_PREFIX + "blockSize";
+
+    public static final String PLAIN_ENCODING = "plain";
+    public static final String DICTIONARY_ENCODING = "dictionary";
+    public static final String DELTA_ENCODING = "delta";
 
     public static final Charset UTF8 = Charset.forName("UTF-8");
 
@@ -70,6 +76,45 @@ public class MetaData<T extends MetaData> extends LinkedHashMap<String, byte[]>
         return (T) this;
     }
 
+    /**
+     * Return the value encoding name.
+     */
+    public String getEncoding() {
+        return getString(ENCODING_KEY);
+    }
+
+    /**
+     * Set the value encoding name, "plain", "dictionary" or "delta". Columns
+     * whose type does not support the encoding are stored plainly.
+     */
+    public T setEncoding(String encoding) {
+        setReserved(ENCODING_KEY, encoding);
+        return (T) this;
+    }
+
+    /**
+     * Return the size in bytes past which a block is ended, 48KB by default.
+     */
+    public int getBlockSize() {
+        String size = getString(BLOCK_SIZE_KEY);
+        if (size == null)
+            return BlockOutputBuffer.BLOCK_SIZE;
+        return Integer.parseInt(size);
+    }
+
+    /**
+     * Set the size in bytes past which a block is ended. Larger blocks mean
+     * fewer and longer reads when scanning. Blocks larger than the default
+     * address their values with 32 bit offsets, which lifts the 64KB limit
+     * on the values of a block.
+     */
+    public T setBlockSize(int size) {
+        if (size <= 0)
+            throw new TrevniRuntimeException("Illegal block size: " + size);
+        setReserved(BLOCK_SIZE_KEY, Integer.toString(size));
+        return (T) this;
+    }
+
     /**
      * Return the value of a metadata property as a String.
      */
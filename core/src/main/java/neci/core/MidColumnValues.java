@@ -23,8 +23,7 @@ public class MidColumnValues<T extends Comparable> extends ColumnValues<T> {
         byte[] raw = new byte[end + checksum.size()];
         in.readFully(raw);
         ByteBuffer data = codec.decompress(ByteBuffer.wrap(raw, 0, end));
-        if (!checksum.compute(data).equals(ByteBuffer.wrap(raw, end, checksum.size())))
-            throw new IOException("Checksums mismatch.");
+        column.verify(block, checksum, data, raw);
         values = new MidInputBuffer(new InputBytes(data));
     }
 }
@@ -14,6 +14,8 @@ public class MidInsertColumnFileReader extends InsertColumnFileReader {
         dataFile = new InputFile(file);
         headFile = new InputFile(
                 new File(file.getAbsolutePath().substring(0, file.getAbsolutePath().lastIndexOf(".")) + ".head"));
+        if (BlockCache.get().isEnabled())
+            fileId = BlockCache.fileId(file);
         readHeader();
     }
 
@@ -31,6 +31,8 @@ public class OutputBuffer extends ByteArrayOutputStream {
 
     protected int bitCount; // position in booleans
 
+    protected BlockStatistics stats; // statistics of the current block, if any
+
     public OutputBuffer() {
         super(BLOCK_SIZE + BLOCK_SIZE >> 2);
     }
@@ -43,7 +45,20 @@ public class OutputBuffer extends ByteArrayOutputStream {
         return ByteBuffer.wrap(buf, 0, count);
     }
 
+    /**
+     * Collect statistics of the values written until the next {@link #reset()}.
+     */
+    public void setStatistics(BlockStatistics stats) {
+        this.stats = stats;
+    }
+
+    public BlockStatistics getStatistics() {
+        return stats;
+    }
+
     public void writeValue(Object value, ValueType type) throws IOException {
+        if (stats != null)
+            stats.update(value);
         switch (type) {
             case NULL:
                 break;
@@ -86,7 +101,7 @@ public class OutputBuffer extends ByteArrayOutputStream {
     public void writeBoolean(boolean value) {
         if (bitCount == 0) { // first bool in byte
             ensure(1);
-            count++;
+            buf[count++] = 0; // the buffer is reused across blocks
         }
         if (value)
             buf[count - 1] |= (byte) (1 << bitCount);
@@ -220,6 +235,14 @@ public class OutputBuffer extends ByteArrayOutputStream {
         buf[count++] = (byte) n;
     }
 
+    @Override
+    public synchronized void reset() {
+        super.reset();
+        bitCount = 0;
+        if (stats != null)
+            stats.reset();
+    }
+
     protected void ensure(int n) {
         if (count + n > buf.length)
             buf = Arrays.copyOf(buf, Math.max(buf.length << 1, count + n));
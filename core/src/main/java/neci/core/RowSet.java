@@ -0,0 +1,664 @@
+package neci.core;
+
+import java.util.Arrays;
+
+/**
+ * A compressed set of row numbers, in the style of Roaring bitmaps. Rows are
+ * split by their high 16 bits into chunks of 65536, and each non-empty chunk
+ * is kept as a sorted array of its rows while it holds at most 4096 of them,
+ * or as a bitmap of 8KB otherwise. A sparse set so takes about two bytes per
+ * row instead of one bit per row of the column, and empty chunks take
+ * nothing. The operations are those of {@link java.util.BitSet} which
+ * filtering needs.
+ */
+public class RowSet implements Cloneable {
+    static final int ARRAY_MAX = 4096; // past this, a bitmap is smaller
+    private static final int CHUNK = 1 << 16;
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+    private int hint; // the index of the chunk last looked up
+
+    public RowSet() {
+    }
+
+    /**
+     * Create an empty set of rows below rowCount, as a drop-in for
+     * {@link java.util.BitSet#BitSet(int)}. The count is not needed.
+     */
+    public RowSet(int rowCount) {
+    }
+
+    public boolean get(int row) {
+        int i = find((char) (row >>> 16));
+        return i >= 0 && containers[i].get((char) row);
+    }
+
+    public void set(int row) {
+        int i = findOrAdd((char) (row >>> 16));
+        containers[i] = containers[i].add((char) row);
+    }
+
+    public void clear(int row) {
+        int i = find((char) (row >>> 16));
+        if (i < 0)
+            return;
+        containers[i] = containers[i].remove((char) row);
+        if (containers[i].isEmpty())
+            removeAt(i);
+    }
+
+    /**
+     * Add the rows from from (inclusive) to to (exclusive).
+     */
+    public void set(int from, int to) {
+        for (int start = from; start < to;) {
+            int end = Math.min(to, chunkEnd(start));
+            int i = findOrAdd((char) (start >>> 16));
+            containers[i] = containers[i].addRange(start & 0xFFFF, end - (start & ~0xFFFF));
+            start = end;
+        }
+    }
+
+    /**
+     * Remove the rows from from (inclusive) to to (exclusive).
+     */
+    public void clear(int from, int to) {
+        for (int start = from; start < to;) {
+            int end = Math.min(to, chunkEnd(start));
+            int i = find((char) (start >>> 16));
+            if (i >= 0) {
+                containers[i] = containers[i].removeRange(start & 0xFFFF, end - (start & ~0xFFFF));
+                if (containers[i].isEmpty())
+                    removeAt(i);
+            }
+            start = end;
+        }
+    }
+
+    /**
+     * Complement the rows from from (inclusive) to to (exclusive).
+     */
+    public void flip(int from, int to) {
+        for (int start = from; start < to;) {
+            int end = Math.min(to, chunkEnd(start));
+            int i = findOrAdd((char) (start >>> 16));
+            containers[i] = containers[i].flipRange(start & 0xFFFF, end - (start & ~0xFFFF));
+            if (containers[i].isEmpty())
+                removeAt(i);
+            start = end;
+        }
+    }
+
+    /**
+     * Return the first row at or after from, or -1 if there is none.
+     */
+    public int nextSetBit(int from) {
+        if (from < 0)
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        char key = (char) (from >>> 16);
+        int i = find(key);
+        if (i >= 0) {
+            int low = containers[i].next(from & 0xFFFF);
+            if (low >= 0)
+                return (key << 16) | low;
+            i++;
+        } else {
+            i = -i - 1;
+        }
+        if (i >= size)
+            return -1;
+        return (keys[i] << 16) | containers[i].next(0);
+    }
+
+    /**
+     * Return the first row at or after from which is not in the set.
+     */
+    public int nextClearBit(int from) {
+        if (from < 0)
+            throw new IndexOutOfBoundsException("from < 0: " + from);
+        int row = from;
+        while (true) {
+            int i = find((char) (row >>> 16));
+            if (i < 0)
+                return row;
+            int low = containers[i].nextClear(row & 0xFFFF);
+            if (low < CHUNK)
+                return (row & ~0xFFFF) | low;
+            row = chunkEnd(row);
+        }
+    }
+
+    public int cardinality() {
+        int result = 0;
+        for (int i = 0; i < size; i++)
+            result += containers[i].cardinality();
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Return one more than the last row, or 0 if the set is empty.
+     */
+    public int length() {
+        if (size == 0)
+            return 0;
+        return ((keys[size - 1] << 16) | containers[size - 1].last()) + 1;
+    }
+
+    /**
+     * Keep only the rows also in other.
+     */
+    public void and(RowSet other) {
+        int n = 0;
+        for (int i = 0, j = 0; i < size && j < other.size;) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = containers[i].and(other.containers[j]);
+                if (!c.isEmpty()) {
+                    keys[n] = keys[i];
+                    containers[n++] = c;
+                }
+                i++;
+                j++;
+            }
+        }
+        Arrays.fill(containers, n, size, null);
+        size = n;
+        hint = 0;
+    }
+
+    /**
+     * Add the rows of other.
+     */
+    public void or(RowSet other) {
+        char[] k = new char[size + other.size];
+        Container[] c = new Container[k.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+                k[n] = keys[i];
+                c[n++] = containers[i++];
+            } else if (i == size || keys[i] > other.keys[j]) {
+                k[n] = other.keys[j];
+                c[n++] = other.containers[j++].clone();
+            } else {
+                k[n] = keys[i];
+                c[n++] = containers[i++].or(other.containers[j++]);
+            }
+        }
+        keys = k.length == 0 ? new char[4] : k;
+        containers = c.length == 0 ? new Container[4] : c;
+        size = n;
+        hint = 0;
+    }
+
+    @Override
+    public RowSet clone() {
+        try {
+            RowSet result = (RowSet) super.clone();
+            result.keys = keys.clone();
+            result.containers = new Container[containers.length];
+            for (int i = 0; i < size; i++)
+                result.containers[i] = containers[i].clone();
+            return result;
+        } catch (CloneNotSupportedException e) {
+            throw new InternalError(e.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder b = new StringBuilder("{");
+        for (int r = nextSetBit(0); r >= 0; r = nextSetBit(r + 1)) {
+            if (b.length() > 1)
+                b.append(", ");
+            b.append(r);
+        }
+        return b.append('}').toString();
+    }
+
+    private static int chunkEnd(int row) {
+        long end = ((long) (row >>> 16) + 1) << 16;
+        return (int) Math.min(end, Integer.MAX_VALUE);
+    }
+
+    /*
+     * return the index of a chunk, or -(insertion point) - 1 if it is absent.
+     */
+    private int find(char key) {
+        if (hint < size && keys[hint] == key)
+            return hint;
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i >= 0)
+            hint = i;
+        return i;
+    }
+
+    private int findOrAdd(char key) {
+        int i = find(key);
+        if (i >= 0)
+            return i;
+        i = -i - 1;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size << 1);
+            containers = Arrays.copyOf(containers, size << 1);
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(containers, i, containers, i + 1, size - i);
+        keys[i] = key;
+        containers[i] = new ArrayContainer();
+        size++;
+        hint = i;
+        return i;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+        System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+        containers[--size] = null;
+        hint = 0;
+    }
+
+    /*
+     * the rows of one chunk, by their low 16 bits. Updates return the
+     * container holding the result, which may be a new one of the other kind.
+     */
+    abstract static class Container implements Cloneable {
+        abstract boolean get(char x);
+
+        abstract Container add(char x);
+
+        abstract Container remove(char x);
+
+        abstract Container addRange(int from, int to);
+
+        abstract Container removeRange(int from, int to);
+
+        abstract Container flipRange(int from, int to);
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        /* return the first row at or after x, or -1 */
+        abstract int next(int x);
+
+        /* return the first row at or after x not in the chunk, or CHUNK */
+        abstract int nextClear(int x);
+
+        abstract int last();
+
+        abstract int cardinality();
+
+        boolean isEmpty() {
+            return cardinality() == 0;
+        }
+
+        @Override
+        protected abstract Container clone();
+    }
+
+    static final class ArrayContainer extends Container {
+        char[] values;
+        int n;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int n) {
+            this.values = values;
+            this.n = n;
+        }
+
+        private int search(int x) {
+            if (n > 0 && values[n - 1] < x) // appending, the common case
+                return -n - 1;
+            return Arrays.binarySearch(values, 0, n, (char) x);
+        }
+
+        @Override
+        boolean get(char x) {
+            return search(x) >= 0;
+        }
+
+        @Override
+        Container add(char x) {
+            int i = search(x);
+            if (i >= 0)
+                return this;
+            if (n == ARRAY_MAX)
+                return toBitmap().add(x);
+            i = -i - 1;
+            if (n == values.length)
+                values = Arrays.copyOf(values, Math.max(4, Math.min(ARRAY_MAX, n << 1)));
+            System.arraycopy(values, i, values, i + 1, n - i);
+            values[i] = x;
+            n++;
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            int i = search(x);
+            if (i < 0)
+                return this;
+            System.arraycopy(values, i + 1, values, i, n - i - 1);
+            n--;
+            return this;
+        }
+
+        @Override
+        Container addRange(int from, int to) {
+            int lo = lowerBound(from);
+            int hi = lowerBound(to);
+            int count = lo + (to - from) + (n - hi);
+            if (count > ARRAY_MAX)
+                return toBitmap().addRange(from, to);
+            char[] result = new char[Math.max(4, count)];
+            System.arraycopy(values, 0, result, 0, lo);
+            for (int x = from; x < to; x++)
+                result[lo + x - from] = (char) x;
+            System.arraycopy(values, hi, result, lo + to - from, n - hi);
+            values = result;
+            n = count;
+            return this;
+        }
+
+        @Override
+        Container removeRange(int from, int to) {
+            int lo = lowerBound(from);
+            int hi = lowerBound(to);
+            System.arraycopy(values, hi, values, lo, n - hi);
+            n -= hi - lo;
+            return this;
+        }
+
+        @Override
+        Container flipRange(int from, int to) {
+            return toBitmap().flipRange(from, to);
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[n];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0, j = 0; i < n && j < o.n;) {
+                    if (values[i] < o.values[j])
+                        i++;
+                    else if (values[i] > o.values[j])
+                        j++;
+                    else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < n; i++)
+                    if (other.get(values[i]))
+                        result[count++] = values[i];
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (!(other instanceof ArrayContainer))
+                return other.clone().or(this);
+            ArrayContainer o = (ArrayContainer) other;
+            char[] result = new char[n + o.n];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < n || j < o.n) {
+                if (j == o.n || (i < n && values[i] < o.values[j]))
+                    result[count++] = values[i++];
+                else if (i == n || values[i] > o.values[j])
+                    result[count++] = o.values[j++];
+                else {
+                    result[count++] = values[i++];
+                    j++;
+                }
+            }
+            ArrayContainer c = new ArrayContainer(result, count);
+            return count > ARRAY_MAX ? c.toBitmap() : c;
+        }
+
+        @Override
+        int next(int x) {
+            int i = lowerBound(x);
+            return i < n ? values[i] : -1;
+        }
+
+        @Override
+        int nextClear(int x) {
+            for (int i = lowerBound(x); i < n && values[i] == x; i++)
+                x++;
+            return x;
+        }
+
+        @Override
+        int last() {
+            return values[n - 1];
+        }
+
+        @Override
+        int cardinality() {
+            return n;
+        }
+
+        @Override
+        protected ArrayContainer clone() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(4, n)), n);
+        }
+
+        /* return the index of the first value at or after x */
+        private int lowerBound(int x) {
+            int lo = 0;
+            int hi = n;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < x)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < n; i++)
+                b.words[values[i] >>> 6] |= 1L << values[i];
+            b.card = n;
+            return b;
+        }
+    }
+
+    static final class BitmapContainer extends Container {
+        final long[] words;
+        int card;
+
+        BitmapContainer() {
+            this(new long[CHUNK / 64], 0);
+        }
+
+        BitmapContainer(long[] words, int card) {
+            this.words = words;
+            this.card = card;
+        }
+
+        @Override
+        boolean get(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        @Override
+        Container add(char x) {
+            long w = words[x >>> 6];
+            long bit = 1L << x;
+            if ((w & bit) == 0) {
+                words[x >>> 6] = w | bit;
+                card++;
+            }
+            return this;
+        }
+
+        @Override
+        Container remove(char x) {
+            long w = words[x >>> 6];
+            long bit = 1L << x;
+            if ((w & bit) != 0) {
+                words[x >>> 6] = w & ~bit;
+                card--;
+            }
+            return card <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        Container addRange(int from, int to) {
+            return updateRange(from, to, 0);
+        }
+
+        @Override
+        Container removeRange(int from, int to) {
+            return updateRange(from, to, 1);
+        }
+
+        @Override
+        Container flipRange(int from, int to) {
+            return updateRange(from, to, 2);
+        }
+
+        /*
+         * set (0), clear (1) or flip (2) the bits from from to to.
+         */
+        private Container updateRange(int from, int to, int how) {
+            if (from >= to)
+                return this;
+            int first = from >>> 6;
+            int last = (to - 1) >>> 6;
+            for (int w = first; w <= last; w++) {
+                long mask = -1L;
+                if (w == first)
+                    mask &= -1L << from;
+                if (w == last)
+                    mask &= -1L >>> (63 - ((to - 1) & 63));
+                card -= Long.bitCount(words[w]);
+                if (how == 0)
+                    words[w] |= mask;
+                else if (how == 1)
+                    words[w] &= ~mask;
+                else
+                    words[w] ^= mask;
+                card += Long.bitCount(words[w]);
+            }
+            return card <= ARRAY_MAX ? toArray() : this;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer)
+                return other.and(this);
+            long[] o = ((BitmapContainer) other).words;
+            long[] result = new long[words.length];
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                result[i] = words[i] & o[i];
+                count += Long.bitCount(result[i]);
+            }
+            BitmapContainer c = new BitmapContainer(result, count);
+            return count <= ARRAY_MAX ? c.toArray() : c;
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof ArrayContainer) {
+                ArrayContainer a = (ArrayContainer) other;
+                for (int i = 0; i < a.n; i++)
+                    add(a.values[i]);
+                return this;
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int count = 0;
+            for (int i = 0; i < words.length; i++) {
+                words[i] |= o[i];
+                count += Long.bitCount(words[i]);
+            }
+            card = count;
+            return this;
+        }
+
+        @Override
+        int next(int x) {
+            if (x >= CHUNK)
+                return -1;
+            int w = x >>> 6;
+            long word = words[w] & (-1L << x);
+            while (true) {
+                if (word != 0)
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == words.length)
+                    return -1;
+                word = words[w];
+            }
+        }
+
+        @Override
+        int nextClear(int x) {
+            int w = x >>> 6;
+            long word = ~words[w] & (-1L << x);
+            while (true) {
+                if (word != 0)
+                    return (w << 6) + Long.numberOfTrailingZeros(word);
+                if (++w == words.length)
+                    return CHUNK;
+                word = ~words[w];
+            }
+        }
+
+        @Override
+        int last() {
+            for (int w = words.length - 1; w >= 0; w--)
+                if (words[w] != 0)
+                    return (w << 6) + 63 - Long.numberOfLeadingZeros(words[w]);
+            return -1;
+        }
+
+        @Override
+        int cardinality() {
+            return card;
+        }
+
+        @Override
+        protected BitmapContainer clone() {
+            return new BitmapContainer(words.clone(), card);
+        }
+
+        ArrayContainer toArray() {
+            char[] values = new char[Math.max(4, card)];
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[count++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, count);
+        }
+    }
+}
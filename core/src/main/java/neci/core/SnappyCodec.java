@@ -33,6 +33,25 @@ final class SnappyCodec extends Codec {
     }
 
     @Override ByteBuffer decompress(ByteBuffer in) throws IOException {
+        return decompress(in, null);
+    }
+
+    /*
+     * a block mapped from its file is not in an array, and is decompressed
+     * from the mapping into a direct buffer, reusing one if large enough.
+     */
+    @Override ByteBuffer decompress(ByteBuffer in, ByteBuffer reuse) throws IOException {
+        if (in.hasArray())
+            return decompressArray(in);
+        int len = Snappy.uncompressedLength(in);
+        ByteBuffer out = reuse != null && reuse.isDirect() && !reuse.isReadOnly() && reuse.capacity() >= len ? reuse
+                : ByteBuffer.allocateDirect(len);
+        out.clear();
+        Snappy.uncompress(in.duplicate(), out);
+        return out;
+    }
+
+    private ByteBuffer decompressArray(ByteBuffer in) throws IOException {
         ByteBuffer out = ByteBuffer.allocate(Snappy.uncompressedLength(in.array(), in.position(), in.remaining()));
         int size = Snappy.uncompress(in.array(), in.position(), in.remaining(), out.array(), 0);
         out.limit(size);
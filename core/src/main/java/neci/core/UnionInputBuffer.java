@@ -16,6 +16,10 @@ public class UnionInputBuffer extends BlockInputBuffer {
     int xx;
 
     public UnionInputBuffer(ByteBuffer data, int count, int unionBits, ValueType[] unionTypes) {
+        this(data, count, unionBits, unionTypes, false);
+    }
+
+    public UnionInputBuffer(ByteBuffer data, int count, int unionBits, ValueType[] unionTypes, boolean wide) {
         this.unionBits = unionBits;
         switch (unionBits) {
             case 1:
@@ -41,7 +45,7 @@ public class UnionInputBuffer extends BlockInputBuffer {
         byte[] limit = new byte[data.limit() - length];
         data.get(limit);
 
-        buf = new BlockInputBuffer(limit, count);
+        buf = new BlockInputBuffer(limit, 0, count, wide);
     }
 
     @Override
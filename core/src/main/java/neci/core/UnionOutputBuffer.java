@@ -13,7 +13,11 @@ public class UnionOutputBuffer extends BlockOutputBuffer {
     private int unionBits;
 
     public UnionOutputBuffer(ValueType[] types, int unionBits) {
-        super();
+        this(types, unionBits, BLOCK_SIZE);
+    }
+
+    public UnionOutputBuffer(ValueType[] types, int unionBits, int blockSize) {
+        super(blockSize);
         this.union = types.length;
         buf3 = new byte[COUNT];
         unionTypes = types;
@@ -21,7 +25,7 @@ public class UnionOutputBuffer extends BlockOutputBuffer {
     }
 
     public boolean isFull() {
-        return (count1 + count2 + count3) >= BLOCK_SIZE;
+        return (count1 + count2 + count3) >= blockSize;
     }
 
     public int size() {
@@ -80,8 +84,12 @@ public class UnionOutputBuffer extends BlockOutputBuffer {
     }
 
     public synchronized void reset() {
+        Arrays.fill(buf3, 0, count3, (byte) 0); // the next block's indexes are or-ed in
         count3 = 0;
+        bitCount3 = 0;
         count1 = 0;
         count2 = 0;
+        if (stats != null)
+            stats.reset();
     }
 }
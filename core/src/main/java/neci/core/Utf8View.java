@@ -0,0 +1,118 @@
+package neci.core;
+
+import java.nio.charset.Charset;
+
+/**
+ * A UTF-8 string which points into the buffer it was read from instead of
+ * being copied and decoded. A view is only valid until its column moves to
+ * another block, and views are usually reused from row to row, so call
+ * {@link #toString()} to keep the value. Views compare byte by byte, which is
+ * the code point order of the strings.
+ */
+public class Utf8View implements Comparable<Utf8View> {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+
+    public Utf8View() {
+    }
+
+    public Utf8View(byte[] bytes) {
+        set(bytes, 0, bytes.length);
+    }
+
+    public Utf8View(String string) {
+        this(string.getBytes(UTF8));
+    }
+
+    public Utf8View set(byte[] bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public boolean startsWith(Utf8View prefix) {
+        if (prefix.length > length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (bytes[offset + i] != prefix.bytes[prefix.offset + i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Compare two strings in code point order, the order of their UTF-8
+     * bytes, in which views compare. It differs from
+     * {@link String#compareTo(String)} for supplementary characters.
+     */
+    public static int compare(CharSequence a, CharSequence b) {
+        int n = Math.min(a.length(), b.length());
+        for (int i = 0; i < n; i++) {
+            int x = a.charAt(i);
+            int y = b.charAt(i);
+            if (x != y) {
+                if (x >= 0xD800 && y >= 0xD800) { // order the surrogates above the rest of the BMP
+                    x += x >= 0xE000 ? -0x800 : 0x2000;
+                    y += y >= 0xE000 ? -0x800 : 0x2000;
+                }
+                return x - y;
+            }
+        }
+        return a.length() - b.length();
+    }
+
+    @Override
+    public int compareTo(Utf8View o) {
+        int n = Math.min(length, o.length);
+        for (int i = 0; i < n; i++) {
+            int a = bytes[offset + i] & 0xff;
+            int b = o.bytes[o.offset + i] & 0xff;
+            if (a != b)
+                return a - b;
+        }
+        return length - o.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o)
+            return true;
+        if (!(o instanceof Utf8View))
+            return false;
+        Utf8View that = (Utf8View) o;
+        if (length != that.length)
+            return false;
+        for (int i = 0; i < length; i++)
+            if (bytes[offset + i] != that.bytes[that.offset + i])
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = 0;
+        for (int i = 0; i < length; i++)
+            h = h * 31 + bytes[offset + i];
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, offset, length, UTF8);
+    }
+}
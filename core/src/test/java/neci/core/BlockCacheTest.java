@@ -0,0 +1,123 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class BlockCacheTest {
+    @Test
+    public void testHitsAndMisses() {
+        BlockCache cache = new BlockCache(1000);
+        assertNull(cache.getBlock("f", 0, 0));
+        cache.putBlock("f", 0, 0, block(100, 1));
+        assertEquals(1, cache.getBlock("f", 0, 0).get(0));
+        assertNull(cache.getBlock("f", 1, 0));
+        assertNull(cache.getBlock("g", 0, 0));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void testEviction() {
+        BlockCache cache = new BlockCache(300);
+        cache.putBlock("f", 0, 0, block(100, 0));
+        cache.putBlock("f", 0, 1, block(100, 1));
+        cache.putBlock("f", 0, 2, block(100, 2));
+        assertNotNull(cache.getBlock("f", 0, 0)); // now the most recently used
+        cache.putBlock("f", 0, 3, block(100, 3));
+        assertNull(cache.getBlock("f", 0, 1));
+        assertNotNull(cache.getBlock("f", 0, 0));
+        assertNotNull(cache.getBlock("f", 0, 2));
+        assertNotNull(cache.getBlock("f", 0, 3));
+        assertEquals(300, cache.getSize());
+
+        cache.putBlock("f", 0, 4, block(400, 4)); // larger than the cache
+        assertNull(cache.getBlock("f", 0, 4));
+        cache.setCapacity(150);
+        assertEquals(100, cache.getSize());
+        assertNotNull(cache.getBlock("f", 0, 3));
+    }
+
+    @Test
+    public void testInvalidate() {
+        BlockCache cache = new BlockCache(1000);
+        cache.putBlock("f", 0, 0, block(100, 0));
+        cache.putBlock("f", 1, 0, block(100, 0));
+        cache.putBlock("g", 0, 0, block(100, 0));
+        cache.invalidate("f");
+        assertNull(cache.getBlock("f", 0, 0));
+        assertNull(cache.getBlock("f", 1, 0));
+        assertNotNull(cache.getBlock("g", 0, 0));
+        assertEquals(100, cache.getSize());
+    }
+
+    @Test
+    public void testReaders() throws IOException {
+        FileColumnMetaData[] meta = { new FileColumnMetaData("long", ValueType.LONG),
+                new FileColumnMetaData("string", ValueType.STRING) };
+        ListArr[] insert = { new ListArr(), new ListArr() };
+        int rows = 20000;
+        for (int i = 0; i < rows; i++) {
+            insert[0].add((long) i * 3);
+            insert[1].add("value" + i);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(
+                new FileMetaData().setCodec("lz4").setBlockSize(4096), meta);
+        writer.setInsert(insert);
+        File file = File.createTempFile("cache", ".neci");
+        BlockCache cache = BlockCache.get();
+        try {
+            writer.flushTo(file);
+            BatchColumnFileReader uncached = new BatchColumnFileReader(file);
+            cache.setCapacity(64L * 1024 * 1024);
+            cache.clear();
+            try {
+                scan(uncached, rows);
+                assertEquals(0, cache.getSize()); // opened while the cache was off
+
+                // the first scan fills the cache, the others read from it, so
+                // a cached block decompressed into again would show in the last
+                for (int pass = 0; pass < 3; pass++) {
+                    BatchColumnFileReader reader = new BatchColumnFileReader(file);
+                    try {
+                        scan(reader, rows);
+                    } finally {
+                        reader.close();
+                    }
+                }
+                assertEquals(true, cache.getHits() > 0);
+                assertEquals(true, cache.getSize() > 0);
+            } finally {
+                uncached.close();
+                cache.setCapacity(0);
+                cache.clear();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static void scan(BatchColumnFileReader reader, int rows) throws IOException {
+        BlockColumnValues longs = reader.getValues(0);
+        BlockColumnValues strings = reader.getValues(1);
+        for (int i = 0; i < rows; i++) {
+            assertEquals((long) i * 3, longs.next());
+            assertEquals("value" + i, strings.next());
+        }
+    }
+
+    private static ByteBuffer block(int size, int value) {
+        ByteBuffer result = ByteBuffer.allocate(size);
+        result.put(0, (byte) value);
+        return result;
+    }
+}
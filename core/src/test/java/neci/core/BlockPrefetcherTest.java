@@ -0,0 +1,104 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class BlockPrefetcherTest {
+    private static final int ROWS = 50000;
+
+    private static File file;
+
+    @BeforeClass
+    public static void write() throws IOException {
+        FileColumnMetaData[] meta = { new FileColumnMetaData("long", ValueType.LONG),
+                new FileColumnMetaData("string", ValueType.STRING) };
+        ListArr[] insert = { new ListArr(), new ListArr() };
+        for (int i = 0; i < ROWS; i++) {
+            insert[0].add((long) i * 7);
+            insert[1].add("value" + i);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(
+                new FileMetaData().setCodec("deflate").setBlockSize(4096), meta);
+        writer.setInsert(insert);
+        file = File.createTempFile("prefetch", ".neci");
+        writer.flushTo(file);
+    }
+
+    @AfterClass
+    public static void delete() {
+        file.delete();
+    }
+
+    @Test
+    public void testCloseReleasesReserved() throws IOException {
+        BlockPrefetcher prefetcher = new BlockPrefetcher(4, 8, 64L * 1024 * 1024);
+        try {
+            for (int i = 0; i < 50; i++) {
+                // cursors dropped in the middle of their columns
+                BatchColumnFileReader reader = new BatchColumnFileReader(file);
+                reader.setPrefetcher(prefetcher);
+                reader.getValues(0).next();
+                BlockColumnValues v = reader.getValues(1);
+                for (int row = 0; row < i * 100; row++)
+                    v.next();
+                reader.close();
+
+                InsertColumnFileReader insertReader = new InsertColumnFileReader(file);
+                insertReader.setPrefetcher(prefetcher);
+                insertReader.getValues(1).next();
+                insertReader.close();
+            }
+            assertEquals(0, prefetcher.getReserved());
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testCloseMappedWhileReading() throws IOException {
+        // a deep prefetcher with few threads keeps blocks queued and running at close
+        BlockPrefetcher prefetcher = new BlockPrefetcher(1, 64, 64L * 1024 * 1024);
+        try {
+            for (int i = 0; i < 50; i++) {
+                BatchColumnFileReader reader = new BatchColumnFileReader(file, true);
+                reader.setPrefetcher(prefetcher);
+                reader.getValues(0).next();
+                reader.getValues(1).next();
+                reader.close();
+            }
+            assertEquals(0, prefetcher.getReserved());
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testValuesRead() throws IOException {
+        BlockPrefetcher prefetcher = new BlockPrefetcher(2, 4, 64L * 1024 * 1024);
+        try {
+            for (boolean mapped : new boolean[] { false, true }) {
+                BatchColumnFileReader reader = new BatchColumnFileReader(file, mapped);
+                try {
+                    reader.setPrefetcher(prefetcher);
+                    BlockColumnValues v = reader.getValues(0);
+                    for (int row = 0; row < ROWS; row++)
+                        assertEquals((long) row * 7, v.next());
+                    assertEquals(false, v.hasNext());
+                } finally {
+                    reader.close();
+                }
+            }
+            assertEquals(0, prefetcher.getReserved());
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+}
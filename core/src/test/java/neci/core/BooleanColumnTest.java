@@ -0,0 +1,75 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class BooleanColumnTest {
+    private static final int ROWS = 1003; // not a multiple of 8
+
+    @Test
+    public void testResetClearsBitCount() throws IOException {
+        BlockOutputBuffer block = new BlockOutputBuffer();
+        OutputBuffer plain = new OutputBuffer();
+        for (int i = 0; i < 3; i++) {
+            block.writeBoolean(true);
+            plain.writeBoolean(true);
+        }
+        block.reset();
+        plain.reset();
+        block.writeBoolean(false);
+        plain.writeBoolean(false);
+        assertEquals(1, plain.size());
+        plain.reset();
+        plain.writeBoolean(true);
+        assertEquals(1, plain.size());
+        assertEquals(true, new InputBuffer(new InputBytes(plain.toByteArray())).readBoolean());
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        FileColumnMetaData[] meta = new FileColumnMetaData[3];
+        meta[0] = new FileColumnMetaData("a", ValueType.BOOLEAN).setBlockSize(64);
+        meta[1] = new FileColumnMetaData("b", ValueType.BOOLEAN).setBlockSize(64);
+        meta[2] = new FileColumnMetaData("c", ValueType.BOOLEAN).setBlockSize(64);
+        ListArr[] values = new ListArr[meta.length];
+        for (int c = 0; c < meta.length; c++) {
+            values[c] = new ListArr();
+            for (int i = 0; i < ROWS; i++)
+                values[c].add(value(c, i));
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(new FileMetaData().setBlockSize(64), meta);
+        writer.setInsert(values);
+        File file = File.createTempFile("boolean", ".neci");
+        file.deleteOnExit();
+        writer.flushTo(file);
+
+        BatchColumnFileReader reader = new BatchColumnFileReader(file);
+        try {
+            for (int c = 0; c < meta.length; c++) {
+                BlockColumnValues<Boolean> v = reader.getValues(c);
+                v.create();
+                assertEquals(true, v.getBlockCount() > 1);
+                for (int i = 0; i < ROWS; i++)
+                    assertEquals("column " + c + " row " + i, value(c, i), v.next());
+                BooleanColumnValues b = reader.getBooleanValues(meta[c].getName());
+                b.create();
+                boolean[] all = new boolean[ROWS];
+                assertEquals(ROWS, b.readBooleans(all, ROWS));
+                for (int i = 0; i < ROWS; i++)
+                    assertEquals(value(c, i), all[i]);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static boolean value(int column, int row) {
+        return (row * (column + 3)) % 5 < 2;
+    }
+}
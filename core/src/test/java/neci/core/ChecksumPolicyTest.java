@@ -0,0 +1,158 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.trevni.TrevniRuntimeException;
+import org.junit.Assume;
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class ChecksumPolicyTest {
+    private static final int ROWS = 10000;
+
+    @Test
+    public void testCorruptBlock() throws IOException {
+        FileColumnMetaData[] meta = { new FileColumnMetaData("long", ValueType.LONG) };
+        ListArr[] insert = { new ListArr() };
+        for (int i = 0; i < ROWS; i++)
+            insert[0].add((long) i);
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(
+                new FileMetaData().setChecksum("crc32c").setBlockSize(4096), meta);
+        writer.setInsert(insert);
+        File file = File.createTempFile("checksum", ".neci");
+        try {
+            writer.flushTo(file);
+            BatchColumnFileReader reader = new BatchColumnFileReader(file);
+            long start;
+            try {
+                reader.getValues(0);
+                assertEquals(true, reader.column(0).blockCount() > 2);
+                start = reader.column(0).blockStarts[1];
+            } finally {
+                reader.close();
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(start);
+                int b = raf.read();
+                raf.seek(start);
+                raf.write(b ^ 0xff);
+            } finally {
+                raf.close();
+            }
+
+            for (ChecksumPolicy policy : new ChecksumPolicy[] { ChecksumPolicy.ALWAYS, ChecksumPolicy.FIRST_LOAD }) {
+                for (boolean mapped : new boolean[] { false, true }) {
+                    reader = new BatchColumnFileReader(file, mapped);
+                    try {
+                        reader.setChecksumPolicy(policy);
+                        scan(reader);
+                        fail(policy + " read a corrupt block");
+                    } catch (TrevniRuntimeException e) {
+                        assertEquals(policy.toString(), "Checksums mismatch.", e.getCause().getMessage());
+                    } finally {
+                        reader.close();
+                    }
+                }
+            }
+
+            reader = new BatchColumnFileReader(file);
+            try {
+                reader.setChecksumPolicy(ChecksumPolicy.NEVER);
+                assertEquals(ROWS, scan(reader));
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testFirstLoadVerifiesOnce() throws IOException {
+        FileColumnMetaData meta = new FileColumnMetaData("long", ValueType.LONG);
+        ColumnDescriptor column = new ColumnDescriptor(null, meta);
+        column.setBlockDescriptor(new BlockDescriptor[] { new BlockDescriptor(10, 100, 100) });
+        Checksum checksum = Checksum.get(new FileMetaData().setChecksum("crc32c"));
+        byte[] bytes = new byte[100];
+        new Random(5).nextBytes(bytes);
+        ByteBuffer data = ByteBuffer.wrap(bytes);
+        ByteBuffer good = raw(bytes, checksum.compute(data));
+        ByteBuffer bad = raw(bytes, ByteBuffer.allocate(checksum.size()));
+
+        for (ChecksumPolicy policy : ChecksumPolicy.values()) {
+            column.checksumPolicy = policy;
+            boolean verified = policy != ChecksumPolicy.NEVER;
+            assertEquals(policy.toString(), !verified, matches(column, checksum, data, bad));
+            column.verify(0, checksum, data, good);
+            // a block verified once is not verified again under FIRST_LOAD
+            assertEquals(policy.toString(), policy != ChecksumPolicy.ALWAYS, matches(column, checksum, data, bad));
+        }
+    }
+
+    @Test
+    public void testTableMatchesJdk() throws ReflectiveOperationException {
+        Class<?> jdk;
+        try {
+            jdk = Class.forName("java.util.zip.CRC32C");
+        } catch (ClassNotFoundException e) {
+            jdk = null;
+        }
+        Assume.assumeNotNull(jdk); // before Java 9
+        Random random = new Random(9);
+        for (int size : new int[] { 0, 1, 7, 8, 9, 63, 64, 65, 1000, 100000 }) {
+            byte[] data = new byte[size + 16];
+            random.nextBytes(data);
+            for (int offset = 0; offset < 8; offset++) {
+                java.util.zip.Checksum expected = (java.util.zip.Checksum) jdk.newInstance();
+                Crc32cChecksum.TableCrc32c crc = new Crc32cChecksum.TableCrc32c();
+                expected.update(data, offset, size);
+                crc.update(data, offset, size);
+                assertEquals(size + " at " + offset, expected.getValue(), crc.getValue());
+                // again, in two parts
+                crc.reset();
+                crc.update(data, offset, size / 3);
+                crc.update(data, offset + size / 3, size - size / 3);
+                assertEquals(size + " at " + offset, expected.getValue(), crc.getValue());
+            }
+        }
+    }
+
+    private static int scan(BatchColumnFileReader reader) throws IOException {
+        BlockColumnValues v = reader.getValues(0);
+        int rows = 0;
+        while (v.hasNext()) {
+            v.next();
+            rows++;
+        }
+        return rows;
+    }
+
+    private static boolean matches(ColumnDescriptor column, Checksum checksum, ByteBuffer data, ByteBuffer raw) {
+        try {
+            column.verify(0, checksum, data, raw);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * return the stored bytes of a block written without compression: its
+     * data followed by a checksum.
+     */
+    private static ByteBuffer raw(byte[] bytes, ByteBuffer sum) {
+        ByteBuffer result = ByteBuffer.allocate(bytes.length + sum.remaining());
+        result.put(bytes).put(sum.duplicate());
+        result.flip();
+        return result;
+    }
+}
@@ -0,0 +1,120 @@
+package neci.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class CodecTest {
+    private static final String[] CODECS = { "null", "deflate", "snappy", "bzip2", "lz4" };
+    private static final String[] CHECKSUMS = { "null", "crc32", "crc32c" };
+
+    @Test
+    public void testEmpty() throws IOException {
+        for (String codec : CODECS)
+            roundTrip(codec, new byte[0]);
+    }
+
+    @Test
+    public void testCompressible() throws IOException {
+        byte[] data = new byte[BlockOutputBuffer.BLOCK_SIZE];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) ("value" + (i / 16 % 50)).charAt(i % 5);
+        for (String codec : CODECS)
+            roundTrip(codec, data);
+    }
+
+    @Test
+    public void testIncompressible() throws IOException {
+        byte[] data = new byte[BlockOutputBuffer.BLOCK_SIZE];
+        new Random(7).nextBytes(data);
+        for (String codec : CODECS)
+            roundTrip(codec, data);
+    }
+
+    @Test
+    public void testMaxSizeBlocks() throws IOException {
+        Random random = new Random(11);
+        // the largest block with 16 bit offsets, and one with 32 bit offsets
+        for (int size : new int[] { 64 * 1024, 1024 * 1024 }) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < size; i += 1024)
+                data[i + random.nextInt(1024)] = (byte) random.nextInt();
+            for (String codec : CODECS)
+                roundTrip(codec, data);
+        }
+    }
+
+    @Test
+    public void testShortInputs() throws IOException {
+        Random random = new Random(13);
+        for (int size = 1; size < 64; size++) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            for (String codec : CODECS)
+                roundTrip(codec, data);
+        }
+    }
+
+    @Test
+    public void testChecksums() throws IOException {
+        byte[] data = new byte[10000];
+        new Random(17).nextBytes(data);
+        for (String name : CHECKSUMS) {
+            Checksum checksum = Checksum.get(new FileMetaData().setChecksum(name));
+            ByteBuffer sum = checksum.compute(ByteBuffer.wrap(data));
+            assertEquals(name, checksum.size(), sum.remaining());
+            assertEquals(name, sum, checksum.compute(direct(data)));
+            assertEquals(name, sum, checksum.compute(ByteBuffer.wrap(copyOf(data, 3), 3, data.length).slice()));
+        }
+    }
+
+    @Test
+    public void testCrc32cTable() {
+        byte[] data = "123456789".getBytes();
+        Crc32cChecksum.TableCrc32c crc = new Crc32cChecksum.TableCrc32c();
+        crc.update(data, 0, data.length);
+        assertEquals(0xE3069283L, crc.getValue());
+    }
+
+    /*
+     * compress data, then decompress it from an array, from a read-only direct
+     * buffer as a mapped file gives, and into a reused buffer.
+     */
+    private static void roundTrip(String name, byte[] data) throws IOException {
+        Codec codec = Codec.get(new FileMetaData().setCodec(name));
+        ByteBuffer compressed = codec.compress(ByteBuffer.wrap(data));
+        byte[] bytes = new byte[compressed.remaining()];
+        compressed.duplicate().get(bytes);
+        String message = name + " " + data.length;
+
+        assertArrayEquals(message, data, toArray(codec.decompress(ByteBuffer.wrap(bytes))));
+        assertArrayEquals(message, data, toArray(codec.decompress(direct(bytes).asReadOnlyBuffer())));
+        ByteBuffer reuse = ByteBuffer.allocate(data.length + 16);
+        assertArrayEquals(message, data, toArray(codec.decompress(ByteBuffer.wrap(bytes), reuse)));
+        assertArrayEquals(message, data, toArray(codec.decompress(ByteBuffer.wrap(bytes), reuse)));
+    }
+
+    private static ByteBuffer direct(byte[] bytes) {
+        ByteBuffer result = ByteBuffer.allocateDirect(bytes.length);
+        result.put(bytes);
+        result.flip();
+        return result;
+    }
+
+    private static byte[] copyOf(byte[] data, int offset) {
+        byte[] result = new byte[offset + data.length];
+        System.arraycopy(data, 0, result, offset, data.length);
+        return result;
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+}
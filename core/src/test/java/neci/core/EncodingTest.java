@@ -0,0 +1,135 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class EncodingTest {
+    private static final String[] CODECS = { "null", "deflate", "snappy", "bzip2", "lz4" };
+    private static final String[] ENCODINGS = { "plain", "delta", "dictionary" };
+    private static final int ROWS = 20000;
+
+    @Test
+    public void testEncodings() throws IOException {
+        for (String encoding : ENCODINGS)
+            for (String codec : CODECS)
+                check(new FileMetaData().setCodec(codec).setChecksum("crc32c").setEncoding(encoding), ROWS);
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        for (String encoding : ENCODINGS)
+            check(new FileMetaData().setCodec("lz4").setEncoding(encoding), 0);
+    }
+
+    @Test
+    public void testSmallBlocks() throws IOException {
+        for (String encoding : ENCODINGS)
+            check(new FileMetaData().setCodec("snappy").setEncoding(encoding).setBlockSize(100), 1000);
+    }
+
+    @Test
+    public void testWideBlocks() throws IOException {
+        // blocks past 64KB, whose values are addressed with 32 bit offsets
+        for (String encoding : ENCODINGS)
+            check(new FileMetaData().setCodec("deflate").setChecksum("crc32").setEncoding(encoding)
+                    .setBlockSize(1 << 20), ROWS * 4);
+    }
+
+    @Test
+    public void testDeltaExtremes() throws IOException {
+        FileColumnMetaData[] meta = { new FileColumnMetaData("i", ValueType.INT),
+                new FileColumnMetaData("l", ValueType.LONG) };
+        int[] ints = { 0, Integer.MAX_VALUE, Integer.MIN_VALUE, -1, 1, Integer.MIN_VALUE, Integer.MAX_VALUE };
+        long[] longs = { 0, Long.MAX_VALUE, Long.MIN_VALUE, -1, 1, Long.MIN_VALUE, Long.MAX_VALUE };
+        Object[][] values = new Object[meta.length][ints.length * 100];
+        for (int i = 0; i < values[0].length; i++) {
+            values[0][i] = ints[i % ints.length];
+            values[1][i] = longs[i % longs.length];
+        }
+        BatchColumnFileReader reader = open(new FileMetaData().setEncoding("delta"), meta, values);
+        try {
+            for (boolean mapped : new boolean[] { false, true }) {
+                if (mapped) {
+                    reader.close();
+                    reader = new BatchColumnFileReader(file, true);
+                }
+                for (int c = 0; c < meta.length; c++) {
+                    BlockColumnValues v = reader.getValues(c);
+                    for (int i = 0; i < values[c].length; i++)
+                        assertEquals(values[c][i], v.next());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private File file;
+
+    /*
+     * write rows of every kind of column under a file's settings, then read
+     * them back through the file and through a mapping of it.
+     */
+    private void check(FileMetaData fileMeta, int rows) throws IOException {
+        FileColumnMetaData[] meta = { new FileColumnMetaData("int", ValueType.INT),
+                new FileColumnMetaData("long", ValueType.LONG), new FileColumnMetaData("string", ValueType.STRING),
+                new FileColumnMetaData("fixed", ValueType.FIXED32),
+                new FileColumnMetaData("double", ValueType.DOUBLE),
+                new FileColumnMetaData("bytes", ValueType.BYTES) };
+        Object[][] values = new Object[meta.length][rows];
+        Random random = new Random(rows);
+        for (int i = 0; i < rows; i++) {
+            values[0][i] = i % 100 - 50;
+            values[1][i] = i * 1000L + random.nextInt(10);
+            values[2][i] = "value" + random.nextInt(300) + "\u00e9\u4e2d";
+            values[3][i] = random.nextInt();
+            values[4][i] = random.nextDouble();
+            byte[] b = new byte[random.nextInt(20)];
+            random.nextBytes(b);
+            values[5][i] = ByteBuffer.wrap(b);
+        }
+        String message = fileMeta.getCodec() + " " + fileMeta.getEncoding() + " " + rows;
+        BatchColumnFileReader reader = open(fileMeta, meta, values);
+        try {
+            for (boolean mapped : new boolean[] { false, true }) {
+                if (mapped) {
+                    reader.close();
+                    reader = new BatchColumnFileReader(file, true);
+                }
+                assertEquals(message, rows, reader.getRowCount());
+                for (int c = 0; c < meta.length; c++) {
+                    BlockColumnValues v = reader.getValues(c);
+                    for (int i = 0; i < rows; i++)
+                        assertEquals(message + " column " + c + " row " + i, values[c][i], v.next());
+                    assertEquals(message, false, v.hasNext());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private BatchColumnFileReader open(FileMetaData fileMeta, FileColumnMetaData[] meta, Object[][] values)
+            throws IOException {
+        ListArr[] insert = new ListArr[meta.length];
+        for (int c = 0; c < meta.length; c++) {
+            insert[c] = new ListArr();
+            for (Object value : values[c])
+                insert[c].add(value instanceof ByteBuffer ? ((ByteBuffer) value).duplicate() : value);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(fileMeta, meta);
+        writer.setInsert(insert);
+        file = File.createTempFile("encoding", ".neci");
+        file.deleteOnExit();
+        writer.flushTo(file);
+        return new BatchColumnFileReader(file);
+    }
+}
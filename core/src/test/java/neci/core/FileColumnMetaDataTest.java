@@ -0,0 +1,68 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class FileColumnMetaDataTest {
+    @Test
+    public void testChildrenParsedLazily() throws IOException {
+        // k, a[] { x, b[] { y } }, z, w
+        FileColumnMetaData k = new FileColumnMetaData("k", ValueType.INT);
+        FileColumnMetaData a = new FileColumnMetaData("a[]", ValueType.NULL).isArray(true);
+        FileColumnMetaData x = new FileColumnMetaData("x", ValueType.INT).setParent(a).setLayer(1);
+        FileColumnMetaData b = new FileColumnMetaData("b[]", ValueType.NULL).isArray(true).setParent(a).setLayer(1);
+        FileColumnMetaData y = new FileColumnMetaData("y", ValueType.LONG).setParent(b).setLayer(2);
+        FileColumnMetaData z = new FileColumnMetaData("z", ValueType.STRING);
+        FileColumnMetaData w = new FileColumnMetaData("w", ValueType.INT);
+        FileColumnMetaData[] meta = { k, a, x, b, y, z, w };
+        ListArr[] insert = new ListArr[meta.length];
+        for (int c = 0; c < meta.length; c++)
+            insert[c] = new ListArr();
+        for (int i = 0; i < 100; i++) {
+            insert[0].add(i);
+            insert[1].add(2);
+            for (int j = 0; j < 2; j++) {
+                insert[2].add(j);
+                insert[3].add(1);
+                insert[4].add((long) i);
+            }
+            insert[5].add("z" + i);
+            insert[6].add(i);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(new FileMetaData(), meta);
+        writer.setInsert(insert);
+        File file = File.createTempFile("children", ".neci");
+        try {
+            writer.flushTo(file);
+            BatchColumnFileReader reader = new BatchColumnFileReader(file);
+            try {
+                FileColumnMetaData inner = reader.getFileColumnMetaData("b[]");
+                assertEquals(1, inner.getChildren().size());
+                assertEquals("y", inner.getChildren().get(0).getName());
+                assertNull(reader.columns[6]); // past the column ending the subtree
+
+                List<FileColumnMetaData> children = reader.getFileColumnMetaData("a[]").getChildren();
+                assertEquals(2, children.size());
+                assertEquals("x", children.get(0).getName());
+                assertEquals("b[]", children.get(1).getName());
+                assertNull(reader.columns[6]);
+
+                assertEquals(0, reader.getFileColumnMetaData("z").getChildren().size());
+                assertNotNull(reader.columns[6]);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+}
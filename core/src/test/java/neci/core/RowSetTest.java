@@ -0,0 +1,123 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RowSetTest {
+    private static final int ROWS = 4 << 16; // four chunks
+
+    @Test
+    public void testEmpty() {
+        RowSet rows = new RowSet();
+        assertEquals(true, rows.isEmpty());
+        assertEquals(0, rows.cardinality());
+        assertEquals(0, rows.length());
+        assertEquals(-1, rows.nextSetBit(0));
+        assertEquals(0, rows.nextClearBit(0));
+        rows.clear(5);
+        rows.clear(0, ROWS);
+        assertEquals(true, rows.isEmpty());
+    }
+
+    @Test
+    public void testArrayToBitmapAndBack() {
+        RowSet rows = new RowSet();
+        BitSet expected = new BitSet();
+        for (int i = 0; i <= RowSet.ARRAY_MAX; i++) {
+            rows.set(i * 7);
+            expected.set(i * 7);
+        }
+        check(expected, rows);
+        for (int i = 0; i < RowSet.ARRAY_MAX / 2; i++) {
+            rows.clear(i * 7);
+            expected.clear(i * 7);
+        }
+        check(expected, rows);
+    }
+
+    @Test
+    public void testRanges() {
+        RowSet rows = new RowSet();
+        BitSet expected = new BitSet();
+        rows.set(100, 3 << 16);
+        expected.set(100, 3 << 16);
+        check(expected, rows);
+        rows.clear(70000, 70010);
+        expected.clear(70000, 70010);
+        rows.flip(0, 200);
+        expected.flip(0, 200);
+        rows.flip((2 << 16) - 5, (3 << 16) + 5);
+        expected.flip((2 << 16) - 5, (3 << 16) + 5);
+        check(expected, rows);
+        assertEquals(70000, rows.nextClearBit(200));
+        assertEquals(expected.nextClearBit(3 << 16), rows.nextClearBit(3 << 16));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        Random random = new Random(3);
+        for (int round = 0; round < 20; round++) {
+            RowSet a = new RowSet();
+            RowSet b = new RowSet();
+            BitSet x = new BitSet();
+            BitSet y = new BitSet();
+            // sparse and dense chunks in both
+            fill(random, a, x, round % 2 == 0 ? 1000 : 50000);
+            fill(random, b, y, round % 3 == 0 ? 1000 : 50000);
+            check(x, a);
+            check(y, b);
+
+            RowSet and = a.clone();
+            and.and(b);
+            BitSet andExpected = (BitSet) x.clone();
+            andExpected.and(y);
+            check(andExpected, and);
+
+            RowSet or = a.clone();
+            or.or(b);
+            BitSet orExpected = (BitSet) x.clone();
+            orExpected.or(y);
+            check(orExpected, or);
+            check(x, a); // clones are independent
+        }
+    }
+
+    private static void fill(Random random, RowSet rows, BitSet expected, int count) {
+        for (int i = 0; i < count; i++) {
+            int row = random.nextInt(ROWS);
+            if (random.nextInt(5) == 0) {
+                int to = Math.min(ROWS, row + random.nextInt(300));
+                rows.set(row, to);
+                expected.set(row, to);
+            } else if (random.nextInt(4) == 0) {
+                rows.clear(row);
+                expected.clear(row);
+            } else {
+                rows.set(row);
+                expected.set(row);
+            }
+        }
+    }
+
+    private static void check(BitSet expected, RowSet rows) {
+        assertEquals(expected.cardinality(), rows.cardinality());
+        assertEquals(expected.length(), rows.length());
+        assertEquals(expected.isEmpty(), rows.isEmpty());
+        int got = rows.nextSetBit(0);
+        for (int row = expected.nextSetBit(0); row >= 0; row = expected.nextSetBit(row + 1)) {
+            assertEquals(row, got);
+            got = rows.nextSetBit(got + 1);
+        }
+        assertEquals(-1, got);
+        Random random = new Random(expected.cardinality());
+        for (int i = 0; i < 2000; i++) {
+            int row = random.nextInt(ROWS);
+            assertEquals("row " + row, expected.get(row), rows.get(row));
+            assertEquals("after " + row, expected.nextClearBit(row), rows.nextClearBit(row));
+        }
+    }
+}
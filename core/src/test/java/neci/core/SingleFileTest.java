@@ -0,0 +1,78 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import neci.core.InsertColumnFileWriter.ListArr;
+
+public class SingleFileTest {
+    private static final int ROWS = 30000;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = File.createTempFile("single", ".neci");
+        File head = InsertColumnFileWriter.headFile(file);
+        try {
+            write(file, new FileMetaData().setCodec("snappy"));
+            assertEquals(true, head.exists());
+            check(file);
+
+            // rewritten in place as one file, leaving no stale header behind
+            write(file, new FileMetaData().setCodec("snappy").setSingleFile(true));
+            assertEquals(false, head.exists());
+            check(file);
+        } finally {
+            file.delete();
+            head.delete();
+        }
+    }
+
+    private static void write(File file, FileMetaData fileMeta) throws IOException {
+        FileColumnMetaData[] meta = { new FileColumnMetaData("int", ValueType.INT),
+                new FileColumnMetaData("string", ValueType.STRING) };
+        ListArr[] insert = { new ListArr(), new ListArr() };
+        for (int i = 0; i < ROWS; i++) {
+            insert[0].add(i * 3);
+            insert[1].add("value" + i);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(fileMeta.setBlockSize(4096), meta);
+        writer.setInsert(insert);
+        writer.flushTo(file);
+    }
+
+    private static void check(File file) throws IOException {
+        for (boolean mapped : new boolean[] { false, true }) {
+            BatchColumnFileReader reader = new BatchColumnFileReader(file, mapped);
+            try {
+                assertEquals(ROWS, reader.getRowCount());
+                assertEquals(2, reader.getColumnCount());
+                assertEquals("snappy", reader.getMetaData().getCodec());
+                BlockColumnValues ints = reader.getValues("int");
+                BlockColumnValues strings = reader.getValues("string");
+                for (int i = 0; i < ROWS; i++) {
+                    assertEquals(i * 3, ints.next());
+                    assertEquals("value" + i, strings.next());
+                }
+                assertEquals(false, ints.hasNext());
+                ints.seek(ROWS - 1);
+                assertEquals((ROWS - 1) * 3, ints.next());
+            } finally {
+                reader.close();
+            }
+
+            InsertColumnFileReader insertReader = new InsertColumnFileReader(file, mapped);
+            try {
+                assertEquals(ROWS, insertReader.getRowCount());
+                BlockColumnValues strings = insertReader.getValues("string");
+                for (int i = 0; i < ROWS; i++)
+                    assertEquals("value" + i, strings.next());
+            } finally {
+                insertReader.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package neci.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class Utf8ViewTest {
+    private static final String[] CHARS = { "a", "z", "\u00e9", "\u4e2d", "\uffff", "\ue000", "\ud83d\ude00",
+            "\ud800\udc00" };
+
+    @Test
+    public void testCompareIsByteOrder() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10000; i++) {
+            String a = randomString(random);
+            String b = randomString(random);
+            assertEquals(a + " " + b, Integer.signum(new Utf8View(a).compareTo(new Utf8View(b))),
+                    Integer.signum(Utf8View.compare(a, b)));
+        }
+    }
+
+    @Test
+    public void testStatisticsUseCodePointOrder() {
+        BlockStatistics stats = new BlockStatistics(ValueType.STRING);
+        stats.update("\uffff");
+        stats.update("\ud83d\ude00");
+        stats.update("a");
+        assertEquals("a", stats.getMin());
+        assertEquals("\ud83d\ude00", stats.getMax());
+    }
+
+    private static String randomString(Random random) {
+        StringBuilder b = new StringBuilder();
+        int n = random.nextInt(4);
+        for (int i = 0; i < n; i++)
+            b.append(CHARS[random.nextInt(CHARS.length)]);
+        return b.toString();
+    }
+}
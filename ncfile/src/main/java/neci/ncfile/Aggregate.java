@@ -0,0 +1,486 @@
+package neci.ncfile;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.trevni.TrevniRuntimeException;
+
+import neci.core.ValueType;
+import neci.ncfile.vector.BooleanVector;
+import neci.ncfile.vector.BytesVector;
+import neci.ncfile.vector.ColumnVector;
+import neci.ncfile.vector.DoubleVector;
+import neci.ncfile.vector.IntVector;
+import neci.ncfile.vector.LongVector;
+import neci.ncfile.vector.ObjectVector;
+
+/**
+ * An aggregate function, which the reader computes over the values of the
+ * filtered rows with
+ * {@link FilterBatchColumnReader#aggregate(String[], Aggregate...)} instead of
+ * building their records.
+ *
+ * <pre>
+ * r.filter();
+ * List&lt;Object[]&gt; rows = r.aggregate(new String[] { "nation" }, count(), sum("price"), avg("price"));
+ * </pre>
+ *
+ * COUNT gives a Long, SUM a Long for int and long columns and a Double for
+ * float and double columns, and AVG a Double. MIN and MAX give a value of the
+ * column: Integer, Long, Double for floats, Boolean, String or ByteBuffer.
+ * Over no values, all but COUNT give null.
+ */
+public final class Aggregate implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Function {
+        COUNT, SUM, MIN, MAX, AVG
+    }
+
+    private final Function function;
+    private final String column;
+
+    private Aggregate(Function function, String column) {
+        if (column == null && function != Function.COUNT)
+            throw new IllegalArgumentException("No column for " + function);
+        this.function = function;
+        this.column = column;
+    }
+
+    /** Count the rows. */
+    public static Aggregate count() {
+        return new Aggregate(Function.COUNT, null);
+    }
+
+    /** Count the values of a column which are not null. */
+    public static Aggregate count(String column) {
+        return new Aggregate(Function.COUNT, column);
+    }
+
+    public static Aggregate sum(String column) {
+        return new Aggregate(Function.SUM, column);
+    }
+
+    public static Aggregate min(String column) {
+        return new Aggregate(Function.MIN, column);
+    }
+
+    public static Aggregate max(String column) {
+        return new Aggregate(Function.MAX, column);
+    }
+
+    public static Aggregate avg(String column) {
+        return new Aggregate(Function.AVG, column);
+    }
+
+    public Function getFunction() {
+        return function;
+    }
+
+    /** Return the column aggregated, or null for {@link #count()}. */
+    public String getColumn() {
+        return column;
+    }
+
+    @Override
+    public String toString() {
+        return function.name().toLowerCase() + "(" + (column == null ? "" : column) + ")";
+    }
+
+    /*
+     * return a new accumulator of this function over a column of a type.
+     */
+    Accumulator newAccumulator(ValueType type) {
+        switch (function) {
+            case COUNT:
+                return column == null ? new CountRows() : new CountValues();
+            case SUM:
+                return newSum(type);
+            case AVG:
+                return new Avg(newSum(type));
+            default:
+                return newExtreme(type, function == Function.MAX);
+        }
+    }
+
+    private Accumulator newSum(ValueType type) {
+        switch (type) {
+            case INT:
+            case FIXED32:
+            case LONG:
+            case FIXED64:
+                return new LongSum();
+            case FLOAT:
+            case DOUBLE:
+                return new DoubleSum();
+            default:
+                throw new TrevniRuntimeException("Not a numeric column: " + column);
+        }
+    }
+
+    private Accumulator newExtreme(ValueType type, boolean max) {
+        switch (type) {
+            case INT:
+            case FIXED32:
+                return new IntExtreme(max);
+            case LONG:
+            case FIXED64:
+                return new LongExtreme(max);
+            case FLOAT:
+            case DOUBLE:
+                return new DoubleExtreme(max);
+            case STRING:
+            case BYTES:
+                return new BytesExtreme(max, type == ValueType.STRING);
+            default:
+                return new ObjectExtreme(max, type);
+        }
+    }
+
+    /**
+     * Return value i of a vector of a column of a type, boxed.
+     */
+    static Object value(ColumnVector v, int i, ValueType type) {
+        if (v instanceof IntVector)
+            return ((IntVector) v).get(i);
+        if (v instanceof LongVector)
+            return ((LongVector) v).get(i);
+        if (v instanceof DoubleVector)
+            return ((DoubleVector) v).get(i);
+        if (v instanceof BooleanVector)
+            return ((BooleanVector) v).get(i);
+        if (v instanceof BytesVector) {
+            BytesVector b = (BytesVector) v;
+            return type == ValueType.STRING ? b.getString(i) : ByteBuffer.wrap(b.getBytes(i));
+        }
+        return ((ObjectVector) v).get(i);
+    }
+
+    /**
+     * The running state of an aggregate over the values of one vector.
+     */
+    abstract static class Accumulator {
+        abstract void add(ColumnVector v, int i);
+
+        /** Add the values [from, to) of a vector. */
+        void addAll(ColumnVector v, int from, int to) {
+            for (int i = from; i < to; i++)
+                add(v, i);
+        }
+
+        abstract Object getResult();
+    }
+
+    static class CountRows extends Accumulator {
+        private long count;
+
+        @Override
+        void add(ColumnVector v, int i) {
+            count++;
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            count += to - from;
+        }
+
+        @Override
+        Object getResult() {
+            return count;
+        }
+    }
+
+    static class CountValues extends Accumulator {
+        private long count;
+
+        @Override
+        void add(ColumnVector v, int i) {
+            if (!(v instanceof ObjectVector) || ((ObjectVector) v).get(i) != null)
+                count++;
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            if (v instanceof ObjectVector)
+                super.addAll(v, from, to);
+            else
+                count += to - from;
+        }
+
+        @Override
+        Object getResult() {
+            return count;
+        }
+    }
+
+    static class LongSum extends Accumulator {
+        long sum;
+        long count;
+
+        @Override
+        void add(ColumnVector v, int i) {
+            sum += v instanceof IntVector ? ((IntVector) v).get(i) : ((LongVector) v).get(i);
+            count++;
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            long s = 0;
+            if (v instanceof IntVector) {
+                int[] values = ((IntVector) v).getValues();
+                for (int i = from; i < to; i++)
+                    s += values[i];
+            } else {
+                long[] values = ((LongVector) v).getValues();
+                for (int i = from; i < to; i++)
+                    s += values[i];
+            }
+            sum += s;
+            count += to - from;
+        }
+
+        @Override
+        Object getResult() {
+            return count == 0 ? null : (Object) sum;
+        }
+    }
+
+    static class DoubleSum extends Accumulator {
+        double sum;
+        long count;
+
+        @Override
+        void add(ColumnVector v, int i) {
+            sum += ((DoubleVector) v).get(i);
+            count++;
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            double[] values = ((DoubleVector) v).getValues();
+            double s = 0;
+            for (int i = from; i < to; i++)
+                s += values[i];
+            sum += s;
+            count += to - from;
+        }
+
+        @Override
+        Object getResult() {
+            return count == 0 ? null : (Object) sum;
+        }
+    }
+
+    static class Avg extends Accumulator {
+        private final Accumulator sum;
+
+        Avg(Accumulator sum) {
+            this.sum = sum;
+        }
+
+        @Override
+        void add(ColumnVector v, int i) {
+            sum.add(v, i);
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            sum.addAll(v, from, to);
+        }
+
+        @Override
+        Object getResult() {
+            if (sum instanceof LongSum) {
+                LongSum s = (LongSum) sum;
+                return s.count == 0 ? null : (Object) ((double) s.sum / s.count);
+            }
+            DoubleSum s = (DoubleSum) sum;
+            return s.count == 0 ? null : (Object) (s.sum / s.count);
+        }
+    }
+
+    static class IntExtreme extends Accumulator {
+        private final boolean max;
+        private int best;
+        private boolean any;
+
+        IntExtreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void add(ColumnVector v, int i) {
+            addAll(v, i, i + 1);
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            if (from >= to)
+                return;
+            int[] values = ((IntVector) v).getValues();
+            int b = any ? best : values[from];
+            if (max) {
+                for (int i = from; i < to; i++)
+                    b = Math.max(b, values[i]);
+            } else {
+                for (int i = from; i < to; i++)
+                    b = Math.min(b, values[i]);
+            }
+            best = b;
+            any = true;
+        }
+
+        @Override
+        Object getResult() {
+            return any ? (Object) best : null;
+        }
+    }
+
+    static class LongExtreme extends Accumulator {
+        private final boolean max;
+        private long best;
+        private boolean any;
+
+        LongExtreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void add(ColumnVector v, int i) {
+            addAll(v, i, i + 1);
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            if (from >= to)
+                return;
+            long[] values = ((LongVector) v).getValues();
+            long b = any ? best : values[from];
+            if (max) {
+                for (int i = from; i < to; i++)
+                    b = Math.max(b, values[i]);
+            } else {
+                for (int i = from; i < to; i++)
+                    b = Math.min(b, values[i]);
+            }
+            best = b;
+            any = true;
+        }
+
+        @Override
+        Object getResult() {
+            return any ? (Object) best : null;
+        }
+    }
+
+    static class DoubleExtreme extends Accumulator {
+        private final boolean max;
+        private double best;
+        private boolean any;
+
+        DoubleExtreme(boolean max) {
+            this.max = max;
+        }
+
+        @Override
+        void add(ColumnVector v, int i) {
+            addAll(v, i, i + 1);
+        }
+
+        @Override
+        void addAll(ColumnVector v, int from, int to) {
+            if (from >= to)
+                return;
+            double[] values = ((DoubleVector) v).getValues();
+            double b = any ? best : values[from];
+            if (max) {
+                for (int i = from; i < to; i++)
+                    b = Math.max(b, values[i]);
+            } else {
+                for (int i = from; i < to; i++)
+                    b = Math.min(b, values[i]);
+            }
+            best = b;
+            any = true;
+        }
+
+        @Override
+        Object getResult() {
+            return any ? (Object) best : null;
+        }
+    }
+
+    /*
+     * compares strings by their UTF-8 bytes, which orders them by code point,
+     * copying only the values which become the best so far.
+     */
+    static class BytesExtreme extends Accumulator {
+        private final boolean max;
+        private final boolean string;
+        private byte[] best;
+
+        BytesExtreme(boolean max, boolean string) {
+            this.max = max;
+            this.string = string;
+        }
+
+        @Override
+        void add(ColumnVector v, int i) {
+            BytesVector b = (BytesVector) v;
+            if (best == null) {
+                best = b.getBytes(i);
+                return;
+            }
+            int c = compare(b.getData(), b.getOffset(i), b.getLength(i), best);
+            if (max ? c > 0 : c < 0)
+                best = b.getBytes(i);
+        }
+
+        private static int compare(byte[] data, int off, int len, byte[] other) {
+            int n = Math.min(len, other.length);
+            for (int i = 0; i < n; i++) {
+                int c = (data[off + i] & 0xff) - (other[i] & 0xff);
+                if (c != 0)
+                    return c;
+            }
+            return len - other.length;
+        }
+
+        @Override
+        Object getResult() {
+            if (best == null)
+                return null;
+            return string ? new String(best, StandardCharsets.UTF_8) : ByteBuffer.wrap(best);
+        }
+    }
+
+    static class ObjectExtreme extends Accumulator {
+        private final boolean max;
+        private final ValueType type;
+        private Comparable best;
+
+        ObjectExtreme(boolean max, ValueType type) {
+            this.max = max;
+            this.type = type;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        void add(ColumnVector v, int i) {
+            Object o = value(v, i, type);
+            if (o == null)
+                return;
+            if (!(o instanceof Comparable))
+                throw new TrevniRuntimeException("Cannot compare values of type: " + type);
+            int c = best == null ? 0 : ((Comparable) o).compareTo(best);
+            if (best == null || (max ? c > 0 : c < 0))
+                best = (Comparable) o;
+        }
+
+        @Override
+        Object getResult() {
+            return best;
+        }
+    }
+}
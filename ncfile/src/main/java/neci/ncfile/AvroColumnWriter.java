@@ -7,7 +7,9 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
+import neci.core.BlockCompressor;
 import neci.core.BlockDescriptor;
+import neci.core.BlockStatistics;
 import neci.core.FileColumnMetaData;
 import neci.core.FileMetaData;
 import neci.core.InsertColumnFileWriter;
@@ -23,6 +25,8 @@ public class AvroColumnWriter {
     protected int columncount;
     protected long[] columnStart;
     protected Blocks[] blocks;
+    protected BlockStatistics[] stats;
+    protected BlockCompressor[] compressors; // created as the columns' first blocks are written
     OutputBuffer buf;
     int index;
 
@@ -72,8 +76,12 @@ public class AvroColumnWriter {
         this.columncount = meta.length;
         this.columnStart = new long[columncount];
         this.blocks = new Blocks[columncount];
+        this.stats = new BlockStatistics[columncount];
+        this.compressors = new BlockCompressor[columncount];
         for (int i = 0; i < columncount; i++) {
             blocks[i] = new Blocks();
+            if (!meta[i].isArray() && BlockStatistics.isSupported(meta[i].getType()))
+                meta[i].hasStatistics(true);
         }
         data = new FileOutputStream(new File(path));
         head = new FileOutputStream(new File(path.substring(0, path.lastIndexOf(".")) + ".head"));
@@ -83,13 +91,9 @@ public class AvroColumnWriter {
     }
 
     public void writeColumn(int columnNo, Object value) throws IOException {
-        if (buf.isFull()) {
-            BlockDescriptor b = new BlockDescriptor(index, buf.size(), buf.size());
-            blocks[columnNo].add(b);
-            index = 0;
-            buf.writeTo(data);
-            buf.reset();
-        }
+        buf.setStatistics(statistics(columnNo));
+        if (buf.isFull())
+            writeBlock(columnNo);
         //        ValueType tp = meta[columnNo].getType();
         //        switch (tp) {
         //            case FIXED32:
@@ -117,25 +121,52 @@ public class AvroColumnWriter {
     }
 
     public void writeArrayColumn(int columnNo, int value) throws IOException {
-        if (buf.isFull()) {
-            BlockDescriptor b = new BlockDescriptor(index, buf.size(), buf.size());
-            blocks[columnNo].add(b);
-            index = 0;
-            buf.writeTo(data);
-            buf.reset();
-        }
+        buf.setStatistics(null);
+        if (buf.isFull())
+            writeBlock(columnNo);
         buf.writeLength(value);
         index++;
     }
 
     public void flush(int columnNo) throws IOException {
-        if (index > 0) {
-            BlockDescriptor b = new BlockDescriptor(index, buf.size(), buf.size());
-            blocks[columnNo].add(b);
-            index = 0;
-            buf.writeTo(data);
-            buf.reset();
-        }
+        if (index > 0)
+            writeBlock(columnNo);
+    }
+
+    protected void writeBlock(int columnNo) throws IOException {
+        BlockDescriptor b = compressor(columnNo).write(data, index, buf);
+        if (buf.getStatistics() != null)
+            b.setStatistics(buf.getStatistics());
+        blocks[columnNo].add(b);
+        index = 0;
+        buf.reset();
+    }
+
+    /**
+     * Return the compressor of a column, honoring the codec and checksum set
+     * on the column or on {@link #filemeta} before its first block.
+     */
+    protected BlockCompressor compressor(int columnNo) {
+        if (compressors[columnNo] == null)
+            compressors[columnNo] = new BlockCompressor(meta[columnNo], filemeta);
+        return compressors[columnNo];
+    }
+
+    /**
+     * Return the statistics of the current block of a column, with a bloom
+     * filter if one is set on the column before its first value.
+     */
+    protected BlockStatistics statistics(int columnNo) {
+        if (stats[columnNo] == null && meta[columnNo].hasStatistics())
+            stats[columnNo] = new BlockStatistics(meta[columnNo].getType(), meta[columnNo].hasBloomFilter());
+        return stats[columnNo];
+    }
+
+    /*
+     * return the bytes following each block of a column.
+     */
+    protected int checksumSize(int columnNo) {
+        return compressors[columnNo] == null ? 0 : compressors[columnNo].getChecksumSize();
     }
 
     public void close() throws IOException {
@@ -143,6 +174,7 @@ public class AvroColumnWriter {
     }
 
     public void writeHeader() throws IOException {
+        buf.setStatistics(null);
         buf.write(InsertColumnFileWriter.MAGIC);
         buf.writeFixed32(rowcount);
         buf.writeFixed32(columncount);
@@ -155,8 +187,8 @@ public class AvroColumnWriter {
             int size = blocks[i].blocks.size();
             buf.writeFixed32(size);
             for (int k = 0; k < size; k++) {
-                blocks[i].get(k).writeTo(buf);
-                delay += blocks[i].get(k).getSize();
+                blocks[i].get(k).writeTo(buf, c);
+                delay += blocks[i].get(k).getSize() + checksumSize(i);
             }
             blocks[i].clear();
             i++;
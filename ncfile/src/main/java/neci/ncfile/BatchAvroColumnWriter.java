@@ -67,6 +67,18 @@ public class BatchAvroColumnWriter<T> {
         start = System.currentTimeMillis();
     }
 
+    /**
+     * Return the file metadata, e.g. to choose the codec or the value encoding
+     * before any value is written.
+     */
+    public FileMetaData getMetaData() {
+        return filemeta;
+    }
+
+    public FileColumnMetaData[] getFileColumnMetaData() {
+        return meta;
+    }
+
     public void fileDelete(String path) {
         File file = new File(path);
         if (file.exists() & file.isDirectory()) {
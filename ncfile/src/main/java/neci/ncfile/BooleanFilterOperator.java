@@ -0,0 +1,9 @@
+package neci.ncfile;
+
+/**
+ * A filter on a boolean column which can test unboxed values, so that
+ * FilterBatchColumnReader need not box the values it only compares.
+ */
+public interface BooleanFilterOperator extends FilterOperator<Boolean> {
+    public boolean isMatch(boolean v);
+}
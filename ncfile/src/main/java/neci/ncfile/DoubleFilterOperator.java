@@ -0,0 +1,9 @@
+package neci.ncfile;
+
+/**
+ * A filter on a double or float column which can test unboxed values, so that
+ * FilterBatchColumnReader need not box the values it only compares.
+ */
+public interface DoubleFilterOperator extends FilterOperator<Double> {
+    public boolean isMatch(double v);
+}
@@ -0,0 +1,15 @@
+package neci.ncfile;
+
+import java.util.Collection;
+
+/**
+ * A filter matching the values equal to one of a set of values, so that the
+ * blocks whose bloom filters hold none of them need not be read.
+ */
+public interface EqualityFilterOperator<T> extends FilterOperator<T> {
+    /**
+     * Return the values a matching value equals one of, or null if a matching
+     * value need not equal any listed value.
+     */
+    public Collection<T> getValues();
+}
@@ -1,5 +1,772 @@
 package neci.ncfile;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.trevni.TrevniRuntimeException;
+
+import neci.core.BatchColumnFileReader;
+import neci.core.FileColumnMetaData;
+import neci.core.Utf8View;
+import neci.core.ValueType;
+
+/**
+ * Typed predicates over the columns of a file, combined with and, or and not.
+ * Unlike hand-written {@link FilterOperator}s, predicates can be inspected, so
+ * that the reader can skip blocks by their statistics and bloom filters and
+ * test the values of int, long, double and string columns without boxing or
+ * decoding them. Predicates are immutable and {@link Serializable}, and print
+ * as the calls which build them.
+ *
+ * <pre>
+ * Predicate p = and(eq("name", "alice"), or(lt("age", 18), isNull("email")));
+ * FilterBatchColumnReader r = new FilterBatchColumnReader(file, p);
+ * </pre>
+ */
 public class FilterApi {
+    private FilterApi() {
+    }
+
+    public enum Op {
+        EQ, NE, LT, LE, GT, GE, BETWEEN, IN, IS_NULL, STARTS_WITH, AND, OR, NOT
+    }
+
+    public static ColumnPredicate eq(String column, Comparable value) {
+        return new ColumnPredicate(column, Op.EQ, value);
+    }
+
+    public static ColumnPredicate ne(String column, Comparable value) {
+        return new ColumnPredicate(column, Op.NE, value);
+    }
+
+    public static ColumnPredicate lt(String column, Comparable value) {
+        return new ColumnPredicate(column, Op.LT, value);
+    }
+
+    public static ColumnPredicate le(String column, Comparable value) {
+        return new ColumnPredicate(column, Op.LE, value);
+    }
+
+    public static ColumnPredicate gt(String column, Comparable value) {
+        return new ColumnPredicate(column, Op.GT, value);
+    }
+
+    public static ColumnPredicate ge(String column, Comparable value) {
+        return new ColumnPredicate(column, Op.GE, value);
+    }
+
+    /**
+     * Match the values from low to high, both inclusive.
+     */
+    public static ColumnPredicate between(String column, Comparable low, Comparable high) {
+        return new ColumnPredicate(column, Op.BETWEEN, low, high);
+    }
+
+    public static ColumnPredicate in(String column, Comparable... values) {
+        return new ColumnPredicate(column, Op.IN, values);
+    }
+
+    public static ColumnPredicate isNull(String column) {
+        return new ColumnPredicate(column, Op.IS_NULL);
+    }
+
+    public static ColumnPredicate startsWith(String column, String prefix) {
+        return new ColumnPredicate(column, Op.STARTS_WITH, prefix);
+    }
+
+    public static Predicate and(Predicate... children) {
+        return new Logical(Op.AND, children);
+    }
+
+    public static Predicate or(Predicate... children) {
+        return new Logical(Op.OR, children);
+    }
+
+    public static Predicate not(Predicate child) {
+        return new Logical(Op.NOT, child);
+    }
+
+    /**
+     * A node of a predicate tree.
+     */
+    public abstract static class Predicate implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Op op;
+
+        Predicate(Op op) {
+            this.op = op;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        /**
+         * Return the columns this predicate tests, in the order they appear.
+         */
+        public Set<String> getColumns() {
+            Set<String> result = new LinkedHashSet<String>();
+            addColumns(result);
+            return result;
+        }
+
+        abstract void addColumns(Set<String> columns);
+
+        /**
+         * Test a value of the only column of this predicate.
+         */
+        public abstract boolean isMatch(Object value);
+
+        /**
+         * Return false only if no value of the only column of this predicate
+         * between min and max (inclusive) matches.
+         */
+        public abstract boolean mayMatch(Comparable min, Comparable max);
+
+        /*
+         * return a copy whose values have the types of the columns of reader.
+         */
+        abstract Predicate coerce(BatchColumnFileReader reader);
+    }
+
+    /**
+     * A test of the values of one column.
+     */
+    public static final class ColumnPredicate extends Predicate {
+        private static final long serialVersionUID = 1L;
+
+        private final String column;
+        private final Comparable[] values;
+
+        ColumnPredicate(String column, Op op, Comparable... values) {
+            super(op);
+            if (column == null)
+                throw new IllegalArgumentException("No column for " + op);
+            for (Comparable v : values)
+                if (v == null)
+                    throw new IllegalArgumentException("Null value for " + op + " on " + column);
+            this.column = column;
+            this.values = values.clone();
+            for (int i = 0; i < values.length; i++)
+                if (values[i] instanceof Double || values[i] instanceof Float)
+                    this.values[i] = positiveZero((Number) values[i]);
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        /**
+         * Return the values this predicate compares with: one for the
+         * comparisons and starts with, low and high for between, and none for
+         * is null.
+         */
+        public List<Comparable> getValues() {
+            return Collections.unmodifiableList(Arrays.asList(values));
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            columns.add(column);
+        }
+
+        @Override
+        public boolean isMatch(Object value) {
+            if (value == null || op == Op.IS_NULL)
+                return value == null && op == Op.IS_NULL;
+            Comparable v = (Comparable) value;
+            switch (op) {
+                case EQ:
+                    return compare(v, values[0]) == 0;
+                case NE:
+                    return compare(v, values[0]) != 0;
+                case LT:
+                    return compare(v, values[0]) < 0;
+                case LE:
+                    return compare(v, values[0]) <= 0;
+                case GT:
+                    return compare(v, values[0]) > 0;
+                case GE:
+                    return compare(v, values[0]) >= 0;
+                case BETWEEN:
+                    return compare(v, values[0]) >= 0 && compare(v, values[1]) <= 0;
+                case IN:
+                    for (Comparable x : values)
+                        if (compare(v, x) == 0)
+                            return true;
+                    return false;
+                case STARTS_WITH:
+                    return value.toString().startsWith(values[0].toString());
+                default:
+                    throw new TrevniRuntimeException("Not a column predicate: " + op);
+            }
+        }
+
+        @Override
+        public boolean mayMatch(Comparable min, Comparable max) {
+            switch (op) {
+                case EQ:
+                    return compare(min, values[0]) <= 0 && compare(max, values[0]) >= 0;
+                case NE:
+                    return compare(min, values[0]) != 0 || compare(max, values[0]) != 0;
+                case LT:
+                    return compare(min, values[0]) < 0;
+                case LE:
+                    return compare(min, values[0]) <= 0;
+                case GT:
+                    return compare(max, values[0]) > 0;
+                case GE:
+                    return compare(max, values[0]) >= 0;
+                case BETWEEN:
+                    return compare(max, values[0]) >= 0 && compare(min, values[1]) <= 0;
+                case IN:
+                    for (Comparable x : values)
+                        if (compare(min, x) <= 0 && compare(max, x) >= 0)
+                            return true;
+                    return false;
+                case STARTS_WITH:
+                    String prefix = values[0].toString();
+                    String lo = min.toString();
+                    String hi = max.toString();
+                    return lo.startsWith(prefix) || hi.startsWith(prefix)
+                            || (compare(lo, prefix) < 0 && compare(hi, prefix) > 0);
+                default: // the range of the values says nothing of the nulls
+                    return true;
+            }
+        }
+
+        @Override
+        ColumnPredicate coerce(BatchColumnFileReader reader) {
+            ValueType type = typeOf(reader, column);
+            if (op == Op.STARTS_WITH && type != ValueType.STRING)
+                throw new TrevniRuntimeException("Not a string column: " + column);
+            Comparable[] result = new Comparable[values.length];
+            for (int i = 0; i < values.length; i++)
+                result[i] = coerceValue(values[i], type);
+            return new ColumnPredicate(column, op, result);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder();
+            b.append(op == Op.IS_NULL ? "isNull" : op == Op.STARTS_WITH ? "startsWith" : op.name().toLowerCase());
+            b.append('(').append(column);
+            for (Comparable v : values) {
+                b.append(", ");
+                if (v instanceof String)
+                    b.append('"').append(v).append('"');
+                else
+                    b.append(v);
+            }
+            return b.append(')').toString();
+        }
+    }
+
+    /**
+     * The and, or or not of other predicates.
+     */
+    public static final class Logical extends Predicate {
+        private static final long serialVersionUID = 1L;
+
+        private final Predicate[] children;
+
+        Logical(Op op, Predicate... children) {
+            super(op);
+            if (children.length == 0 || (op == Op.NOT && children.length != 1))
+                throw new IllegalArgumentException("Wrong number of operands for " + op);
+            this.children = children;
+        }
+
+        public List<Predicate> getChildren() {
+            return Collections.unmodifiableList(Arrays.asList(children));
+        }
+
+        @Override
+        void addColumns(Set<String> columns) {
+            for (Predicate p : children)
+                p.addColumns(columns);
+        }
+
+        @Override
+        public boolean isMatch(Object value) {
+            switch (op) {
+                case AND:
+                    for (Predicate p : children)
+                        if (!p.isMatch(value))
+                            return false;
+                    return true;
+                case OR:
+                    for (Predicate p : children)
+                        if (p.isMatch(value))
+                            return true;
+                    return false;
+                default:
+                    return !children[0].isMatch(value);
+            }
+        }
+
+        @Override
+        public boolean mayMatch(Comparable min, Comparable max) {
+            switch (op) {
+                case AND:
+                    for (Predicate p : children)
+                        if (!p.mayMatch(min, max))
+                            return false;
+                    return true;
+                case OR:
+                    for (Predicate p : children)
+                        if (p.mayMatch(min, max))
+                            return true;
+                    return false;
+                default:
+                    return true;
+            }
+        }
+
+        @Override
+        Logical coerce(BatchColumnFileReader reader) {
+            Predicate[] result = new Predicate[children.length];
+            for (int i = 0; i < children.length; i++)
+                result[i] = children[i].coerce(reader);
+            return new Logical(op, result);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder b = new StringBuilder(op.name().toLowerCase()).append('(');
+            for (int i = 0; i < children.length; i++)
+                b.append(i == 0 ? "" : ", ").append(children[i]);
+            return b.append(')').toString();
+        }
+    }
+
+    /**
+     * A filter built from a predicate, which the reader can inspect.
+     */
+    public interface Bound {
+        public Predicate getPredicate();
+    }
+
+    /**
+     * Return the filters testing the conjuncts of a predicate on the columns of
+     * reader, ordered by layer as the reader expects.
+     */
+    public static FilterOperator[] bind(Predicate predicate, BatchColumnFileReader reader) {
+        List<Predicate> conjuncts = new ArrayList<Predicate>();
+        addConjuncts(predicate.coerce(reader), conjuncts);
+        List<FilterOperator> result = new ArrayList<FilterOperator>();
+        for (Predicate p : conjuncts)
+            result.add(bind(p, p.getColumns().size() == 1 ? typeOf(reader, p.getColumns().iterator().next()) : null));
+        final BatchColumnFileReader r = reader;
+        Collections.sort(result, new Comparator<FilterOperator>() {
+            @Override
+            public int compare(FilterOperator a, FilterOperator b) {
+                return r.getFileColumnMetaData(a.getName()).getLayer()
+                        - r.getFileColumnMetaData(b.getName()).getLayer();
+            }
+        });
+        return result.toArray(new FilterOperator[result.size()]);
+    }
+
+    /*
+     * return a filter for a predicate already coerced to the type of its
+     * column, or of several columns if type is null.
+     */
+    static FilterOperator bind(Predicate p, ValueType type) {
+        if (!(p instanceof ColumnPredicate) || type == null)
+            return new Tree(p);
+        ColumnPredicate c = (ColumnPredicate) p;
+        if (c.op == Op.IS_NULL)
+            return new Tree(p);
+        switch (type) {
+            case INT:
+            case FIXED32:
+                return new IntLeaf(c);
+            case LONG:
+            case FIXED64:
+                return new LongLeaf(c);
+            case DOUBLE:
+                return new DoubleLeaf(c);
+            case STRING:
+                return new Utf8Leaf(c);
+            default:
+                return new Tree(p);
+        }
+    }
+
+    private static void addConjuncts(Predicate p, List<Predicate> conjuncts) {
+        if (p.op == Op.AND) {
+            for (Predicate child : ((Logical) p).children)
+                addConjuncts(child, conjuncts);
+        } else {
+            conjuncts.add(p);
+        }
+    }
+
+    static ValueType typeOf(BatchColumnFileReader reader, String column) {
+        if (!reader.getColumnsByName().containsKey(column))
+            throw new TrevniRuntimeException("No filter column named: " + column);
+        FileColumnMetaData meta = reader.getFileColumnMetaData(column);
+        return meta.getType();
+    }
+
+    private static Comparable coerceValue(Comparable v, ValueType type) {
+        if (v instanceof Number) {
+            Number n = (Number) v;
+            switch (type) {
+                case INT:
+                case FIXED32:
+                    if (n.doubleValue() != n.intValue())
+                        throw new TrevniRuntimeException("Not an int: " + v);
+                    return n.intValue();
+                case LONG:
+                case FIXED64:
+                    if (!(n instanceof Long) && n.doubleValue() != n.longValue())
+                        throw new TrevniRuntimeException("Not a long: " + v);
+                    return n.longValue();
+                case FLOAT:
+                    return n.floatValue();
+                case DOUBLE:
+                    return n.doubleValue();
+                default:
+                    return v;
+            }
+        }
+        if (v instanceof CharSequence && type == ValueType.STRING)
+            return v.toString();
+        return v;
+    }
+
+    /**
+     * Tests a predicate on any column, or combines several columns of the
+     * same parent: the reader evaluates a predicate on several columns by
+     * combining the rows each of its single-column parts matches.
+     */
+    static final class Tree implements RangeFilterOperator<Comparable>, Bound {
+        private final Predicate predicate;
+        private final String name;
+
+        Tree(Predicate predicate) {
+            this.predicate = predicate;
+            this.name = predicate.getColumns().iterator().next();
+        }
+
+        @Override
+        public Predicate getPredicate() {
+            return predicate;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        boolean isMultiColumn() {
+            return predicate.getColumns().size() > 1;
+        }
+
+        @Override
+        public boolean isMatch(Comparable t) {
+            return predicate.isMatch(t);
+        }
+
+        @Override
+        public boolean mayMatch(Comparable min, Comparable max) {
+            return isMultiColumn() || predicate.mayMatch(min, max);
+        }
+
+        @Override
+        public String toString() {
+            return predicate.toString();
+        }
+    }
+
+    /*
+     * the part of a typed filter common to every type.
+     */
+    abstract static class Leaf implements Bound {
+        final ColumnPredicate predicate;
+
+        Leaf(ColumnPredicate predicate) {
+            this.predicate = predicate;
+        }
+
+        @Override
+        public Predicate getPredicate() {
+            return predicate;
+        }
+
+        public String getName() {
+            return predicate.column;
+        }
+
+        /*
+         * return the values for bloom filter lookups, or null if a matching
+         * value need not equal any of the values of the predicate.
+         */
+        <T> Collection<T> equalValues() {
+            if (predicate.op != Op.EQ && predicate.op != Op.IN)
+                return null;
+            return (Collection<T>) predicate.getValues();
+        }
+
+        @Override
+        public String toString() {
+            return predicate.toString();
+        }
+    }
+
+    static final class IntLeaf extends Leaf
+            implements IntFilterOperator, RangeFilterOperator<Integer>, EqualityFilterOperator<Integer> {
+        private final long[] values;
+
+        IntLeaf(ColumnPredicate predicate) {
+            super(predicate);
+            this.values = longs(predicate);
+        }
+
+        @Override
+        public boolean isMatch(int v) {
+            return test(predicate.op, values, v);
+        }
+
+        @Override
+        public boolean isMatch(Integer t) {
+            return t != null && test(predicate.op, values, t);
+        }
+
+        @Override
+        public boolean mayMatch(Integer min, Integer max) {
+            return mayMatchLong(predicate.op, values, min, max);
+        }
+
+        @Override
+        public Collection<Integer> getValues() {
+            return equalValues();
+        }
+    }
+
+    static final class LongLeaf extends Leaf
+            implements LongFilterOperator, RangeFilterOperator<Long>, EqualityFilterOperator<Long> {
+        private final long[] values;
+
+        LongLeaf(ColumnPredicate predicate) {
+            super(predicate);
+            this.values = longs(predicate);
+        }
+
+        @Override
+        public boolean isMatch(long v) {
+            return test(predicate.op, values, v);
+        }
+
+        @Override
+        public boolean isMatch(Long t) {
+            return t != null && test(predicate.op, values, t);
+        }
+
+        @Override
+        public boolean mayMatch(Long min, Long max) {
+            return mayMatchLong(predicate.op, values, min, max);
+        }
+
+        @Override
+        public Collection<Long> getValues() {
+            return equalValues();
+        }
+    }
+
+    static final class DoubleLeaf extends Leaf
+            implements DoubleFilterOperator, RangeFilterOperator<Double>, EqualityFilterOperator<Double> {
+        private final double[] values;
+
+        DoubleLeaf(ColumnPredicate predicate) {
+            super(predicate);
+            this.values = new double[predicate.values.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = ((Number) predicate.values[i]).doubleValue();
+        }
+
+        @Override
+        public boolean isMatch(double v) {
+            switch (predicate.op) {
+                case EQ:
+                    return v == values[0];
+                case NE:
+                    return v != values[0];
+                case LT:
+                    return v < values[0];
+                case LE:
+                    return v <= values[0];
+                case GT:
+                    return v > values[0];
+                case GE:
+                    return v >= values[0];
+                case BETWEEN:
+                    return v >= values[0] && v <= values[1];
+                default:
+                    for (double x : values)
+                        if (v == x)
+                            return true;
+                    return false;
+            }
+        }
+
+        @Override
+        public boolean isMatch(Double t) {
+            return t != null && isMatch(t.doubleValue());
+        }
+
+        @Override
+        public boolean mayMatch(Double min, Double max) {
+            return predicate.mayMatch(min, max);
+        }
+
+        @Override
+        public Collection<Double> getValues() {
+            return equalValues();
+        }
+    }
+
+    static final class Utf8Leaf extends Leaf
+            implements Utf8FilterOperator, RangeFilterOperator<String>, EqualityFilterOperator<String> {
+        private final Utf8View[] values;
+
+        Utf8Leaf(ColumnPredicate predicate) {
+            super(predicate);
+            this.values = new Utf8View[predicate.values.length];
+            for (int i = 0; i < values.length; i++)
+                values[i] = new Utf8View(predicate.values[i].toString());
+        }
+
+        @Override
+        public boolean isMatch(Utf8View v) {
+            switch (predicate.op) {
+                case EQ:
+                    return v.equals(values[0]);
+                case NE:
+                    return !v.equals(values[0]);
+                case LT:
+                    return v.compareTo(values[0]) < 0;
+                case LE:
+                    return v.compareTo(values[0]) <= 0;
+                case GT:
+                    return v.compareTo(values[0]) > 0;
+                case GE:
+                    return v.compareTo(values[0]) >= 0;
+                case BETWEEN:
+                    return v.compareTo(values[0]) >= 0 && v.compareTo(values[1]) <= 0;
+                case STARTS_WITH:
+                    return v.startsWith(values[0]);
+                default:
+                    for (Utf8View x : values)
+                        if (v.equals(x))
+                            return true;
+                    return false;
+            }
+        }
+
+        @Override
+        public boolean isMatch(String t) {
+            return t != null && isMatch(new Utf8View(t));
+        }
+
+        @Override
+        public boolean mayMatch(String min, String max) {
+            return predicate.mayMatch(min, max);
+        }
+
+        @Override
+        public Collection<String> getValues() {
+            return equalValues();
+        }
+    }
+
+    private static long[] longs(ColumnPredicate predicate) {
+        long[] result = new long[predicate.values.length];
+        for (int i = 0; i < result.length; i++)
+            result[i] = ((Number) predicate.values[i]).longValue();
+        return result;
+    }
+
+    private static boolean test(Op op, long[] values, long v) {
+        switch (op) {
+            case EQ:
+                return v == values[0];
+            case NE:
+                return v != values[0];
+            case LT:
+                return v < values[0];
+            case LE:
+                return v <= values[0];
+            case GT:
+                return v > values[0];
+            case GE:
+                return v >= values[0];
+            case BETWEEN:
+                return v >= values[0] && v <= values[1];
+            default:
+                for (long x : values)
+                    if (v == x)
+                        return true;
+                return false;
+        }
+    }
+
+    private static boolean mayMatchLong(Op op, long[] values, long min, long max) {
+        switch (op) {
+            case EQ:
+                return min <= values[0] && max >= values[0];
+            case NE:
+                return min != values[0] || max != values[0];
+            case LT:
+                return min < values[0];
+            case LE:
+                return min <= values[0];
+            case GT:
+                return max > values[0];
+            case GE:
+                return max >= values[0];
+            case BETWEEN:
+                return max >= values[0] && min <= values[1];
+            default:
+                for (long x : values)
+                    if (min <= x && max >= x)
+                        return true;
+                return false;
+        }
+    }
+
+    /*
+     * compare strings by code point, as the UTF-8 filters and the block
+     * statistics order them, and floating point values with -0.0 equal to
+     * 0.0, as the unboxed filters compare them.
+     */
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable a, Comparable b) {
+        if (a instanceof CharSequence && b instanceof CharSequence)
+            return Utf8View.compare((CharSequence) a, (CharSequence) b);
+        if (a instanceof Double && b instanceof Double)
+            return Double.compare((Double) a + 0.0, (Double) b + 0.0);
+        if (a instanceof Float && b instanceof Float)
+            return Float.compare((Float) a + 0.0f, (Float) b + 0.0f);
+        return a.compareTo(b);
+    }
 
+    /*
+     * return a float or double with -0.0 replaced by 0.0.
+     */
+    private static Comparable positiveZero(Number n) {
+        if (n instanceof Double)
+            return (Double) n + 0.0;
+        return (Float) n + 0.0f;
+    }
 }
@@ -7,22 +7,51 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.apache.trevni.Input;
 import org.apache.trevni.TrevniRuntimeException;
 
 import neci.core.BatchColumnFileReader;
 import neci.core.BlockColumnValues;
+import neci.core.BlockDescriptor;
+import neci.core.BlockPrefetcher;
+import neci.core.BooleanColumnValues;
+import neci.core.ChecksumPolicy;
+import neci.core.DoubleColumnValues;
 import neci.core.FileColumnMetaData;
 import neci.core.GroupCore;
+import neci.core.IntColumnValues;
+import neci.core.LongColumnValues;
+import neci.core.RowSet;
+import neci.core.Utf8View;
 import neci.core.ValueType;
 import neci.ncfile.base.Schema;
 import neci.ncfile.base.Schema.Field;
 import neci.ncfile.generic.GenericData;
 import neci.ncfile.generic.GenericGroupReader;
+import neci.ncfile.vector.ArrayVector;
+import neci.ncfile.vector.BooleanVector;
+import neci.ncfile.vector.BytesVector;
+import neci.ncfile.vector.ColumnVector;
+import neci.ncfile.vector.DoubleVector;
+import neci.ncfile.vector.IntVector;
+import neci.ncfile.vector.LongVector;
+import neci.ncfile.vector.ObjectVector;
+import neci.ncfile.vector.VectorBatch;
 
 public class FilterBatchColumnReader<D> implements Closeable {
     BatchColumnFileReader reader;
@@ -41,10 +70,10 @@ public class FilterBatchColumnReader<D> implements Closeable {
     protected Object[][] readValue;
     protected String currentParent;
     protected int currentLayer;
-    protected BitSet filterSet;
-    protected ArrayList<BitSet> chooseSet;
+    protected RowSet filterSet;
+    protected ArrayList<RowSet> chooseSet;
     protected HashMap<String, Integer> bitSetMap;
-    protected HashMap<String, BitSet> filterSetMap;
+    protected HashMap<String, RowSet> filterSetMap;
     protected int[] readIndex; //the index of the next Record in every column;
     protected int all; //the number of the remain values in the disk;
     protected int[] setStart; //the start of the bitset of every layer
@@ -52,6 +81,13 @@ public class FilterBatchColumnReader<D> implements Closeable {
 
     protected boolean noFilters;
     protected int currentMax;
+    protected BlockPrefetcher prefetcher;
+    protected ExecutorService executor; // reads columns in parallel, if set
+    protected boolean parallelFilter; // splits filter scans into block ranges on executor
+    protected boolean orderFilters; // plans the order of the filters before filtering
+
+    static final int SAMPLE_BLOCKS = 4;
+    static final int SAMPLE_ROWS = 256;
 
     //    protected long timeIO;
     //    protected int readBlockSize;
@@ -90,14 +126,6 @@ public class FilterBatchColumnReader<D> implements Closeable {
         columnsByName = reader.getColumnsByName();
         this.model = model;
         this.values = new BlockColumnValues[reader.getColumnCount()];
-        int le = 0;
-        for (int i = 0; i < values.length; i++) {
-            values[i] = reader.getValues(i);
-            //            if (values[i].isArray()) {
-            //                                arrayValues.put(values[i].getName(), i);
-            //                le++;
-            //            }
-        }
         noFilters = (filters == null);
     }
 
@@ -108,13 +136,121 @@ public class FilterBatchColumnReader<D> implements Closeable {
         columnsByName = reader.getColumnsByName();
         this.model = model;
         this.values = new BlockColumnValues[reader.getColumnCount()];
-        int le = 0;
-        for (int i = 0; i < values.length; i++) {
-            values[i] = reader.getValues(i);
-        }
         noFilters = (filters == null);
     }
 
+    /**
+     * Read the rows matching a predicate, built with {@link FilterApi}.
+     */
+    public FilterBatchColumnReader(File file, FilterApi.Predicate predicate) throws IOException {
+        this(file, (FilterOperator[]) null);
+        setFilter(predicate);
+    }
+
+    public FilterBatchColumnReader(Input data, Input head, FilterApi.Predicate predicate) throws IOException {
+        this(data, head, (FilterOperator[]) null);
+        setFilter(predicate);
+    }
+
+    private void setFilter(FilterApi.Predicate predicate) {
+        this.filters = FilterApi.bind(predicate, reader);
+        noFilters = false;
+        orderFilters = true;
+    }
+
+    /**
+     * Order the filters before filtering instead of taking them in the given
+     * order: the filters are grouped by layer and parent, and each group runs
+     * its most selective and cheapest filters first. On by default for
+     * predicates built with {@link FilterApi}.
+     */
+    public void setOrderFilters(boolean orderFilters) {
+        this.orderFilters = orderFilters;
+    }
+
+    /*
+     * sort the filters by layer and parent, keeping the layers in increasing
+     * order as filterSetTran expects, then by cost / (1 - selectivity) within
+     * each parent, which minimizes the expected cost of a chain in which each
+     * filter only tests the rows the filters before it kept.
+     */
+    private void orderFilters() throws IOException {
+        final int[] layer = new int[filters.length];
+        final String[] parent = new String[filters.length];
+        final double[] rank = new double[filters.length];
+        Integer[] order = new Integer[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            Integer tm = columnsByName.get(filters[i].getName());
+            if (tm == null)
+                throw new TrevniRuntimeException("No filter column named: " + filters[i].getName());
+            BlockColumnValues v = getValues(tm);
+            layer[i] = v.getLayer();
+            parent[i] = v.getParentName() == null ? "" : v.getParentName();
+            double selectivity = selectivity(filters[i], tm);
+            rank[i] = selectivity >= 1 ? Double.MAX_VALUE : cost(v) / (1 - selectivity);
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (layer[a] != layer[b])
+                    return layer[a] - layer[b];
+                if (!parent[a].equals(parent[b]))
+                    return parent[a].compareTo(parent[b]);
+                return Double.compare(rank[a], rank[b]);
+            }
+        });
+        FilterOperator[] result = new FilterOperator[filters.length];
+        for (int i = 0; i < order.length; i++)
+            result[i] = filters[order[i]];
+        filters = result;
+    }
+
+    /*
+     * estimate the fraction of the rows of a column a filter keeps: the rows of
+     * the blocks its statistics cannot skip, times the fraction matching in a
+     * sample of those blocks.
+     */
+    private double selectivity(FilterOperator filter, int tm) throws IOException {
+        BlockColumnValues v = getValues(tm);
+        if (isMultiColumn(filter) || v.getLastRow() == 0)
+            return 0.5;
+        List<Integer> kept = new ArrayList<Integer>();
+        for (int block = 0; block < v.getBlockCount(); block++)
+            if (!canSkipBlock(filter, v, block))
+                kept.add(block);
+        if (kept.isEmpty())
+            return 0;
+        int keptRows = 0;
+        for (int block : kept)
+            keptRows += v.getLastRow(block) - v.getFirstRow(block);
+        BlockColumnValues sample = reader.getValues(tm);
+        Utf8View view = utf8View(filter, sample);
+        int tested = 0;
+        int matched = 0;
+        int step = Math.max(1, kept.size() / SAMPLE_BLOCKS);
+        for (int i = 0; i < kept.size() && tested < SAMPLE_BLOCKS * SAMPLE_ROWS; i += step) {
+            int block = kept.get(i);
+            int row = sample.getFirstRow(block);
+            int end = Math.min(sample.getLastRow(block), row + SAMPLE_ROWS);
+            sample.seek(row);
+            for (; row < end; row++, tested++)
+                if (isMatch(filter, sample, view))
+                    matched++;
+        }
+        return (double) keptRows / v.getLastRow() * matched / Math.max(1, tested);
+    }
+
+    /*
+     * return the stored bytes per row of a column, the cost of testing a row.
+     */
+    private static double cost(BlockColumnValues v) {
+        long bytes = 0;
+        for (int block = 0; block < v.getBlockCount(); block++)
+            bytes += v.getBlockDescriptor(block).getSize();
+        return 1 + (double) bytes / Math.max(1, v.getLastRow());
+    }
+
     //    public long getTimeIO() {
     //        for (int i = 0; i < readNO.length; i++) {
     //            timeIO += values[readNO[i]].getTime();
@@ -165,6 +301,8 @@ public class FilterBatchColumnReader<D> implements Closeable {
 
     public void filter() throws IOException {
         assert (filters != null);
+        if (orderFilters)
+            orderFilters();
         //        timeIO = 0;
         //        blockTime = new ArrayList<Long>();
         //        blockStart = new ArrayList<Long>();
@@ -177,19 +315,12 @@ public class FilterBatchColumnReader<D> implements Closeable {
         Integer tm = columnsByName.get(column);
         if (tm == null)
             throw new TrevniRuntimeException("No filter column named: " + column);
-        filterSet = new BitSet(values[tm].getLastRow());
-        currentParent = values[tm].getParentName();
-        currentLayer = values[tm].getLayer();
-        int i = 0;
+        filterSet = new RowSet(getValues(tm).getLastRow());
+        currentParent = getValues(tm).getParentName();
+        currentLayer = getValues(tm).getLayer();
         //        values[tm].createTime();
         //        values[tm].createSeekBlock();
-        values[tm].create();
-        while (values[tm].hasNext()) {
-            if (filters[0].isMatch(values[tm].next())) {
-                filterSet.set(i);
-            }
-            i++;
-        }
+        scan(filters[0], tm, filterSet);
         //        timeIO += values[tm].getTime();
         //        blockTime.addAll(values[tm].getBlockTime());
         //        blockStart.addAll(values[tm].getBlockStart());
@@ -198,13 +329,13 @@ public class FilterBatchColumnReader<D> implements Closeable {
         //        readBlockSize += values[tm].getSeekBlock()[0];
         //        seekedBlock += values[tm].getSeekBlock()[1];
         //        blockCount += values[tm].getBlockCount();
-        filterSetMap = new HashMap<String, BitSet>();
+        filterSetMap = new HashMap<String, RowSet>();
         if (currentParent != null)
-            filterSetMap.put(currentParent, (BitSet) filterSet.clone());
+            filterSetMap.put(currentParent, filterSet.clone());
         for (int c = 1; c < filters.length - 1; c++) {
             filter(c);
             if (currentParent != null)
-                filterSetMap.put(currentParent, (BitSet) filterSet.clone());
+                filterSetMap.put(currentParent, filterSet.clone());
         }
         if (filters.length > 1)
             filter(filters.length - 1);
@@ -213,11 +344,11 @@ public class FilterBatchColumnReader<D> implements Closeable {
             String parent = new String(currentParent);
             while (parent != null) {
                 filterSetMap.remove(parent);
-                parent = values[columnsByName.get(parent)].getParentName();
+                parent = getValues(columnsByName.get(parent)).getParentName();
             }
         }
-        chooseSet = new ArrayList<BitSet>();
-        chooseSet.add((BitSet) filterSet.clone());
+        chooseSet = new ArrayList<RowSet>();
+        chooseSet.add(filterSet.clone());
         bitSetMap = new HashMap<String, Integer>();
         bitSetMap.put(currentParent, 0);
     }
@@ -227,24 +358,42 @@ public class FilterBatchColumnReader<D> implements Closeable {
         Integer tm = columnsByName.get(column);
         if (tm == null)
             throw new TrevniRuntimeException("No filter column named: " + column);
-        String parent = values[tm].getParentName();
-        int layer = values[tm].getLayer();
+        String parent = getValues(tm).getParentName();
+        int layer = getValues(tm).getLayer();
         if (layer != currentLayer || (parent != null && !currentParent.equals(parent))) {
             filterSetTran(tm);
         }
+        if (isMultiColumn(filters[c])) {
+            RowSet set = new RowSet(getValues(tm).getLastRow());
+            scan(filters[c], tm, set);
+            filterSet.and(set);
+            return;
+        }
         int m = filterSet.nextSetBit(0);
         //        values[tm].createTime();
         //        values[tm].createSeekBlock();
-        values[tm].create();
+        getValues(tm).planBlocks(plannedBlocks(filters[c], getValues(tm), filterSet));
+        int blockEnd = 0;
+        Utf8View view = utf8View(filters[c], getValues(tm));
         while (m != -1) {
-            values[tm].seek(m);
-            if (!filters[c].isMatch(values[tm].next())) {
-                filterSet.set(m, false);
+            if (m >= blockEnd) {
+                int block = getValues(tm).findBlock(m);
+                blockEnd = getValues(tm).getLastRow(block);
+                if (canSkipBlock(filters[c], getValues(tm), block)) {
+                    filterSet.clear(m, blockEnd);
+                    m = filterSet.nextSetBit(blockEnd);
+                    continue;
+                }
+            }
+            getValues(tm).seek(m);
+            if (!isMatch(filters[c], getValues(tm), view)) {
+                filterSet.clear(m);
             }
             if (++m > filterSet.length())
                 break;
             m = filterSet.nextSetBit(m);
         }
+        getValues(tm).planBlocks(null);
         //        timeIO += values[tm].getTime();
         //        blockTime.addAll(values[tm].getBlockTime());
         //        blockStart.addAll(values[tm].getBlockStart());
@@ -257,6 +406,8 @@ public class FilterBatchColumnReader<D> implements Closeable {
 
     public void filterNoCasc() throws IOException {
         assert (filters != null);
+        if (orderFilters)
+            orderFilters();
         //        timeIO = 0;
         //        blockTime = new ArrayList<Long>();
         //        blockStart = new ArrayList<Long>();
@@ -269,19 +420,12 @@ public class FilterBatchColumnReader<D> implements Closeable {
         Integer tm = columnsByName.get(column);
         if (tm == null)
             throw new TrevniRuntimeException("No filter column named: " + column);
-        filterSet = new BitSet(values[tm].getLastRow());
-        currentParent = values[tm].getParentName();
-        currentLayer = values[tm].getLayer();
-        int i = 0;
+        filterSet = new RowSet(getValues(tm).getLastRow());
+        currentParent = getValues(tm).getParentName();
+        currentLayer = getValues(tm).getLayer();
         //        values[tm].createTime();
         //        values[tm].createSeekBlock();
-        values[tm].create();
-        while (values[tm].hasNext()) {
-            if (filters[0].isMatch(values[tm].next())) {
-                filterSet.set(i);
-            }
-            i++;
-        }
+        scan(filters[0], tm, filterSet);
         //        timeIO += values[tm].getTime();
         //        blockTime.addAll(values[tm].getBlockTime());
         //        blockStart.addAll(values[tm].getBlockStart());
@@ -290,13 +434,13 @@ public class FilterBatchColumnReader<D> implements Closeable {
         //        readBlockSize += values[tm].getSeekBlock()[0];
         //        seekedBlock += values[tm].getSeekBlock()[1];
         //        blockCount += values[tm].getBlockCount();
-        filterSetMap = new HashMap<String, BitSet>();
+        filterSetMap = new HashMap<String, RowSet>();
         if (currentParent != null)
-            filterSetMap.put(currentParent, (BitSet) filterSet.clone());
+            filterSetMap.put(currentParent, filterSet.clone());
         for (int c = 1; c < filters.length - 1; c++) {
             filterNoCasc(c);
             if (currentParent != null)
-                filterSetMap.put(currentParent, (BitSet) filterSet.clone());
+                filterSetMap.put(currentParent, filterSet.clone());
         }
         if (filters.length > 1)
             filterNoCasc(filters.length - 1);
@@ -305,11 +449,11 @@ public class FilterBatchColumnReader<D> implements Closeable {
             String parent = new String(currentParent);
             while (parent != null) {
                 filterSetMap.remove(parent);
-                parent = values[columnsByName.get(parent)].getParentName();
+                parent = getValues(columnsByName.get(parent)).getParentName();
             }
         }
-        chooseSet = new ArrayList<BitSet>();
-        chooseSet.add((BitSet) filterSet.clone());
+        chooseSet = new ArrayList<RowSet>();
+        chooseSet.add(filterSet.clone());
         bitSetMap = new HashMap<String, Integer>();
         bitSetMap.put(currentParent, 0);
     }
@@ -320,17 +464,17 @@ public class FilterBatchColumnReader<D> implements Closeable {
         Integer tm = columnsByName.get(column);
         if (tm == null)
             throw new TrevniRuntimeException("No filter column named: " + column);
-        currentParent = values[tm].getParentName();
-        currentLayer = values[tm].getLayer();
-        values[tm].readIO();
-        values[tm].create();
+        currentParent = getValues(tm).getParentName();
+        currentLayer = getValues(tm).getLayer();
+        getValues(tm).readIO();
+        getValues(tm).create();
         for (int c = 1; c < filters.length; c++) {
             column = filters[c].getName();
             tm = columnsByName.get(column);
             if (tm == null)
                 throw new TrevniRuntimeException("No filter column named: " + column);
-            String parent = values[tm].getParentName();
-            int layer = values[tm].getLayer();
+            String parent = getValues(tm).getParentName();
+            int layer = getValues(tm).getLayer();
             if (layer != currentLayer || (parent != null && !currentParent.equals(parent))) {
                 List<String> left = new ArrayList<String>();
                 List<String> right = new ArrayList<String>();
@@ -338,7 +482,7 @@ public class FilterBatchColumnReader<D> implements Closeable {
                     for (int i = currentLayer; i > layer; i--) {
                         left.add(currentParent);
                         int col = columnsByName.get(currentParent);
-                        currentParent = values[col].getParentName();
+                        currentParent = getValues(col).getParentName();
                     }
                     currentLayer = layer;
                 }
@@ -346,34 +490,34 @@ public class FilterBatchColumnReader<D> implements Closeable {
                     for (int i = layer; i > currentLayer; i--) {
                         right.add(parent);
                         int col = columnsByName.get(parent);
-                        parent = values[col].getParentName();
+                        parent = getValues(col).getParentName();
                     }
                     layer = currentLayer;
                 }
                 while (currentParent != null && !currentParent.equals(parent)) {
                     left.add(currentParent);
                     int l = columnsByName.get(currentParent);
-                    currentParent = values[l].getParentName();
+                    currentParent = getValues(l).getParentName();
                     right.add(parent);
                     int r = columnsByName.get(parent);
-                    parent = values[r].getParentName();
+                    parent = getValues(r).getParentName();
                 }
 
                 for (int i = 0; i < left.size(); i++) {
                     String array = left.get(i);
                     int col = columnsByName.get(array);
-                    values[col].readIO();
-                    values[col].create();
+                    getValues(col).readIO();
+                    getValues(col).create();
                 }
 
                 for (int i = right.size() - 1; i >= 0; i--) {
                     String array = right.get(i);
                     int col = columnsByName.get(array);
-                    values[col].readIO();
-                    values[col].create();
+                    getValues(col).readIO();
+                    getValues(col).create();
                 }
-                currentLayer = values[tm].getLayer();
-                currentParent = values[tm].getParentName();
+                currentLayer = getValues(tm).getLayer();
+                currentParent = getValues(tm).getParentName();
             }
         }
     }
@@ -383,21 +527,15 @@ public class FilterBatchColumnReader<D> implements Closeable {
         Integer tm = columnsByName.get(column);
         if (tm == null)
             throw new TrevniRuntimeException("No filter column named: " + column);
-        String parent = values[tm].getParentName();
-        int layer = values[tm].getLayer();
+        String parent = getValues(tm).getParentName();
+        int layer = getValues(tm).getLayer();
         if (layer != currentLayer || (parent != null && !currentParent.equals(parent))) {
             filterSetTran(tm);
         }
-        BitSet set = new BitSet(values[tm].getLastRow());
+        RowSet set = new RowSet(getValues(tm).getLastRow());
         //        values[tm].createTime();
         //        values[tm].createSeekBlock();
-        values[tm].create();
-        int n = 0;
-        while (values[tm].hasNext()) {
-            if (filters[c].isMatch(values[tm].next()))
-                set.set(n);
-            ++n;
-        }
+        scan(filters[c], tm, set);
         //        timeIO += values[tm].getTime();
         //        blockTime.addAll(values[tm].getBlockTime());
         //        blockStart.addAll(values[tm].getBlockStart());
@@ -410,16 +548,253 @@ public class FilterBatchColumnReader<D> implements Closeable {
         filterSet = set;
     }
 
+    /*
+     * test every value of a column, leaving the rows of the blocks skipped by
+     * their statistics unset.
+     */
+    private void scan(FilterOperator filter, int tm, RowSet set) throws IOException {
+        BlockColumnValues v = getValues(tm);
+        if (isMultiColumn(filter)) {
+            scanTree(((FilterApi.Tree) filter).getPredicate(), set, v);
+            return;
+        }
+        if (parallelFilter && executor != null && v.getBlockCount() > 1)
+            scanParallel(filter, tm, set);
+        else
+            scanBlocks(filter, v, 0, v.getBlockCount(), set);
+    }
+
+    private static boolean isMultiColumn(FilterOperator filter) {
+        return filter instanceof FilterApi.Tree && ((FilterApi.Tree) filter).isMultiColumn();
+    }
+
+    /*
+     * set the rows matching a predicate on columns sharing the parent of the
+     * column v, by combining the rows matching its single-column parts.
+     */
+    private void scanTree(FilterApi.Predicate p, RowSet set, BlockColumnValues v) throws IOException {
+        if (p.getColumns().size() == 1) {
+            int tm = columnsByName.get(p.getColumns().iterator().next());
+            String parent = getValues(tm).getParentName();
+            if (parent == null ? v.getParentName() != null : !parent.equals(v.getParentName()))
+                throw new TrevniRuntimeException("Columns of different parents in: " + p);
+            scan(FilterApi.bind(p, getValues(tm).getType()), tm, set);
+            return;
+        }
+        List<FilterApi.Predicate> children = ((FilterApi.Logical) p).getChildren();
+        scanTree(children.get(0), set, v);
+        if (p.getOp() == FilterApi.Op.NOT) {
+            set.flip(0, v.getLastRow());
+            return;
+        }
+        for (int i = 1; i < children.size(); i++) {
+            RowSet part = new RowSet(v.getLastRow());
+            scanTree(children.get(i), part, v);
+            if (p.getOp() == FilterApi.Op.AND)
+                set.and(part);
+            else
+                set.or(part);
+        }
+    }
+
+    /*
+     * test the blocks [from, to) of a column with a cursor.
+     */
+    private void scanBlocks(FilterOperator filter, BlockColumnValues v, int from, int to, RowSet set)
+            throws IOException {
+        Utf8View view = utf8View(filter, v);
+        for (int block = from; block < to; block++) {
+            if (canSkipBlock(filter, v, block))
+                continue;
+            int i = v.getFirstRow(block);
+            int end = v.getLastRow(block);
+            if (v.getRow() != i)
+                v.seek(i);
+            if (!scanUnboxed(filter, v, i, end, set)) {
+                for (; i < end; i++) {
+                    if (isMatch(filter, v, view))
+                        set.set(i);
+                }
+            }
+        }
+    }
+
+    /*
+     * split the blocks of a column into ranges, a few per thread of executor,
+     * test each range on executor with its own cursor into its own bitmap,
+     * and merge the bitmaps into set.
+     */
+    private void scanParallel(final FilterOperator filter, int tm, RowSet set) throws IOException {
+        int blockCount = getValues(tm).getBlockCount();
+        int ranges = (int) Math.min(blockCount, parallelism() * 4L);
+        List<Callable<RowSet>> tasks = new ArrayList<Callable<RowSet>>();
+        for (int r = 0; r < ranges; r++) {
+            final int from = (int) ((long) blockCount * r / ranges);
+            final int to = (int) ((long) blockCount * (r + 1) / ranges);
+            final BlockColumnValues v = reader.getValues(tm);
+            tasks.add(new Callable<RowSet>() {
+                @Override
+                public RowSet call() throws IOException {
+                    if (prefetcher != null)
+                        v.setPrefetcher(prefetcher);
+                    try {
+                        RowSet part = new RowSet(v.getLastRow(to - 1));
+                        scanBlocks(filter, v, from, to, part);
+                        return part;
+                    } finally {
+                        v.setPrefetcher(null);
+                    }
+                }
+            });
+        }
+        for (RowSet part : invokeAll(tasks))
+            set.or(part);
+    }
+
+    /*
+     * return the number of threads of executor, or of processors if the kind
+     * of executor or an unbounded pool does not tell.
+     */
+    private int parallelism() {
+        if (executor instanceof ThreadPoolExecutor) {
+            int threads = ((ThreadPoolExecutor) executor).getMaximumPoolSize();
+            if (threads < Integer.MAX_VALUE)
+                return threads;
+        } else if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /*
+     * run tasks on executor and return their results in order, rethrowing
+     * the first failure.
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> f : executor.invokeAll(tasks))
+                results.add(f.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new TrevniRuntimeException(e.getCause());
+        }
+        return results;
+    }
+
+    /*
+     * test rows [start, end) of a numeric column with a bulk read if the
+     * filter takes unboxed values, returning false if it does not.
+     */
+    private boolean scanUnboxed(FilterOperator filter, BlockColumnValues v, int start, int end, RowSet set)
+            throws IOException {
+        int n = end - start;
+        if (filter instanceof IntFilterOperator && v instanceof IntColumnValues) {
+            IntFilterOperator f = (IntFilterOperator) filter;
+            int[] buf = new int[n];
+            ((IntColumnValues) v).readInts(buf, n);
+            for (int j = 0; j < n; j++)
+                if (f.isMatch(buf[j]))
+                    set.set(start + j);
+            return true;
+        }
+        if (filter instanceof LongFilterOperator && v instanceof LongColumnValues) {
+            LongFilterOperator f = (LongFilterOperator) filter;
+            long[] buf = new long[n];
+            ((LongColumnValues) v).readLongs(buf, n);
+            for (int j = 0; j < n; j++)
+                if (f.isMatch(buf[j]))
+                    set.set(start + j);
+            return true;
+        }
+        if (filter instanceof DoubleFilterOperator && v instanceof DoubleColumnValues) {
+            DoubleFilterOperator f = (DoubleFilterOperator) filter;
+            double[] buf = new double[n];
+            ((DoubleColumnValues) v).readDoubles(buf, n);
+            for (int j = 0; j < n; j++)
+                if (f.isMatch(buf[j]))
+                    set.set(start + j);
+            return true;
+        }
+        return false;
+    }
+
+    /*
+     * return a reusable view if the filter can test raw UTF-8 strings of the
+     * column, null otherwise.
+     */
+    private Utf8View utf8View(FilterOperator filter, BlockColumnValues v) {
+        if (filter instanceof Utf8FilterOperator && v.getType() == ValueType.STRING)
+            return new Utf8View();
+        return null;
+    }
+
+    private boolean isMatch(FilterOperator filter, BlockColumnValues v, Utf8View view) throws IOException {
+        if (view != null)
+            return ((Utf8FilterOperator) filter).isMatch(v.nextUtf8(view));
+        if (filter instanceof IntFilterOperator && v instanceof IntColumnValues)
+            return ((IntFilterOperator) filter).isMatch(((IntColumnValues) v).nextInt());
+        if (filter instanceof LongFilterOperator && v instanceof LongColumnValues)
+            return ((LongFilterOperator) filter).isMatch(((LongColumnValues) v).nextLong());
+        if (filter instanceof DoubleFilterOperator && v instanceof DoubleColumnValues)
+            return ((DoubleFilterOperator) filter).isMatch(((DoubleColumnValues) v).nextDouble());
+        if (filter instanceof BooleanFilterOperator && v instanceof BooleanColumnValues)
+            return ((BooleanFilterOperator) filter).isMatch(((BooleanColumnValues) v).nextBoolean());
+        return filter.isMatch(v.next());
+    }
+
+    /*
+     * return the blocks of a column holding any of the named rows, leaving
+     * out those the filter, if any, can skip.
+     */
+    private BitSet plannedBlocks(FilterOperator filter, BlockColumnValues v, RowSet rows) {
+        BitSet blocks = new BitSet(v.getBlockCount());
+        for (int block = 0; block < v.getBlockCount(); block++) {
+            int m = rows.nextSetBit(v.getFirstRow(block));
+            if (m != -1 && m < v.getLastRow(block) && (filter == null || !canSkipBlock(filter, v, block)))
+                blocks.set(block);
+        }
+        return blocks;
+    }
+
+    /*
+     * return true if the min/max values or the bloom filter of the block prove
+     * that none of its rows can match the filter.
+     */
+    protected boolean canSkipBlock(FilterOperator filter, BlockColumnValues v, int block) {
+        if (!v.hasStatistics())
+            return false;
+        BlockDescriptor b = v.getBlockDescriptor(block);
+        if (filter instanceof RangeFilterOperator && b.getMin() != null && b.getMax() != null
+                && !((RangeFilterOperator) filter).mayMatch(b.getMin(), b.getMax()))
+            return true;
+        if (filter instanceof FilterApi.Bound && b.hasStatistics() && b.getNullCount() == 0
+                && ((FilterApi.Bound) filter).getPredicate().getOp() == FilterApi.Op.IS_NULL)
+            return true;
+        if (filter instanceof EqualityFilterOperator && b.getBloomFilter() != null
+                && ((EqualityFilterOperator<?>) filter).getValues() != null) {
+            for (Object value : ((EqualityFilterOperator<?>) filter).getValues())
+                if (b.getBloomFilter().mightContain(value))
+                    return false;
+            return true;
+        }
+        return false;
+    }
+
     private void filterSetTran(int c) throws IOException {
         List<String> left = new ArrayList<String>();
         List<String> right = new ArrayList<String>();
-        int layer = values[c].getLayer();
-        String parent = values[c].getParentName();
+        int layer = getValues(c).getLayer();
+        String parent = getValues(c).getParentName();
         if (currentLayer > layer) {
             for (int i = currentLayer; i > layer; i--) {
                 left.add(currentParent);
                 int col = columnsByName.get(currentParent);
-                currentParent = values[col].getParentName();
+                currentParent = getValues(col).getParentName();
             }
             currentLayer = layer;
         }
@@ -427,50 +802,50 @@ public class FilterBatchColumnReader<D> implements Closeable {
             for (int i = layer; i > currentLayer; i--) {
                 right.add(parent);
                 int col = columnsByName.get(parent);
-                parent = values[col].getParentName();
+                parent = getValues(col).getParentName();
             }
             layer = currentLayer;
         }
         while (currentParent != null && !currentParent.equals(parent)) {
             left.add(currentParent);
             int l = columnsByName.get(currentParent);
-            currentParent = values[l].getParentName();
+            currentParent = getValues(l).getParentName();
             right.add(parent);
             int r = columnsByName.get(parent);
-            parent = values[r].getParentName();
+            parent = getValues(r).getParentName();
         }
 
         for (int i = 0; i < left.size(); i++) {
             String array = left.get(i);
             upTran(array);
-            String arr = values[columnsByName.get(array)].getParentName();
+            String arr = getValues(columnsByName.get(array)).getParentName();
             if (arr != null)
-                filterSetMap.put(arr, (BitSet) filterSet.clone());
+                filterSetMap.put(arr, filterSet.clone());
         }
 
         for (int i = right.size() - 1; i >= 0; i--) {
             String array = right.get(i);
             downTran(array);
-            BitSet f = filterSetMap.get(array);
+            RowSet f = filterSetMap.get(array);
             if (f != null) {
                 filterSet.and(f);
             }
         }
-        currentLayer = values[c].getLayer();
-        currentParent = values[c].getParentName();
+        currentLayer = getValues(c).getLayer();
+        currentParent = getValues(c).getParentName();
     }
 
     private void upTran(String array) throws IOException {
         int col = columnsByName.get(array);
-        BitSet set = new BitSet(values[col].getLastRow());
+        RowSet set = new RowSet(getValues(col).getLastRow());
         int m = filterSet.nextSetBit(0);
         int n = 0;
         //        values[col].createTime();
         //        values[col].createSeekBlock();
-        values[col].create();
-        while (m != -1 && values[col].hasNext()) {
-            values[col].startRow();
-            int max = values[col].nextLength();
+        getValues(col).create();
+        while (m != -1 && getValues(col).hasNext()) {
+            getValues(col).startRow();
+            int max = getValues(col).nextLength();
             if (max > m) {
                 set.set(n);
                 if (++m > filterSet.length())
@@ -496,15 +871,15 @@ public class FilterBatchColumnReader<D> implements Closeable {
 
     private void downTran(String array) throws IOException {
         int col = columnsByName.get(array);
-        BitSet set = new BitSet(values[col + 1].getLastRow());
+        RowSet set = new RowSet(getValues(col + 1).getLastRow());
         int p = filterSet.nextSetBit(0);
         int q = -1;
         //        values[col].createTime();
         //        values[col].createSeekBlock();
-        values[col].create();
+        getValues(col).create();
         if (p == 0) {
-            values[col].startRow();
-            int[] res = values[col].nextLengthAndOffset();
+            getValues(col).startRow();
+            int[] res = getValues(col).nextLengthAndOffset();
             if (res[0] > 0)
                 set.set(res[1], res[0]);
             q = p;
@@ -512,18 +887,18 @@ public class FilterBatchColumnReader<D> implements Closeable {
         }
         while (p != -1) {
             if (p == q + 1) {
-                values[col].startRow();
-                int[] res = values[col].nextLengthAndOffset();
+                getValues(col).startRow();
+                int[] res = getValues(col).nextLengthAndOffset();
                 if (res[0] > 0)
                     set.set(res[1], res[0] + res[1]);
                 //                for (int j = 0; j < res[0]; j++)
                 //                    set.set(j + res[1]);
             } else {
-                values[col].seek(p - 1);
-                values[col].startRow();
-                values[col].nextLengthAndOffset();
-                values[col].startRow();
-                int[] res = values[col].nextLengthAndOffset();
+                getValues(col).seek(p - 1);
+                getValues(col).startRow();
+                getValues(col).nextLengthAndOffset();
+                getValues(col).startRow();
+                int[] res = getValues(col).nextLengthAndOffset();
                 if (res[0] > 0)
                     set.set(res[1], res[0] + res[1]);
                 //                for (int j = 0; j < res[0]; j++)
@@ -553,13 +928,13 @@ public class FilterBatchColumnReader<D> implements Closeable {
     }
 
     public ValueType getType(int columnNo) {
-        return values[columnNo].getType();
+        return reader.getFileColumnMetaData(columnNo).getType();
     }
 
     public ValueType[] getTypes() {
         ValueType[] res = new ValueType[values.length];
         for (int i = 0; i < res.length; i++) {
-            res[i] = values[i].getType();
+            res[i] = getType(i);
         }
         return res;
     }
@@ -578,7 +953,8 @@ public class FilterBatchColumnReader<D> implements Closeable {
             //            }
             //            values[readNO[i]].createLength();
         }
-        readParent = values[readNO[0]].getParentName();
+        FileColumnMetaData parent = reader.getFileColumnMetaData(readNO[0]).getParent();
+        readParent = parent == null ? null : parent.getName();
         //        if (le > 0) {
         //            arrayValues = new int[le];
         //        }
@@ -587,13 +963,13 @@ public class FilterBatchColumnReader<D> implements Closeable {
     private void readSetTran(int c) throws IOException {
         List<String> left = new ArrayList<String>();
         List<String> right = new ArrayList<String>();
-        int layer = values[c].getLayer();
-        String parent = values[c].getParentName();
+        int layer = getValues(c).getLayer();
+        String parent = getValues(c).getParentName();
         if (currentLayer > layer) {
             for (int i = currentLayer; i > layer; i--) {
                 left.add(currentParent);
                 int col = columnsByName.get(currentParent);
-                currentParent = values[col].getParentName();
+                currentParent = getValues(col).getParentName();
             }
             currentLayer = layer;
         }
@@ -601,23 +977,23 @@ public class FilterBatchColumnReader<D> implements Closeable {
             for (int i = layer; i > currentLayer; i--) {
                 right.add(parent);
                 int col = columnsByName.get(parent);
-                parent = values[col].getParentName();
+                parent = getValues(col).getParentName();
             }
             layer = currentLayer;
         }
         while (currentParent != null && !currentParent.equals(parent)) {
             left.add(currentParent);
             int l = columnsByName.get(currentParent);
-            currentParent = values[l].getParentName();
+            currentParent = getValues(l).getParentName();
             right.add(parent);
             int r = columnsByName.get(parent);
-            parent = values[r].getParentName();
+            parent = getValues(r).getParentName();
         }
 
         for (int i = 0; i < left.size(); i++) {
             String array = left.get(i);
             upTran(array);
-            String arr = values[columnsByName.get(array)].getParentName();
+            String arr = getValues(columnsByName.get(array)).getParentName();
             bitSetMap.put(arr, chooseSet.size());
             chooseSet.add(filterSet);
         }
@@ -626,14 +1002,14 @@ public class FilterBatchColumnReader<D> implements Closeable {
             String array = right.get(i);
             downTran(array);
             bitSetMap.put(array, chooseSet.size());
-            BitSet f = filterSetMap.get(array);
+            RowSet f = filterSetMap.get(array);
             if (f != null) {
                 filterSet.and(f);
             }
             chooseSet.add(filterSet);
         }
-        currentLayer = values[c].getLayer();
-        currentParent = values[c].getParentName();
+        currentLayer = getValues(c).getLayer();
+        currentParent = getValues(c).getParentName();
     }
 
     public void createFilterRead() throws IOException {
@@ -649,7 +1025,7 @@ public class FilterBatchColumnReader<D> implements Closeable {
         for (int i = 0; i < readNO.length; i++) {
             //            values[readNO[i]].createTime();
             //            values[readNO[i]].createSeekBlock();
-            values[readNO[i]].create();
+            getValues(readNO[i]).create();
         }
         readValue = new Object[readNO.length][];
         readLength = new HashMap<String, Integer>();
@@ -662,11 +1038,11 @@ public class FilterBatchColumnReader<D> implements Closeable {
         for (int i = 0; i < readNO.length; i++) {
             //            values[readNO[i]].createTime();
             //            values[readNO[i]].createSeekBlock();
-            values[readNO[i]].create();
+            getValues(readNO[i]).create();
         }
         readValue = new Object[readNO.length][];
         readLength = new HashMap<String, Integer>();
-        all = values[readNO[0]].getLastRow();
+        all = getValues(readNO[0]).getLastRow();
         readImplPriNoFilters();
     }
 
@@ -686,42 +1062,53 @@ public class FilterBatchColumnReader<D> implements Closeable {
 
     private void readImplNoFilters() throws IOException {
         for (int i = 0; i < readNO.length; i++) {
-            currentMax = readLength.get(values[readNO[i]].getParentName());
+            currentMax = readLength.get(getValues(readNO[i]).getParentName());
             readValue[i] = new Object[currentMax];
-            if (values[readNO[i]].isArray()) {
+            if (getValues(readNO[i]).isArray()) {
                 int j = 0;
                 int[] lenAndOff = new int[2];
                 while (j < currentMax) {
-                    values[readNO[i]].startRow();
-                    lenAndOff = values[readNO[i]].nextLengthAndOffset();
+                    getValues(readNO[i]).startRow();
+                    lenAndOff = getValues(readNO[i]).nextLengthAndOffset();
                     readValue[i][j++] = lenAndOff[0];
                 }
-                readLength.put(values[readNO[i]].getParentName(), lenAndOff[0] + lenAndOff[1]);
+                readLength.put(getValues(readNO[i]).getParentName(), lenAndOff[0] + lenAndOff[1]);
             } else {
                 int j = 0;
                 while (j < currentMax) {
-                    readValue[i][j++] = values[readNO[i]].next();
+                    readValue[i][j++] = getValues(readNO[i]).next();
                 }
             }
         }
     }
 
     private void readImplPri() throws IOException {
-        long start = System.currentTimeMillis();
-        setStart = new int[readNO.length];
-        readSet = new int[readNO.length];
-        int layer = values[readNO[0]].getLayer();
-        String parent = values[readNO[0]].getParentName();
-        if (layer != currentLayer || (parent != null && !currentParent.equals(parent)))
-            readSetTran(readNO[0]);
-        all = filterSet.cardinality();
+        createReadSets();
         if (all > max) {
             readLength.put(readParent, max);
         } else {
             readLength.put(readParent, all);
         }
+
+        readColumns();
+        all -= readLength.get(readParent);
+        readIndex = new int[readNO.length];
+    }
+
+    /*
+     * translate the filtered rows to the layer of every read column, and
+     * count the top level rows to read.
+     */
+    private void createReadSets() throws IOException {
+        setStart = new int[readNO.length];
+        readSet = new int[readNO.length];
+        int layer = getValues(readNO[0]).getLayer();
+        String parent = getValues(readNO[0]).getParentName();
+        if (layer != currentLayer || (parent != null && !currentParent.equals(parent)))
+            readSetTran(readNO[0]);
+        all = filterSet.cardinality();
         for (int i = 0; i < readNO.length; i++) {
-            parent = values[readNO[i]].getParentName();
+            parent = getValues(readNO[i]).getParentName();
             Integer set = bitSetMap.get(parent);
             if (set == null) {
                 readSetTran(readNO[i]);
@@ -730,23 +1117,13 @@ public class FilterBatchColumnReader<D> implements Closeable {
                 readSet[i] = set;
                 filterSet = chooseSet.get(set);
                 currentParent = parent;
-                currentLayer = values[readNO[i]].getLayer();
+                currentLayer = getValues(readNO[i]).getLayer();
             }
             setStart[i] = filterSet.nextSetBit(0);
+            getValues(readNO[i]).planBlocks(plannedBlocks(null, getValues(readNO[i]), filterSet));
         }
         filterSetMap.clear();
         filterSetMap = null;
-        long end = System.currentTimeMillis();
-        System.out.println("read set tran time: " + (end - start));
-
-        for (int i = 0; i < readNO.length; i++) {
-            filterSet = chooseSet.get(readSet[i]);
-            currentParent = values[readNO[i]].getParentName();
-            currentLayer = values[readNO[i]].getLayer();
-            readPri(i);
-        }
-        all -= readLength.get(readParent);
-        readIndex = new int[readNO.length];
     }
 
     private void readImpl() throws IOException {
@@ -757,21 +1134,87 @@ public class FilterBatchColumnReader<D> implements Closeable {
         } else {
             readLength.put(readParent, all);
         }
-        for (int i = 0; i < readNO.length; i++) {
-            filterSet = chooseSet.get(readSet[i]);
-            currentParent = values[readNO[i]].getParentName();
-            currentLayer = values[readNO[i]].getLayer();
-            readPri(i);
-        }
+        readColumns();
         all -= readLength.get(readParent);
         readIndex = new int[readNO.length];
     }
 
-    private void readPri(int c) throws IOException {
-        int length = readLength.get(currentParent);
+    /*
+     * read the chosen rows of every read column into readValue, in parallel
+     * on the executor if there is one. A nested column is read after the
+     * array column holding it, which tells how many of its rows to read.
+     */
+    private void readColumns() throws IOException {
+        int last = readNO.length - 1;
+        if (executor == null) {
+            for (int i = 0; i < readNO.length; i++)
+                readColumn(i);
+        } else {
+            readColumnsParallel();
+        }
+        filterSet = chooseSet.get(readSet[last]);
+        currentParent = getValues(readNO[last]).getParentName();
+        currentLayer = getValues(readNO[last]).getLayer();
+    }
+
+    private void readColumn(int c) throws IOException {
+        BlockColumnValues v = getValues(readNO[c]);
+        int changeArr = readPri(c, chooseSet.get(readSet[c]), readLength.get(v.getParentName()));
+        if (v.isArray())
+            readLength.put(v.getName(), changeArr);
+    }
+
+    private void readColumnsParallel() throws IOException {
+        HashMap<String, Integer> arrays = new HashMap<String, Integer>();
+        for (int i = 0; i < readNO.length; i++) {
+            BlockColumnValues v = getValues(readNO[i]); // open every cursor on this thread
+            if (v.isArray())
+                arrays.put(v.getName(), i);
+        }
+        boolean[] done = new boolean[readNO.length];
+        int left = readNO.length;
+        while (left > 0) {
+            // the columns whose array column, if any, has been read
+            List<Integer> wave = new ArrayList<Integer>();
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (int i = 0; i < readNO.length; i++) {
+                if (done[i])
+                    continue;
+                final BlockColumnValues v = getValues(readNO[i]);
+                Integer array = v.getParentName() == null ? null : arrays.get(v.getParentName());
+                if (array != null && !done[array])
+                    continue;
+                final int c = i;
+                final RowSet set = chooseSet.get(readSet[i]);
+                final int length = readLength.get(v.getParentName());
+                wave.add(i);
+                tasks.add(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws IOException {
+                        return readPri(c, set, length);
+                    }
+                });
+            }
+            List<Integer> results = invokeAll(tasks);
+            for (int k = 0; k < wave.size(); k++) {
+                int c = wave.get(k);
+                int changeArr = results.get(k);
+                if (getValues(readNO[c]).isArray())
+                    readLength.put(getValues(readNO[c]).getName(), changeArr);
+                done[c] = true;
+                left--;
+            }
+        }
+    }
+
+    /*
+     * read length chosen rows of a column from the rows set in filterSet,
+     * and return the number of nested rows chosen if it is an array column.
+     */
+    private int readPri(int c, RowSet filterSet, int length) throws IOException {
         readValue[c] = new Object[length];
-        if (values[readNO[c]].isArray()) {
-            BitSet set = chooseSet.get(readSet[c + 1]);
+        if (getValues(readNO[c]).isArray()) {
+            RowSet set = chooseSet.get(readSet[c + 1]);
             int changeArr = 0;
             int in = 0;
             int p = setStart[c];
@@ -792,9 +1235,9 @@ public class FilterBatchColumnReader<D> implements Closeable {
                 //                res = values[readNO[c]].nextLengthAndOffset();
                 //                changeArr += res[0];
                 //                readValue[c][in] = res[0];
-                values[readNO[c]].seek(p);
-                values[readNO[c]].startRow();
-                int res = values[readNO[c]].nextLength();
+                getValues(readNO[c]).seek(p);
+                getValues(readNO[c]).startRow();
+                int res = getValues(readNO[c]).nextLength();
                 int re = 0;
                 while (m != -1 && res > m) {
                     ++re;
@@ -805,21 +1248,378 @@ public class FilterBatchColumnReader<D> implements Closeable {
                 in++;
                 p = filterSet.nextSetBit(++p);
             }
-            readLength.put(values[readNO[c]].getName(), changeArr);
             setStart[c] = p;
+            return changeArr;
         } else {
             int in = 0;
             int m = setStart[c];
             while (in < length) {
-                values[readNO[c]].seek(m);
-                readValue[c][in] = values[readNO[c]].next();
+                getValues(readNO[c]).seek(m);
+                readValue[c][in] = getValues(readNO[c]).next();
                 in++;
                 m = filterSet.nextSetBit(++m);
             }
             setStart[c] = m;
+            return 0;
+        }
+    }
+
+    /**
+     * Prepare to read the rows of the read schema as batches of at most max
+     * top level rows with {@link #nextBatch(VectorBatch)}, and return an empty
+     * batch to read them into.
+     */
+    public VectorBatch createVectorRead(int max) throws IOException {
+        this.max = max;
+        String[] names = new String[readNO.length];
+        ColumnVector[] vectors = new ColumnVector[readNO.length];
+        for (int i = 0; i < readNO.length; i++) {
+            getValues(readNO[i]).create();
+            names[i] = getValues(readNO[i]).getName();
+            vectors[i] = ColumnVector.create(getValues(readNO[i]).getType(), getValues(readNO[i]).isArray());
+        }
+        readLength = new HashMap<String, Integer>();
+        if (noFilters) {
+            all = getValues(readNO[0]).getLastRow();
+        } else {
+            createReadSets();
+        }
+        return new VectorBatch(names, vectors);
+    }
+
+    /**
+     * Read the next rows into a batch, returning false when no rows are left.
+     */
+    public boolean nextBatch(VectorBatch batch) throws IOException {
+        batch.reset();
+        if (all == 0)
+            return false;
+        int length = all > max ? max : all;
+        readLength.put(readParent, length);
+        for (int i = 0; i < readNO.length; i++) {
+            if (!noFilters) {
+                filterSet = chooseSet.get(readSet[i]);
+                currentParent = getValues(readNO[i]).getParentName();
+                currentLayer = getValues(readNO[i]).getLayer();
+            }
+            readVector(i, batch.getColumn(i));
+        }
+        batch.setSize(length);
+        all -= length;
+        return true;
+    }
+
+    /**
+     * Compute aggregates over the filtered rows, grouped by the values of the
+     * named columns, without building records: the columns are read as
+     * vectors and the aggregates run over them. Returns one row per group, in
+     * the order the groups are first met, holding the values of the group
+     * columns and then the results of the aggregates; with no group columns,
+     * a single row of results. The columns must all be nested in the same
+     * array, or in none, and the rows aggregated are those of their layer.
+     * Call {@link #filter()} first if the reader has filters; like a read,
+     * this uses up the filtered rows.
+     */
+    public List<Object[]> aggregate(String[] groupBy, Aggregate... aggregates) throws IOException {
+        List<Integer> columns = new ArrayList<Integer>();
+        int[] groupAt = new int[groupBy.length];
+        int[] aggregateAt = new int[aggregates.length];
+        for (int i = 0; i < groupBy.length; i++)
+            groupAt[i] = aggregateColumn(groupBy[i], columns);
+        for (int i = 0; i < aggregates.length; i++)
+            aggregateAt[i] = aggregates[i].getColumn() == null ? -1 : aggregateColumn(aggregates[i].getColumn(), columns);
+        readNO = new int[columns.size()];
+        for (int i = 0; i < readNO.length; i++)
+            readNO[i] = columns.get(i);
+        if (readNO.length == 0)
+            readNO = new int[] { 0 }; // count() alone: count the top level rows without reading them
+        readParent = getValues(readNO[0]).getParentName();
+        ValueType[] types = new ValueType[readNO.length];
+        for (int i = 0; i < readNO.length; i++)
+            types[i] = getValues(readNO[i]).getType();
+
+        VectorBatch batch = createVectorRead(max);
+        List<Object[]> results = new ArrayList<Object[]>();
+        if (groupBy.length == 0) {
+            Aggregate.Accumulator[] acc = newAccumulators(aggregates, aggregateAt, types);
+            if (columns.isEmpty()) {
+                for (Aggregate.Accumulator a : acc)
+                    a.addAll(null, 0, all);
+                all = 0;
+            }
+            while (nextBatch(batch)) {
+                int n = batch.getColumn(0).size();
+                for (int j = 0; j < acc.length; j++)
+                    acc[j].addAll(aggregateAt[j] < 0 ? null : batch.getColumn(aggregateAt[j]), 0, n);
+            }
+            results.add(aggregateRow(new Object[0], acc));
+            return results;
+        }
+        LinkedHashMap<Object, Aggregate.Accumulator[]> groups = new LinkedHashMap<Object, Aggregate.Accumulator[]>();
+        while (nextBatch(batch)) {
+            int n = batch.getColumn(0).size();
+            for (int i = 0; i < n; i++) {
+                Object key;
+                if (groupAt.length == 1) {
+                    key = Aggregate.value(batch.getColumn(groupAt[0]), i, types[groupAt[0]]);
+                } else {
+                    Object[] k = new Object[groupAt.length];
+                    for (int g = 0; g < k.length; g++)
+                        k[g] = Aggregate.value(batch.getColumn(groupAt[g]), i, types[groupAt[g]]);
+                    key = Arrays.asList(k);
+                }
+                Aggregate.Accumulator[] acc = groups.get(key);
+                if (acc == null) {
+                    acc = newAccumulators(aggregates, aggregateAt, types);
+                    groups.put(key, acc);
+                }
+                for (int j = 0; j < acc.length; j++)
+                    acc[j].add(aggregateAt[j] < 0 ? null : batch.getColumn(aggregateAt[j]), i);
+            }
+        }
+        for (Map.Entry<Object, Aggregate.Accumulator[]> e : groups.entrySet()) {
+            Object[] key = groupAt.length == 1 ? new Object[] { e.getKey() } : ((List<?>) e.getKey()).toArray();
+            results.add(aggregateRow(key, e.getValue()));
+        }
+        return results;
+    }
+
+    /*
+     * return the index of a column among the columns to aggregate, adding it
+     * if it is new.
+     */
+    private int aggregateColumn(String name, List<Integer> columns) throws IOException {
+        Integer no = columnsByName.get(name);
+        if (no == null)
+            throw new TrevniRuntimeException("No column named: " + name);
+        if (getValues(no).isArray())
+            throw new TrevniRuntimeException("Cannot aggregate array column: " + name);
+        int at = columns.indexOf(no);
+        if (at >= 0)
+            return at;
+        if (!columns.isEmpty()) {
+            String parent = getValues(columns.get(0)).getParentName();
+            String p = getValues(no).getParentName();
+            if (parent == null ? p != null : !parent.equals(p))
+                throw new TrevniRuntimeException("Columns of different parents in aggregate: " + name);
+        }
+        columns.add(no);
+        return columns.size() - 1;
+    }
+
+    private static Aggregate.Accumulator[] newAccumulators(Aggregate[] aggregates, int[] aggregateAt,
+            ValueType[] types) {
+        Aggregate.Accumulator[] acc = new Aggregate.Accumulator[aggregates.length];
+        for (int j = 0; j < acc.length; j++)
+            acc[j] = aggregates[j].newAccumulator(aggregateAt[j] < 0 ? null : types[aggregateAt[j]]);
+        return acc;
+    }
+
+    /**
+     * Compute aggregates over the elements of an array for each filtered row
+     * holding the array, without building records: the child columns are
+     * read as vectors and cut at the bounds each row's array length gives.
+     * Returns one row per parent row holding the values of the named parent
+     * columns and then the results of the aggregates over the row's elements.
+     * The array is named by its column, such as "orders[]". The aggregated
+     * columns may be nested in the array at any depth;
+     * {@link Aggregate#count()} counts the elements of the array itself. If
+     * the filters choose elements, only those are aggregated. Call
+     * {@link #filter()} first if the reader has filters; like a read, this
+     * uses up the filtered rows.
+     */
+    public List<Object[]> aggregatePerParent(String array, String[] parentColumns, Aggregate... aggregates)
+            throws IOException {
+        Integer arrayNo = columnsByName.get(array);
+        if (arrayNo == null)
+            throw new TrevniRuntimeException("No column named: " + array);
+        if (!getValues(arrayNo).isArray())
+            throw new TrevniRuntimeException("Not an array column: " + array);
+        String parent = getValues(arrayNo).getParentName();
+        TreeSet<Integer> columns = new TreeSet<Integer>();
+        columns.add(arrayNo);
+        for (String name : parentColumns) {
+            Integer no = columnsByName.get(name);
+            if (no == null)
+                throw new TrevniRuntimeException("No column named: " + name);
+            String p = getValues(no).getParentName();
+            if (getValues(no).isArray() || (parent == null ? p != null : !parent.equals(p)))
+                throw new TrevniRuntimeException("Not a column of the rows holding " + array + ": " + name);
+            columns.add(no);
+        }
+        // the arrays from the named array down to each aggregated column
+        int[][] paths = new int[aggregates.length][];
+        for (int j = 0; j < aggregates.length; j++) {
+            String name = aggregates[j].getColumn();
+            if (name == null) {
+                paths[j] = new int[] { arrayNo };
+                continue;
+            }
+            Integer no = columnsByName.get(name);
+            if (no == null)
+                throw new TrevniRuntimeException("No column named: " + name);
+            if (getValues(no).isArray())
+                throw new TrevniRuntimeException("Cannot aggregate array column: " + name);
+            List<Integer> path = new ArrayList<Integer>();
+            String p = getValues(no).getParentName();
+            while (p != null && !p.equals(array)) {
+                path.add(0, columnsByName.get(p));
+                p = getValues(columnsByName.get(p)).getParentName();
+            }
+            if (p == null)
+                throw new TrevniRuntimeException("Not a column nested in " + array + ": " + name);
+            path.add(0, arrayNo);
+            paths[j] = new int[path.size()];
+            for (int k = 0; k < paths[j].length; k++)
+                paths[j][k] = path.get(k);
+            columns.addAll(path);
+            columns.add(no);
+        }
+        // an array is read with a column of its elements, which tells which elements are chosen
+        if (columns.higher(arrayNo) == null
+                || !array.equals(getValues(columns.higher(arrayNo)).getParentName())) {
+            int child = arrayNo;
+            do {
+                columns.add(++child);
+            } while (getValues(child).isArray());
+        }
+
+        readNO = new int[columns.size()];
+        HashMap<Integer, Integer> at = new HashMap<Integer, Integer>();
+        for (int no : columns) {
+            at.put(no, at.size());
+            readNO[at.get(no)] = no;
+        }
+        readParent = parent;
+        ValueType[] types = new ValueType[readNO.length];
+        for (int i = 0; i < readNO.length; i++)
+            types[i] = getValues(readNO[i]).getType();
+        int[] aggregateAt = new int[aggregates.length];
+        for (int j = 0; j < aggregates.length; j++) {
+            for (int k = 0; k < paths[j].length; k++)
+                paths[j][k] = at.get(paths[j][k]);
+            aggregateAt[j] = aggregates[j].getColumn() == null ? -1 : at.get(columnsByName.get(aggregates[j].getColumn()));
+        }
+        int[] parentAt = new int[parentColumns.length];
+        for (int g = 0; g < parentAt.length; g++)
+            parentAt[g] = at.get(columnsByName.get(parentColumns[g]));
+
+        VectorBatch batch = createVectorRead(max);
+        List<Object[]> results = new ArrayList<Object[]>();
+        while (nextBatch(batch)) {
+            int n = batch.getColumn(at.get(arrayNo)).size();
+            for (int i = 0; i < n; i++) {
+                Object[] key = new Object[parentAt.length];
+                for (int g = 0; g < key.length; g++)
+                    key[g] = Aggregate.value(batch.getColumn(parentAt[g]), i, types[parentAt[g]]);
+                Aggregate.Accumulator[] acc = newAccumulators(aggregates, aggregateAt, types);
+                for (int j = 0; j < acc.length; j++) {
+                    int from = i;
+                    int to = i + 1;
+                    for (int k = 0; k < paths[j].length; k++) {
+                        int[] offsets = ((ArrayVector) batch.getColumn(paths[j][k])).getOffsets();
+                        from = offsets[from];
+                        to = offsets[to];
+                    }
+                    acc[j].addAll(aggregateAt[j] < 0 ? null : batch.getColumn(aggregateAt[j]), from, to);
+                }
+                results.add(aggregateRow(key, acc));
+            }
+        }
+        return results;
+    }
+
+    private static Object[] aggregateRow(Object[] key, Aggregate.Accumulator[] acc) {
+        Object[] row = Arrays.copyOf(key, key.length + acc.length);
+        for (int j = 0; j < acc.length; j++)
+            row[key.length + j] = acc[j].getResult();
+        return row;
+    }
+
+    /*
+     * the vector counterpart of readPri: read the rows of column c selected by
+     * filterSet, or the next rows if there are no filters.
+     */
+    private void readVector(int c, ColumnVector vector) throws IOException {
+        BlockColumnValues v = getValues(readNO[c]);
+        int length = readLength.get(v.getParentName());
+        if (v.isArray()) {
+            ArrayVector arrays = (ArrayVector) vector;
+            int changeArr = 0;
+            if (noFilters) {
+                for (int in = 0; in < length; in++) {
+                    v.startRow();
+                    int len = v.nextLengthAndOffset()[0];
+                    arrays.add(len);
+                    changeArr += len;
+                }
+            } else {
+                RowSet set = chooseSet.get(readSet[c + 1]);
+                int p = setStart[c];
+                int m = setStart[c + 1];
+                for (int in = 0; in < length; in++) {
+                    v.seek(p);
+                    v.startRow();
+                    int res = v.nextLength();
+                    int re = 0;
+                    while (m != -1 && res > m) {
+                        ++re;
+                        m = set.nextSetBit(++m);
+                    }
+                    changeArr += re;
+                    arrays.add(re);
+                    p = filterSet.nextSetBit(++p);
+                }
+                setStart[c] = p;
+            }
+            readLength.put(v.getName(), changeArr);
+        } else if (noFilters) {
+            readValues(v, vector, length);
+        } else {
+            int in = 0;
+            int m = setStart[c];
+            while (in < length) {
+                int run = Math.min(filterSet.nextClearBit(m) - m, length - in);
+                v.seek(m);
+                readValues(v, vector, run);
+                in += run;
+                m = filterSet.nextSetBit(m + run);
+            }
+            setStart[c] = m;
         }
     }
 
+    /*
+     * append the next n values of a column to its vector.
+     */
+    private void readValues(BlockColumnValues v, ColumnVector vector, int n) throws IOException {
+        int off = vector.size();
+        if (vector instanceof BytesVector) {
+            BytesVector bytes = (BytesVector) vector;
+            if (v.getType() == ValueType.STRING) {
+                Utf8View view = new Utf8View();
+                for (int i = 0; i < n; i++)
+                    bytes.add(v.nextUtf8(view));
+            } else {
+                for (int i = 0; i < n; i++)
+                    bytes.add((ByteBuffer) v.next());
+            }
+            return;
+        }
+        vector.setSize(off + n);
+        if (vector instanceof IntVector)
+            ((IntColumnValues) v).readInts(((IntVector) vector).getValues(), off, n);
+        else if (vector instanceof LongVector)
+            ((LongColumnValues) v).readLongs(((LongVector) vector).getValues(), off, n);
+        else if (vector instanceof DoubleVector)
+            ((DoubleColumnValues) v).readDoubles(((DoubleVector) vector).getValues(), off, n);
+        else if (vector instanceof BooleanVector)
+            ((BooleanColumnValues) v).readBooleans(((BooleanVector) vector).getValues(), off, n);
+        else
+            for (int i = 0; i < n; i++)
+                ((ObjectVector) vector).set(off + i, v.next());
+    }
+
     public void setFilters(FilterOperator[] filters) {
         this.filters = filters;
     }
@@ -900,22 +1700,77 @@ public class FilterBatchColumnReader<D> implements Closeable {
         return v;
     }
 
+    /**
+     * Read the chosen rows of the read columns in parallel on executor, or
+     * one column after another if it is null.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Split the column of each full-column filter scan into block ranges and
+     * test the ranges in parallel on the executor set by
+     * {@link #setExecutor(ExecutorService)}, each with its own cursor. There
+     * are four ranges for each thread of the executor.
+     */
+    public void setParallelFilter(boolean parallelFilter) {
+        this.parallelFilter = parallelFilter;
+    }
+
+    /*
+     * return the cursor of a column, opening it when the column is first
+     * used, so that only projected and filtered columns are read.
+     */
+    protected BlockColumnValues getValues(int column) throws IOException {
+        if (values[column] == null) {
+            values[column] = reader.getValues(column);
+            if (prefetcher != null)
+                values[column].setPrefetcher(prefetcher);
+        }
+        return values[column];
+    }
+
     public void create() throws IOException {
         for (BlockColumnValues v : values) {
-            v.create();
+            if (v != null)
+                v.create();
         }
     }
 
     public void create(int no) throws IOException {
-        values[no].create();
+        getValues(no).create();
     }
 
     public int getRowCount(int columnNo) {
-        return values[readNO[columnNo]].getLastRow();
+        try {
+            return getValues(readNO[columnNo]).getLastRow();
+        } catch (IOException e) {
+            throw new TrevniRuntimeException(e);
+        }
+    }
+
+    /**
+     * Read the blocks of every column ahead with a prefetcher, or stop doing
+     * so if it is null.
+     */
+    public void setPrefetcher(BlockPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+        for (BlockColumnValues v : values)
+            if (v != null)
+                v.setPrefetcher(prefetcher);
+    }
+
+    /**
+     * Set when the blocks read from now on have their checksums verified.
+     */
+    public void setChecksumPolicy(ChecksumPolicy checksumPolicy) {
+        reader.setChecksumPolicy(checksumPolicy);
     }
 
     @Override
     public void close() throws IOException {
+        setPrefetcher(null);
         reader.close();
     }
 }
@@ -1,6 +1,6 @@
 package neci.ncfile;
 
-public class FilterTest implements FilterOperator<String> {
+public class FilterTest implements RangeFilterOperator<String> {
     public FilterTest() {
 
     }
@@ -14,4 +14,9 @@ public class FilterTest implements FilterOperator<String> {
     public boolean isMatch(String m) {
         return m.compareTo("1993-10-29") < 0;
     }
+
+    @Override
+    public boolean mayMatch(String min, String max) {
+        return isMatch(min);
+    }
 }
@@ -0,0 +1,9 @@
+package neci.ncfile;
+
+/**
+ * A filter on an int column which can test unboxed values, so that
+ * FilterBatchColumnReader need not box the values it only compares.
+ */
+public interface IntFilterOperator extends FilterOperator<Integer> {
+    public boolean isMatch(int v);
+}
@@ -0,0 +1,9 @@
+package neci.ncfile;
+
+/**
+ * A filter on a long column which can test unboxed values, so that
+ * FilterBatchColumnReader need not box the values it only compares.
+ */
+public interface LongFilterOperator extends FilterOperator<Long> {
+    public boolean isMatch(long v);
+}
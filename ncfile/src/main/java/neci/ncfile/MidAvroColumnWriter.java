@@ -3,7 +3,9 @@ package neci.ncfile;
 import java.io.IOException;
 import java.util.HashMap;
 
+import neci.core.BlockCompressor;
 import neci.core.BlockDescriptor;
+import neci.core.BlockStatistics;
 import neci.core.FileColumnMetaData;
 import neci.core.InsertColumnFileWriter;
 import neci.core.MidOutputBuffer;
@@ -23,10 +25,15 @@ public class MidAvroColumnWriter extends AvroColumnWriter {
         this.keyLen = keyLen;
         columnStart = new long[columncount + layer];
         blocks = new Blocks[columncount + layer];
+        compressors = new BlockCompressor[columncount + layer];
         for (int i = 0; i < columncount + layer; i++) {
             blocks[i] = new Blocks();
         }
 
+        // the key groups are written through MidOutputBuffer, which keeps no statistics
+        stats = new BlockStatistics[columncount + layer];
+        for (FileColumnMetaData c : meta)
+            c.hasStatistics(false);
         buf = new MidOutputBuffer();
         keyBuf = new MidOutputBuffer();
 
@@ -78,10 +85,9 @@ public class MidAvroColumnWriter extends AvroColumnWriter {
     public void flushFlag(int level) throws IOException {
         int columnNo = levelNoMatch.get(level);
         if (index > 0) {
-            BlockDescriptor b = new BlockDescriptor(index, keyBuf.size(), keyBuf.size());
+            BlockDescriptor b = compressor(columnNo).write(data, index, keyBuf);
             blocks[columnNo].add(b);
             index = 0;
-            keyBuf.writeTo(data);
             keyBuf.reset();
         }
     }
@@ -89,10 +95,9 @@ public class MidAvroColumnWriter extends AvroColumnWriter {
     public void writeFlagColumn(int level, byte flag, KeyofBTree value) throws IOException {
         int columnNo = levelNoMatch.get(level);
         if (buf.isFull()) {
-            BlockDescriptor b = new BlockDescriptor(index, buf.size(), buf.size());
+            BlockDescriptor b = compressor(columnNo).write(data, index, buf);
             blocks[columnNo].add(b);
             index = 0;
-            buf.writeTo(data);
             buf.reset();
         }
 
@@ -120,7 +125,7 @@ public class MidAvroColumnWriter extends AvroColumnWriter {
             buf.writeFixed32(size);
             for (int k = 0; k < size; k++) {
                 blocks[i].get(k).writeTo(buf);
-                delay += blocks[i].get(k).getSize();
+                delay += blocks[i].get(k).getSize() + checksumSize(i);
             }
             blocks[i].clear();
             i++;
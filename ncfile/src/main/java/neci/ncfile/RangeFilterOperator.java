@@ -0,0 +1,14 @@
+package neci.ncfile;
+
+/**
+ * A filter which can tell from the min/max values of a block whether any of
+ * its values may match, so that the block need not be read. The min and max
+ * of string columns are in code point order, as
+ * {@link neci.core.Utf8View#compare(CharSequence, CharSequence)} compares.
+ */
+public interface RangeFilterOperator<T> extends FilterOperator<T> {
+    /**
+     * Return false only if no value between min and max (inclusive) matches.
+     */
+    public boolean mayMatch(T min, T max);
+}
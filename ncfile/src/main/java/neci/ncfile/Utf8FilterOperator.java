@@ -0,0 +1,11 @@
+package neci.ncfile;
+
+import neci.core.Utf8View;
+
+/**
+ * A string filter which can test the raw UTF-8 bytes of a value, so that
+ * FilterBatchColumnReader need not copy and decode strings it only compares.
+ */
+public interface Utf8FilterOperator extends FilterOperator<String> {
+    public boolean isMatch(Utf8View v);
+}
@@ -0,0 +1,179 @@
+package neci.ncfile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import neci.core.Utf8View;
+
+/**
+ * String filters comparing raw UTF-8 bytes. The bytes are compared unsigned,
+ * which is the code point order of the strings.
+ */
+public class Utf8Filters {
+    private Utf8Filters() {
+    }
+
+    /**
+     * Match the values equal to value.
+     */
+    public static Utf8FilterOperator eq(String column, String value) {
+        return new Eq(column, value);
+    }
+
+    /**
+     * Match the values equal to any of values.
+     */
+    public static Utf8FilterOperator in(String column, String... values) {
+        return new In(column, values);
+    }
+
+    /**
+     * Match the values starting with prefix.
+     */
+    public static Utf8FilterOperator startsWith(String column, String prefix) {
+        return new Prefix(column, prefix);
+    }
+
+    /**
+     * Match the values from low (inclusive) to high (exclusive). A null bound
+     * is open.
+     */
+    public static Utf8FilterOperator range(String column, String low, String high) {
+        return new Range(column, low, high);
+    }
+
+    abstract static class Utf8Filter implements Utf8FilterOperator, RangeFilterOperator<String> {
+        private final String name;
+
+        Utf8Filter(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public boolean isMatch(String t) {
+            return isMatch(new Utf8View(t));
+        }
+    }
+
+    static class Eq extends Utf8Filter implements EqualityFilterOperator<String> {
+        private final Utf8View value;
+
+        Eq(String name, String value) {
+            super(name);
+            this.value = new Utf8View(value);
+        }
+
+        @Override
+        public Collection<String> getValues() {
+            return Collections.singleton(value.toString());
+        }
+
+        @Override
+        public boolean isMatch(Utf8View v) {
+            return value.equals(v);
+        }
+
+        @Override
+        public boolean mayMatch(String min, String max) {
+            return new Utf8View(min).compareTo(value) <= 0 && new Utf8View(max).compareTo(value) >= 0;
+        }
+    }
+
+    static class In extends Utf8Filter implements EqualityFilterOperator<String> {
+        private final Utf8View[] values;
+        private final String min;
+        private final String max;
+
+        In(String name, String[] values) {
+            super(name);
+            this.values = new Utf8View[values.length];
+            Utf8View lo = null;
+            Utf8View hi = null;
+            for (int i = 0; i < values.length; i++) {
+                this.values[i] = new Utf8View(values[i]);
+                if (lo == null || this.values[i].compareTo(lo) < 0)
+                    lo = this.values[i];
+                if (hi == null || this.values[i].compareTo(hi) > 0)
+                    hi = this.values[i];
+            }
+            this.min = lo == null ? null : lo.toString();
+            this.max = hi == null ? null : hi.toString();
+        }
+
+        @Override
+        public boolean isMatch(Utf8View v) {
+            for (Utf8View value : values)
+                if (value.equals(v))
+                    return true;
+            return false;
+        }
+
+        @Override
+        public Collection<String> getValues() {
+            List<String> result = new ArrayList<String>(values.length);
+            for (Utf8View value : values)
+                result.add(value.toString());
+            return result;
+        }
+
+        @Override
+        public boolean mayMatch(String min, String max) {
+            if (this.min == null)
+                return false;
+            return new Utf8View(min).compareTo(new Utf8View(this.max)) <= 0
+                    && new Utf8View(max).compareTo(new Utf8View(this.min)) >= 0;
+        }
+    }
+
+    static class Prefix extends Utf8Filter {
+        private final Utf8View prefix;
+
+        Prefix(String name, String prefix) {
+            super(name);
+            this.prefix = new Utf8View(prefix);
+        }
+
+        @Override
+        public boolean isMatch(Utf8View v) {
+            return v.startsWith(prefix);
+        }
+
+        @Override
+        public boolean mayMatch(String min, String max) {
+            Utf8View lo = new Utf8View(min);
+            Utf8View hi = new Utf8View(max);
+            // some value between min and max starts with prefix
+            return lo.startsWith(prefix) || hi.startsWith(prefix)
+                    || (lo.compareTo(prefix) < 0 && hi.compareTo(prefix) > 0);
+        }
+    }
+
+    static class Range extends Utf8Filter {
+        private final Utf8View low;
+        private final Utf8View high;
+
+        Range(String name, String low, String high) {
+            super(name);
+            this.low = low == null ? null : new Utf8View(low);
+            this.high = high == null ? null : new Utf8View(high);
+        }
+
+        @Override
+        public boolean isMatch(Utf8View v) {
+            return (low == null || v.compareTo(low) >= 0) && (high == null || v.compareTo(high) < 0);
+        }
+
+        @Override
+        public boolean mayMatch(String min, String max) {
+            return (low == null || new Utf8View(max).compareTo(low) >= 0)
+                    && (high == null || new Utf8View(min).compareTo(high) < 0);
+        }
+    }
+}
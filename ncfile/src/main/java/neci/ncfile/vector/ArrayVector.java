@@ -0,0 +1,41 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A vector of the lengths of an array column. The elements of array i are the
+ * values [getOffset(i), getOffset(i) + getLength(i)) of the vectors of the
+ * columns nested in the array.
+ */
+public class ArrayVector extends ColumnVector {
+    private int[] offsets = new int[1]; // offsets[i + 1] is the end of array i
+
+    public int getLength(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Return the element offsets, whose first {@link #size()} + 1 values are
+     * valid.
+     */
+    public int[] getOffsets() {
+        return offsets;
+    }
+
+    /** Append an array of the named length. */
+    public void add(int length) {
+        setSize(size + 1);
+        offsets[size] = offsets[size - 1] + length;
+    }
+
+    @Override
+    public void setSize(int n) {
+        if (n + 1 > offsets.length)
+            offsets = Arrays.copyOf(offsets, Math.max(n + 1, offsets.length * 2));
+        size = n;
+    }
+}
@@ -0,0 +1,28 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A vector of boolean values.
+ */
+public class BooleanVector extends ColumnVector {
+    private boolean[] values = new boolean[0];
+
+    public boolean get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Return the backing array, whose first {@link #size()} values are valid.
+     */
+    public boolean[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void setSize(int n) {
+        if (n > values.length)
+            values = Arrays.copyOf(values, Math.max(n, values.length * 2));
+        size = n;
+    }
+}
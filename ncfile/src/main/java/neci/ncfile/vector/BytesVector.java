@@ -0,0 +1,74 @@
+package neci.ncfile.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import neci.core.Utf8View;
+
+/**
+ * A vector of string or bytes values, packed back to back in one array. Value
+ * i is the bytes [getOffset(i), getOffset(i) + getLength(i)) of
+ * {@link #getData()}, UTF-8 encoded for strings.
+ */
+public class BytesVector extends ColumnVector {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private byte[] data = new byte[0];
+    private int[] offsets = new int[1]; // offsets[i + 1] is the end of value i
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset(int i) {
+        return offsets[i];
+    }
+
+    public int getLength(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    public Utf8View getUtf8(int i, Utf8View reuse) {
+        if (reuse == null)
+            reuse = new Utf8View();
+        return reuse.set(data, offsets[i], getLength(i));
+    }
+
+    public String getString(int i) {
+        return new String(data, offsets[i], getLength(i), UTF8);
+    }
+
+    public byte[] getBytes(int i) {
+        return Arrays.copyOfRange(data, offsets[i], offsets[i + 1]);
+    }
+
+    public void add(byte[] bytes, int offset, int length) {
+        int end = offsets[size] + length;
+        if (end > data.length)
+            data = Arrays.copyOf(data, Math.max(end, data.length * 2));
+        System.arraycopy(bytes, offset, data, offsets[size], length);
+        setSize(size + 1);
+        offsets[size] = end;
+    }
+
+    public void add(Utf8View v) {
+        add(v.getBytes(), v.getOffset(), v.getLength());
+    }
+
+    public void add(ByteBuffer b) {
+        add(b.array(), b.arrayOffset() + b.position(), b.remaining());
+    }
+
+    /**
+     * Grow the vector to n values; the added values are empty.
+     */
+    @Override
+    public void setSize(int n) {
+        if (n + 1 > offsets.length)
+            offsets = Arrays.copyOf(offsets, Math.max(n + 1, offsets.length * 2));
+        for (int i = size; i < n; i++)
+            offsets[i + 1] = offsets[i];
+        size = n;
+    }
+}
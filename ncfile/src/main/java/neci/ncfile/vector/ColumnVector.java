@@ -0,0 +1,52 @@
+package neci.ncfile.vector;
+
+import neci.core.ValueType;
+
+/**
+ * The values of one column for a {@link VectorBatch}. Vectors are reused from
+ * batch to batch: their arrays only grow, and {@link #reset()} empties them.
+ */
+public abstract class ColumnVector {
+    protected int size;
+
+    /**
+     * Return an empty vector for the values of a column.
+     */
+    public static ColumnVector create(ValueType type, boolean isArray) {
+        if (isArray)
+            return new ArrayVector();
+        switch (type) {
+            case INT:
+            case FIXED32:
+                return new IntVector();
+            case LONG:
+            case FIXED64:
+                return new LongVector();
+            case FLOAT:
+            case DOUBLE:
+                return new DoubleVector();
+            case BOOLEAN:
+                return new BooleanVector();
+            case STRING:
+            case BYTES:
+                return new BytesVector();
+            default:
+                return new ObjectVector();
+        }
+    }
+
+    /** Return the number of values in this vector. */
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    /**
+     * Make room for n values, keeping the values already held, and set the
+     * size of this vector to n.
+     */
+    public abstract void setSize(int n);
+}
@@ -0,0 +1,28 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A vector of double values. Float columns are widened to double.
+ */
+public class DoubleVector extends ColumnVector {
+    private double[] values = new double[0];
+
+    public double get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Return the backing array, whose first {@link #size()} values are valid.
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void setSize(int n) {
+        if (n > values.length)
+            values = Arrays.copyOf(values, Math.max(n, values.length * 2));
+        size = n;
+    }
+}
@@ -0,0 +1,28 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A vector of int values.
+ */
+public class IntVector extends ColumnVector {
+    private int[] values = new int[0];
+
+    public int get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Return the backing array, whose first {@link #size()} values are valid.
+     */
+    public int[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void setSize(int n) {
+        if (n > values.length)
+            values = Arrays.copyOf(values, Math.max(n, values.length * 2));
+        size = n;
+    }
+}
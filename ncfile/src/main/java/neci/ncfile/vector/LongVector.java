@@ -0,0 +1,28 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A vector of long values.
+ */
+public class LongVector extends ColumnVector {
+    private long[] values = new long[0];
+
+    public long get(int i) {
+        return values[i];
+    }
+
+    /**
+     * Return the backing array, whose first {@link #size()} values are valid.
+     */
+    public long[] getValues() {
+        return values;
+    }
+
+    @Override
+    public void setSize(int n) {
+        if (n > values.length)
+            values = Arrays.copyOf(values, Math.max(n, values.length * 2));
+        size = n;
+    }
+}
@@ -0,0 +1,32 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A vector of the values of a column with no specialized vector, such as
+ * groups and unions, holding each value as read.
+ */
+public class ObjectVector extends ColumnVector {
+    private Object[] values = new Object[0];
+
+    public Object get(int i) {
+        return values[i];
+    }
+
+    public void set(int i, Object value) {
+        values[i] = value;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(values, 0, size, null);
+        super.reset();
+    }
+
+    @Override
+    public void setSize(int n) {
+        if (n > values.length)
+            values = Arrays.copyOf(values, Math.max(n, values.length * 2));
+        size = n;
+    }
+}
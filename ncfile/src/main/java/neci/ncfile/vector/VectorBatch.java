@@ -0,0 +1,90 @@
+package neci.ncfile.vector;
+
+import java.util.Arrays;
+
+/**
+ * A batch of rows read column by column into reusable vectors, one per column
+ * of the read schema in the order of the schema's flattened columns. The
+ * batch holds {@link #getSize()} rows of the top level; the vectors of columns
+ * nested in arrays hold the elements of those rows, as located by the
+ * {@link ArrayVector} of their array.
+ * <p>
+ * Operators narrow a batch without copying it through the selection vector:
+ * when {@link #isSelectedInUse()}, only the top level rows listed in the first
+ * {@link #getSelectedSize()} entries of {@link #getSelected()} are live.
+ */
+public class VectorBatch {
+    private final String[] names;
+    private final ColumnVector[] columns;
+    private int size;
+    private int[] selected = new int[0];
+    private int selectedSize;
+    private boolean selectedInUse;
+
+    public VectorBatch(String[] names, ColumnVector[] columns) {
+        this.names = names;
+        this.columns = columns;
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public String getName(int column) {
+        return names[column];
+    }
+
+    public ColumnVector getColumn(int column) {
+        return columns[column];
+    }
+
+    public ColumnVector getColumn(String name) {
+        for (int i = 0; i < names.length; i++)
+            if (names[i].equals(name))
+                return columns[i];
+        throw new IllegalArgumentException("No column named: " + name);
+    }
+
+    /** Return the number of top level rows in this batch. */
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public boolean isSelectedInUse() {
+        return selectedInUse;
+    }
+
+    public void setSelectedInUse(boolean selectedInUse) {
+        this.selectedInUse = selectedInUse;
+    }
+
+    /**
+     * Return the selection vector, which has room for {@link #getSize()}
+     * entries.
+     */
+    public int[] getSelected() {
+        if (selected.length < size)
+            selected = Arrays.copyOf(selected, size);
+        return selected;
+    }
+
+    public int getSelectedSize() {
+        return selectedInUse ? selectedSize : size;
+    }
+
+    public void setSelectedSize(int selectedSize) {
+        this.selectedSize = selectedSize;
+    }
+
+    public void reset() {
+        size = 0;
+        selectedSize = 0;
+        selectedInUse = false;
+        for (ColumnVector c : columns)
+            c.reset();
+    }
+}
@@ -0,0 +1,149 @@
+package neci.ncfile;
+
+import static neci.ncfile.Aggregate.count;
+import static neci.ncfile.Aggregate.max;
+import static neci.ncfile.Aggregate.sum;
+import static neci.ncfile.FilterApi.lt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import neci.core.BatchColumnFileWriter;
+import neci.core.FileColumnMetaData;
+import neci.core.FileMetaData;
+import neci.core.InsertColumnFileWriter;
+import neci.core.InsertColumnFileWriter.ListArr;
+import neci.core.ValueType;
+
+public class AggregatePerParentTest {
+    private static final int ROWS = 5000;
+
+    private static File file;
+    // customers, each with orders of lines
+    private static int[] ids = new int[ROWS];
+    private static String[] names = new String[ROWS];
+    private static int[][] quantities = new int[ROWS][];
+    private static long[][] prices = new long[ROWS][];
+    private static int[][][] weights = new int[ROWS][][];
+
+    @BeforeClass
+    public static void write() throws IOException {
+        Random random = new Random(25);
+        FileColumnMetaData id = new FileColumnMetaData("id", ValueType.INT);
+        FileColumnMetaData name = new FileColumnMetaData("name", ValueType.STRING);
+        FileColumnMetaData orders = new FileColumnMetaData("orders[]", ValueType.NULL).isArray(true);
+        FileColumnMetaData quantity = new FileColumnMetaData("quantity", ValueType.INT).setParent(orders)
+                .setLayer(1);
+        FileColumnMetaData price = new FileColumnMetaData("price", ValueType.LONG).setParent(orders).setLayer(1);
+        FileColumnMetaData lines = new FileColumnMetaData("lines[]", ValueType.NULL).isArray(true)
+                .setParent(orders).setLayer(1);
+        FileColumnMetaData weight = new FileColumnMetaData("weight", ValueType.INT).setParent(lines).setLayer(2);
+        FileColumnMetaData[] meta = { id, name, orders, quantity, price, lines, weight };
+        ListArr[] insert = new ListArr[meta.length];
+        for (int c = 0; c < meta.length; c++)
+            insert[c] = new ListArr();
+        for (int i = 0; i < ROWS; i++) {
+            ids[i] = i;
+            names[i] = "customer" + i;
+            int n = random.nextInt(5); // some customers have no orders
+            quantities[i] = new int[n];
+            prices[i] = new long[n];
+            weights[i] = new int[n][];
+            insert[0].add(ids[i]);
+            insert[1].add(names[i]);
+            insert[2].add(n);
+            for (int j = 0; j < n; j++) {
+                quantities[i][j] = random.nextInt(20);
+                prices[i][j] = random.nextInt(100000);
+                weights[i][j] = new int[random.nextInt(4)];
+                insert[3].add(quantities[i][j]);
+                insert[4].add(prices[i][j]);
+                insert[5].add(weights[i][j].length);
+                for (int k = 0; k < weights[i][j].length; k++) {
+                    weights[i][j][k] = random.nextInt(1000);
+                    insert[6].add(weights[i][j][k]);
+                }
+            }
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(
+                new FileMetaData().setCodec("snappy").setBlockSize(2048), meta);
+        writer.setInsert(insert);
+        file = File.createTempFile("perparent", ".neci");
+        writer.flushTo(file);
+    }
+
+    @AfterClass
+    public static void delete() {
+        file.delete();
+        InsertColumnFileWriter.headFile(file).delete();
+    }
+
+    @Test
+    public void testAllElements() throws IOException {
+        FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file);
+        try {
+            check(expected(Integer.MAX_VALUE), reader.aggregatePerParent("orders[]", new String[] { "id", "name" },
+                    count(), sum("price"), max("quantity"), sum("weight"), count("weight")));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testChosenElements() throws IOException {
+        // only the orders of a quantity below 5 are aggregated, for the customers having one
+        FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file, lt("quantity", 5));
+        try {
+            reader.filter();
+            check(expected(5), reader.aggregatePerParent("orders[]", new String[] { "id", "name" }, count(),
+                    sum("price"), max("quantity"), sum("weight"), count("weight")));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /*
+     * compute the aggregates of each customer over its orders of less than a
+     * quantity. With a bound, only the customers with such orders are kept.
+     */
+    private static List<Object[]> expected(int below) {
+        List<Object[]> result = new ArrayList<Object[]>();
+        for (int i = 0; i < ROWS; i++) {
+            long orders = 0;
+            Long price = null;
+            Integer quantity = null;
+            Long weight = null;
+            long lines = 0;
+            for (int j = 0; j < quantities[i].length; j++) {
+                if (quantities[i][j] >= below)
+                    continue;
+                orders++;
+                price = (price == null ? 0 : price) + prices[i][j];
+                if (quantity == null || quantities[i][j] > quantity)
+                    quantity = quantities[i][j];
+                for (int w : weights[i][j]) {
+                    weight = (weight == null ? 0 : weight) + w;
+                    lines++;
+                }
+            }
+            if (below == Integer.MAX_VALUE || orders > 0)
+                result.add(new Object[] { ids[i], names[i], orders, price, quantity, weight, lines });
+        }
+        return result;
+    }
+
+    private static void check(List<Object[]> expected, List<Object[]> got) {
+        assertEquals(expected.size(), got.size());
+        for (int i = 0; i < got.size(); i++)
+            assertArrayEquals("row " + i, expected.get(i), got.get(i));
+    }
+}
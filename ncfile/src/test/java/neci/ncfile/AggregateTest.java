@@ -0,0 +1,228 @@
+package neci.ncfile;
+
+import static neci.ncfile.Aggregate.avg;
+import static neci.ncfile.Aggregate.count;
+import static neci.ncfile.Aggregate.max;
+import static neci.ncfile.Aggregate.min;
+import static neci.ncfile.Aggregate.sum;
+import static neci.ncfile.FilterApi.eq;
+import static neci.ncfile.FilterApi.lt;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import neci.core.BatchColumnFileWriter;
+import neci.core.FileColumnMetaData;
+import neci.core.FileMetaData;
+import neci.core.InsertColumnFileWriter;
+import neci.core.InsertColumnFileWriter.ListArr;
+import neci.core.ValueType;
+import neci.ncfile.FilterApi.Predicate;
+
+public class AggregateTest {
+    private static final int ROWS = 30000;
+    private static final String[] REGIONS = { "north", "south", "east", "west", "\u4e2d" };
+
+    private static File file;
+    private static String[] regions = new String[ROWS];
+    private static int[] years = new int[ROWS];
+    private static int[] quantities = new int[ROWS];
+    private static long[] amounts = new long[ROWS];
+    private static double[] prices = new double[ROWS];
+
+    @BeforeClass
+    public static void write() throws IOException {
+        Random random = new Random(24);
+        for (int i = 0; i < ROWS; i++) {
+            regions[i] = REGIONS[random.nextInt(REGIONS.length)];
+            years[i] = 2000 + random.nextInt(3);
+            quantities[i] = random.nextInt(100) - 20;
+            amounts[i] = random.nextLong() >> 20;
+            prices[i] = random.nextInt(100000) / 100.0;
+        }
+        FileColumnMetaData[] meta = { new FileColumnMetaData("region", ValueType.STRING),
+                new FileColumnMetaData("year", ValueType.INT), new FileColumnMetaData("quantity", ValueType.INT),
+                new FileColumnMetaData("amount", ValueType.LONG), new FileColumnMetaData("price", ValueType.DOUBLE) };
+        ListArr[] insert = new ListArr[meta.length];
+        for (int c = 0; c < meta.length; c++)
+            insert[c] = new ListArr();
+        for (int i = 0; i < ROWS; i++) {
+            insert[0].add(regions[i]);
+            insert[1].add(years[i]);
+            insert[2].add(quantities[i]);
+            insert[3].add(amounts[i]);
+            insert[4].add(prices[i]);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(
+                new FileMetaData().setCodec("lz4").setEncoding("dictionary").setBlockSize(4096), meta);
+        writer.setInsert(insert);
+        file = File.createTempFile("aggregate", ".neci");
+        writer.flushTo(file);
+    }
+
+    @AfterClass
+    public static void delete() {
+        file.delete();
+        InsertColumnFileWriter.headFile(file).delete();
+    }
+
+    @Test
+    public void testAll() throws IOException {
+        FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file);
+        try {
+            check(expected(null), reader.aggregate(new String[0], aggregates()));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testFiltered() throws IOException {
+        Predicate predicate = lt("quantity", 10);
+        FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file, predicate);
+        try {
+            reader.filter();
+            check(expected(predicate), reader.aggregate(new String[0], aggregates()));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testGroupBy() throws IOException {
+        Predicate predicate = lt("quantity", 50);
+        for (String[] groupBy : new String[][] { { "region" }, { "region", "year" } }) {
+            Map<List<Object>, long[]> groups = new LinkedHashMap<List<Object>, long[]>();
+            for (int i = 0; i < ROWS; i++) {
+                if (!predicate.isMatch(quantities[i]))
+                    continue;
+                List<Object> key = groupBy.length == 1 ? Arrays.<Object> asList(regions[i])
+                        : Arrays.<Object> asList(regions[i], years[i]);
+                long[] sums = groups.get(key);
+                if (sums == null)
+                    groups.put(key, sums = new long[2]);
+                sums[0]++;
+                sums[1] += amounts[i];
+            }
+            List<Object[]> expected = new ArrayList<Object[]>();
+            for (Map.Entry<List<Object>, long[]> e : groups.entrySet()) {
+                List<Object> row = new ArrayList<Object>(e.getKey());
+                row.add(e.getValue()[0]);
+                row.add(e.getValue()[1]);
+                expected.add(row.toArray());
+            }
+
+            FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file, predicate);
+            try {
+                reader.filter();
+                List<Object[]> got = reader.aggregate(groupBy, count(), sum("amount"));
+                assertEquals(expected.size(), got.size());
+                for (int i = 0; i < got.size(); i++)
+                    assertArrayEquals(Arrays.toString(groupBy), expected.get(i), got.get(i));
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file, eq("region", "none"));
+        try {
+            reader.filter();
+            List<Object[]> got = reader.aggregate(new String[0], aggregates());
+            assertEquals(1, got.size());
+            assertArrayEquals(new Object[] { 0L, null, null, null, null, null, null, null, null }, got.get(0));
+        } finally {
+            reader.close();
+        }
+        reader = new FilterBatchColumnReader<Object>(file, eq("region", "none"));
+        try {
+            reader.filter();
+            assertEquals(0, reader.aggregate(new String[] { "region" }, count(), sum("amount")).size());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testCountAlone() throws IOException {
+        FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file);
+        try {
+            assertArrayEquals(new Object[] { (long) ROWS }, reader.aggregate(new String[0], count()).get(0));
+        } finally {
+            reader.close();
+        }
+        Predicate predicate = lt("quantity", 0);
+        reader = new FilterBatchColumnReader<Object>(file, predicate);
+        try {
+            reader.filter();
+            assertArrayEquals(new Object[] { expected(predicate)[0] },
+                    reader.aggregate(new String[0], count()).get(0));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Aggregate[] aggregates() {
+        return new Aggregate[] { count(), sum("quantity"), sum("amount"), sum("price"), min("quantity"),
+                max("amount"), min("region"), max("price"), avg("price") };
+    }
+
+    /*
+     * compute the aggregates over the rows whose quantity matches a predicate,
+     * or over all rows.
+     */
+    private static Object[] expected(Predicate predicate) {
+        long count = 0;
+        long quantity = 0;
+        long amount = 0;
+        double price = 0;
+        Integer minQuantity = null;
+        Long maxAmount = null;
+        String minRegion = null;
+        Double maxPrice = null;
+        for (int i = 0; i < ROWS; i++) {
+            if (predicate != null && !predicate.isMatch(quantities[i]))
+                continue;
+            count++;
+            quantity += quantities[i];
+            amount += amounts[i];
+            price += prices[i];
+            if (minQuantity == null || quantities[i] < minQuantity)
+                minQuantity = quantities[i];
+            if (maxAmount == null || amounts[i] > maxAmount)
+                maxAmount = amounts[i];
+            if (minRegion == null || regions[i].compareTo(minRegion) < 0)
+                minRegion = regions[i];
+            if (maxPrice == null || prices[i] > maxPrice)
+                maxPrice = prices[i];
+        }
+        return new Object[] { count, quantity, amount, price, minQuantity, maxAmount, minRegion, maxPrice,
+                price / count };
+    }
+
+    private static void check(Object[] expected, List<Object[]> got) {
+        assertEquals(1, got.size());
+        Object[] row = got.get(0);
+        assertEquals(expected.length, row.length);
+        for (int i = 0; i < row.length; i++) {
+            if (expected[i] instanceof Double)
+                assertEquals("column " + i, (Double) expected[i], (Double) row[i], 1e-6 * Math.abs((Double) expected[i]));
+            else
+                assertEquals("column " + i, expected[i], row[i]);
+        }
+    }
+}
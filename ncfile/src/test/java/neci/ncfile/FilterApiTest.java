@@ -0,0 +1,259 @@
+package neci.ncfile;
+
+import static neci.ncfile.FilterApi.and;
+import static neci.ncfile.FilterApi.between;
+import static neci.ncfile.FilterApi.eq;
+import static neci.ncfile.FilterApi.gt;
+import static neci.ncfile.FilterApi.in;
+import static neci.ncfile.FilterApi.isNull;
+import static neci.ncfile.FilterApi.lt;
+import static neci.ncfile.FilterApi.ne;
+import static neci.ncfile.FilterApi.not;
+import static neci.ncfile.FilterApi.or;
+import static neci.ncfile.FilterApi.startsWith;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import neci.core.BatchColumnFileWriter;
+import neci.core.BlockPrefetcher;
+import neci.core.FileColumnMetaData;
+import neci.core.FileMetaData;
+import neci.core.InsertColumnFileWriter;
+import neci.core.InsertColumnFileWriter.ListArr;
+import neci.core.ValueType;
+import neci.ncfile.FilterApi.Predicate;
+
+public class FilterApiTest {
+    private static final int ROWS = 50000;
+
+    private static File file;
+    private static int[] ids = new int[ROWS];
+    private static String[] names = new String[ROWS];
+    private static double[] prices = new double[ROWS];
+    private static long[] counts = new long[ROWS];
+    private static String[] notes = new String[ROWS];
+
+    private static ExecutorService executor;
+
+    /*
+     * the rows a predicate should match, tested one by one.
+     */
+    private interface Rows {
+        boolean isMatch(int row);
+    }
+
+    @BeforeClass
+    public static void write() throws IOException {
+        Random random = new Random(21);
+        for (int i = 0; i < ROWS; i++) {
+            ids[i] = i;
+            names[i] = (i % 3 == 0 ? "cat" : "dog") + random.nextInt(20);
+            prices[i] = random.nextInt(10000) / 100.0;
+            counts[i] = i < ROWS / 2 ? i * 10L : random.nextInt(1000000);
+            notes[i] = i % 7 == 0 ? null : "note" + i % 50;
+        }
+        FileColumnMetaData[] meta = { new FileColumnMetaData("id", ValueType.INT).hasStatistics(true),
+                new FileColumnMetaData("name", ValueType.STRING).hasStatistics(true).hasBloomFilter(true),
+                new FileColumnMetaData("price", ValueType.DOUBLE).hasStatistics(true),
+                new FileColumnMetaData("count", ValueType.LONG).hasStatistics(true),
+                new FileColumnMetaData("note", ValueType.UNION, 2,
+                        new ValueType[] { ValueType.NULL, ValueType.STRING }) };
+        ListArr[] insert = new ListArr[meta.length];
+        for (int c = 0; c < meta.length; c++)
+            insert[c] = new ListArr();
+        for (int i = 0; i < ROWS; i++) {
+            insert[0].add(ids[i]);
+            insert[1].add(names[i]);
+            insert[2].add(prices[i]);
+            insert[3].add(counts[i]);
+            insert[4].add(notes[i]);
+        }
+        BatchColumnFileWriter writer = new BatchColumnFileWriter(
+                new FileMetaData().setCodec("snappy").setBlockSize(4096), meta);
+        writer.setInsert(insert);
+        file = File.createTempFile("filter", ".neci");
+        writer.flushTo(file);
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    @AfterClass
+    public static void delete() {
+        executor.shutdown();
+        file.delete();
+        InsertColumnFileWriter.headFile(file).delete();
+    }
+
+    @Test
+    public void testEq() throws IOException {
+        check(eq("name", "cat7"), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return names[row].equals("cat7");
+            }
+        });
+        check(eq("id", 12345), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return row == 12345;
+            }
+        });
+    }
+
+    @Test
+    public void testNe() throws IOException {
+        check(ne("name", "dog3"), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return !names[row].equals("dog3");
+            }
+        });
+    }
+
+    @Test
+    public void testLt() throws IOException {
+        check(lt("price", 12.5), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return prices[row] < 12.5;
+            }
+        });
+        check(lt("id", 100), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return row < 100;
+            }
+        });
+    }
+
+    @Test
+    public void testBetween() throws IOException {
+        // the sorted first half lets statistics skip blocks
+        check(between("count", 20000L, 40000L), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return counts[row] >= 20000 && counts[row] <= 40000;
+            }
+        });
+    }
+
+    @Test
+    public void testIn() throws IOException {
+        check(in("name", "cat1", "dog19", "bird"), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return names[row].equals("cat1") || names[row].equals("dog19");
+            }
+        });
+    }
+
+    @Test
+    public void testIsNull() throws IOException {
+        check(isNull("note"), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return notes[row] == null;
+            }
+        });
+    }
+
+    @Test
+    public void testStartsWith() throws IOException {
+        check(startsWith("name", "cat1"), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return names[row].startsWith("cat1");
+            }
+        });
+    }
+
+    @Test
+    public void testNot() throws IOException {
+        check(not(gt("price", 50.0)), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return !(prices[row] > 50.0);
+            }
+        });
+    }
+
+    @Test
+    public void testOrAcrossColumns() throws IOException {
+        check(or(eq("name", "dog4"), lt("price", 1.0)), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return names[row].equals("dog4") || prices[row] < 1.0;
+            }
+        });
+    }
+
+    @Test
+    public void testAnd() throws IOException {
+        check(and(startsWith("name", "dog"), lt("count", 5000L), not(isNull("note"))), new Rows() {
+            @Override
+            public boolean isMatch(int row) {
+                return names[row].startsWith("dog") && counts[row] < 5000 && notes[row] != null;
+            }
+        });
+    }
+
+    /*
+     * filter with a predicate, with and without parallel scans and ordered
+     * filters, and compare the ids read back with those of the rows matched
+     * one by one.
+     */
+    private static void check(Predicate predicate, Rows rows) throws IOException {
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < ROWS; i++)
+            if (rows.isMatch(i))
+                expected.add(ids[i]);
+        BlockPrefetcher prefetcher = new BlockPrefetcher(2, 4, 1L << 20);
+        try {
+            for (boolean parallel : new boolean[] { false, true }) {
+                for (boolean order : new boolean[] { false, true }) {
+                    String message = predicate + (parallel ? " parallel" : "") + (order ? " ordered" : "");
+                    FilterBatchColumnReader<Object> reader = new FilterBatchColumnReader<Object>(file, predicate);
+                    try {
+                        reader.setOrderFilters(order);
+                        if (parallel) {
+                            reader.setExecutor(executor);
+                            reader.setParallelFilter(true);
+                            reader.setPrefetcher(prefetcher);
+                        }
+                        reader.filter();
+                        List<Integer> got = new ArrayList<Integer>();
+                        for (Object[] row : reader.aggregate(new String[] { "id" }, Aggregate.count()))
+                            got.add((Integer) row[0]);
+                        assertEquals(message, expected, got);
+                    } finally {
+                        reader.close();
+                    }
+                }
+            }
+            // the blocks the range cursors dropped are released as their tasks end
+            for (int wait = 0; wait < 100 && prefetcher.getReserved() != 0; wait++)
+                sleep();
+            assertEquals(predicate.toString(), 0, prefetcher.getReserved());
+        } finally {
+            prefetcher.shutdown();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}